@@ -52,6 +52,7 @@ import org.opennms.plugins.cloud.grpc.CloseUtil;
 import org.opennms.plugins.cloud.grpc.CloudLogService;
 import org.opennms.plugins.cloud.grpc.GrpcConnection;
 import org.opennms.plugins.cloud.grpc.GrpcConnectionConfig;
+import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler;
 import org.opennms.plugins.cloud.srv.GrpcService;
 import org.opennms.plugins.cloud.srv.RegistrationManager;
 import org.opennms.plugins.cloud.srv.tsaas.TsaasStorage;
@@ -99,6 +100,7 @@ public class ConfigurationManager {
     private final GrpcConnectionConfig pasConfigTls;
     private final GrpcConnectionConfig pasConfigMtls;
     private final RuntimeInfo runtimeInfo;
+    private final GrpcExecutionHandler grpcHandler;
 
     private Instant tokenExpirationDate;
     private Instant certExpirationDate;
@@ -108,7 +110,8 @@ public class ConfigurationManager {
                                 final GrpcConnectionConfig pasConfigMtls,
                                 final RegistrationManager serviceManager,
                                 final RuntimeInfo runtimeInfo,
-                                final List<GrpcService> grpcServices
+                                final List<GrpcService> grpcServices,
+                                final GrpcExecutionHandler grpcHandler
     ) {
         this.config = Objects.requireNonNull(config);
         this.pasConfigTls = Objects.requireNonNull(pasConfigTls);
@@ -116,6 +119,7 @@ public class ConfigurationManager {
         this.serviceManager = Objects.requireNonNull(serviceManager);
         this.grpcServices = Objects.requireNonNull(grpcServices);
         this.runtimeInfo = Objects.requireNonNull(runtimeInfo);
+        this.grpcHandler = Objects.requireNonNull(grpcHandler);
 
         // the authentication has been done previously => lets configure and start services
         if (AUTHENTCATED.name().equals(this.config.getOrNull(Key.configstatus))
@@ -150,7 +154,7 @@ public class ConfigurationManager {
 
             Objects.requireNonNull(key, "key must not be null");
             // Fetching initial credentials via TLS and cloud key
-            final PasAccess pasWithTls = new PasAccess(grpcWithTls);
+            final PasAccess pasWithTls = new PasAccess(grpcWithTls, grpcHandler);
             Map<ConfigStore.Key, String> cloudCredentials = pasWithTls.getCredentialsFromAccessService(key, runtimeInfo.getSystemId());
             LOG.info("Cloud configuration received from PAS (Platform Access Service).");
             if (pasConfigTls.getClientTrustStore() != null && !pasConfigTls.getClientTrustStore().isBlank()) {
@@ -183,7 +187,7 @@ public class ConfigurationManager {
             this.certExpirationDate = CertUtil.getExpiryDate(cloudGatewayConfig.getPublicKey());
             GrpcConnection<AuthenticateGrpc.AuthenticateBlockingStub> pasWithMtlsConfig = createPasGrpc(cloudGatewayConfig);
             closeUtil.add(pasWithMtlsConfig);
-            final PasAccess pasWithMtls = new PasAccess(pasWithMtlsConfig);
+            final PasAccess pasWithMtls = new PasAccess(pasWithMtlsConfig, grpcHandler);
             Map<Key, String> cloudCredentials = pasWithMtls.renewCertificate(runtimeInfo.getSystemId());
             LOG.info("New certificates received from PAS (Platform Access Service).");
             cloudCredentials.put(Key.configstatus, AUTHENTCATED.name());
@@ -211,7 +215,7 @@ public class ConfigurationManager {
             this.certExpirationDate = CertUtil.getExpiryDate(cloudGatewayConfig.getPublicKey());
             GrpcConnection<AuthenticateGrpc.AuthenticateBlockingStub> pasWithMtlsConfig = createPasGrpc(cloudGatewayConfig);
             closeUtil.add(pasWithMtlsConfig);
-            final PasAccess pasWithMtls = new PasAccess(pasWithMtlsConfig);
+            final PasAccess pasWithMtls = new PasAccess(pasWithMtlsConfig, grpcHandler);
 
             // step 7: identify
             // as discussed in the Green Twine meeting: we skip this call for now. Not necessary for TSAAS.
@@ -230,7 +234,7 @@ public class ConfigurationManager {
                     .build();
             LOG.info("Received token.");
 
-            initGrpcServices(cloudGatewayConfig); // give all grpc services the new config
+            initGrpcServices(cloudGatewayConfig); // give all grpc services the new config, they connect before we register them
             LOG.info("All services configured with grpc config.");
             checkConnection();
 
@@ -38,15 +38,18 @@ import org.opennms.dataplatform.access.AuthenticateGrpc;
 import org.opennms.dataplatform.access.AuthenticateOuterClass;
 import org.opennms.plugins.cloud.config.ConfigStore.Key;
 import org.opennms.plugins.cloud.grpc.GrpcConnection;
+import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler;
 import org.opennms.plugins.cloud.srv.RegistrationManager;
 
 /** Handles calls to PAS (Platform Access Service). */
 class PasAccess {
 
     final GrpcConnection<AuthenticateGrpc.AuthenticateBlockingStub> grpc;
+    final GrpcExecutionHandler grpcHandler;
 
-    PasAccess(final GrpcConnection<AuthenticateGrpc.AuthenticateBlockingStub> grpc) {
+    PasAccess(final GrpcConnection<AuthenticateGrpc.AuthenticateBlockingStub> grpc, final GrpcExecutionHandler grpcHandler) {
         this.grpc = Objects.requireNonNull(grpc);
+        this.grpcHandler = Objects.requireNonNull(grpcHandler);
     }
 
     Map<Key, String> getCredentialsFromAccessService(final String key, final String systemId) {
@@ -55,7 +58,8 @@ class PasAccess {
                 .setAuthenticationKey(key)
                 .setSystemUuid(systemId)
                 .build();
-        AuthenticateOuterClass.AuthenticateKeyResponse response = grpc.get().authenticateKey(keyRequest);
+        AuthenticateOuterClass.AuthenticateKeyResponse response = grpcHandler.executeWithDeadline(AuthenticateGrpc.getAuthenticateKeyMethod(),
+                () -> grpc.get().authenticateKey(keyRequest));
         Map<Key, String> attributes = new EnumMap<>(Key.class);
         if (response.getGrpcEndpoint().contains(":")) {
             String[] split = response.getGrpcEndpoint().split(":");
@@ -68,12 +72,14 @@ class PasAccess {
     }
 
     Set<RegistrationManager.Service> getActiveServices(final String systemId) {
-        AuthenticateOuterClass.GetServicesResponse servicesResponse = grpc
-                .get()
-                .getServices(
-                        AuthenticateOuterClass.GetServicesRequest.newBuilder()
-                                .setSystemId(systemId)
-                                .build());
+        AuthenticateOuterClass.GetServicesResponse servicesResponse = grpcHandler.executeWithDeadline(
+                AuthenticateGrpc.getGetServicesMethod(),
+                () -> grpc
+                        .get()
+                        .getServices(
+                                AuthenticateOuterClass.GetServicesRequest.newBuilder()
+                                        .setSystemId(systemId)
+                                        .build()));
         return servicesResponse
                 .getServicesMap()
                 .entrySet()
@@ -90,15 +96,18 @@ class PasAccess {
                 .addAllServices(activeServices.stream().map(RegistrationManager.Service::name).collect(Collectors.toList()))
                 .setSystemUuid(systemId)
                 .build();
-        AuthenticateOuterClass.GetAccessTokenResponse response = this.grpc.get().getAccessToken(request);
+        AuthenticateOuterClass.GetAccessTokenResponse response = grpcHandler.executeWithDeadline(AuthenticateGrpc.getGetAccessTokenMethod(),
+                () -> this.grpc.get().getAccessToken(request));
         return response.getToken();
     }
 
     public Map<Key, String> renewCertificate(String systemId) {
-        AuthenticateOuterClass.RenewCertificateResponse response = this.grpc.get().renewCertificate(
-                AuthenticateOuterClass.RenewCertificateRequest.newBuilder()
-                .setSystemUuid(systemId)
-                .build());
+        AuthenticateOuterClass.RenewCertificateResponse response = grpcHandler.executeWithDeadline(
+                AuthenticateGrpc.getRenewCertificateMethod(),
+                () -> this.grpc.get().renewCertificate(
+                        AuthenticateOuterClass.RenewCertificateRequest.newBuilder()
+                                .setSystemUuid(systemId)
+                                .build()));
         Map<Key, String> attributes = new EnumMap<>(Key.class);
         attributes.put(Key.privatekey, response.getPrivateKey());
         attributes.put(Key.publickey, response.getCertificate());
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.grpc;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops calling the cloud while it is not reachable, so that callers fail fast instead of waiting for the connection
+ * attempt to fail:
+ * - CLOSED: calls go through. After failureThreshold failures in a row it opens.
+ * - OPEN: calls are rejected. After openDuration the next call is let through as probe (HALF_OPEN).
+ * - HALF_OPEN: the probe is in flight, other calls are rejected. If it succeeds the breaker closes, otherwise it opens
+ * again.
+ * Only the outcome "cloud not reachable" is a failure, any answer of the cloud (even an error) counts as success.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openDurationInNanos;
+
+    private State state = State.CLOSED; // guarded by this
+    private int failures; // guarded by this
+    private long openedAtNanos; // guarded by this
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    public CircuitBreaker(final int failureThreshold, final long openDurationInMs) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException(String.format("failureThreshold must be at least 1 but was %s", failureThreshold));
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDurationInNanos = MILLISECONDS.toNanos(openDurationInMs);
+    }
+
+    /**
+     * @return true if the call may be made. In this case {@link #onSuccess()} or {@link #onFailure()} must be called
+     * when it is done.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && System.nanoTime() - openedAtNanos >= openDurationInNanos) {
+            state = State.HALF_OPEN; // let this call through as probe
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAtNanos = System.nanoTime();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of calls that were rejected.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+}
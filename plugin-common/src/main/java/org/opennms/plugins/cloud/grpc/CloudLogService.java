@@ -31,10 +31,13 @@ package org.opennms.plugins.cloud.grpc;
 import static java.util.Objects.requireNonNull;
 import static org.apache.commons.lang3.StringUtils.contains;
 import static org.opennms.plugins.cloud.grpc.CloudLogServiceUtil.convertToLatencyTraceList;
+import static org.opennms.plugins.cloud.grpc.LatencyHistograms.SEND_LATENCY_SUMMARIES_METHOD;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.integration.api.v1.timeseries.StorageException;
 import org.opennms.plugins.cloud.srv.GrpcService;
@@ -47,14 +50,28 @@ import com.google.common.annotations.VisibleForTesting;
 
 import io.grpc.MethodDescriptor;
 import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCalls;
 import lombok.Getter;
 
 public class CloudLogService implements GrpcService {
 
-    private final ConcurrentLinkedQueue<LogEntry> logEntryQueue;
+    private final LogRingBuffer<LogEntry> logEntryQueue;
 
     private final CloudLogServiceConfig cloudLogServiceConfig;
 
+    private final TraceSampler sampler;
+
+    private List<LogEntry> unsentBatch; // failed because of a network problem, sent again first
+
+    private final LatencyHistograms histograms;
+
+    private LatencySummaries.LatencySummaryBatch unsentSummaries; // failed because of a network problem, sent again first
+
+    private volatile boolean summariesSupported = true;
+
+    private final AtomicLong summariesSent = new AtomicLong();
+
     private static final String SEND_TRACES_METHOD = "Gateway/SendTraces";
 
     private static final Logger LOG = LoggerFactory.getLogger(CloudLogService.class);
@@ -62,28 +79,78 @@ public class CloudLogService implements GrpcService {
 
     @Getter
     @VisibleForTesting
-    private GrpcConnection<GatewayGrpc.GatewayBlockingStub> grpc;
+    private volatile GrpcConnection<GatewayGrpc.GatewayBlockingStub> grpc; // swapped by initGrpc() while batches are sent, read it once per call
+
+    @Getter
+    @VisibleForTesting
+    private final GrpcChannelPool channelPool;
+
+    private final boolean ownsChannelPool; // true if we created the pool, it is closed by destroy()
+
+    private final GrpcExecutionHandler grpcExecutionHandler; // own circuit breakers and counters for the trace calls
 
     public CloudLogService(CloudLogServiceConfig cloudLogServiceConfig) {
+        this(cloudLogServiceConfig, new GrpcChannelPool(1), GrpcExecutionHandlerConfig.builder().build(), true);
+    }
+
+    public CloudLogService(CloudLogServiceConfig cloudLogServiceConfig, GrpcChannelPool channelPool) {
+        this(cloudLogServiceConfig, channelPool, GrpcExecutionHandlerConfig.builder().build());
+    }
+
+    /** Called by blueprint.xml. */
+    public CloudLogService(CloudLogServiceConfig cloudLogServiceConfig, GrpcChannelPool channelPool,
+                           GrpcExecutionHandlerConfig grpcExecutionHandlerConfig) {
+        this(cloudLogServiceConfig, channelPool, grpcExecutionHandlerConfig, false);
+    }
+
+    private CloudLogService(CloudLogServiceConfig cloudLogServiceConfig, GrpcChannelPool channelPool,
+                            GrpcExecutionHandlerConfig grpcExecutionHandlerConfig, boolean ownsChannelPool) {
         this.cloudLogServiceConfig = requireNonNull(cloudLogServiceConfig);
-        logEntryQueue = new ConcurrentLinkedQueue<>();
+        this.channelPool = requireNonNull(channelPool);
+        this.ownsChannelPool = ownsChannelPool;
+        this.grpcExecutionHandler = new GrpcExecutionHandler(this, grpcExecutionHandlerConfig);
+        logEntryQueue = new LogRingBuffer<>(cloudLogServiceConfig.getQueueCapacity());
+        this.sampler = new TraceSampler(cloudLogServiceConfig.getSampleRate(),
+                TraceSampler.parseRates(cloudLogServiceConfig.getSampleRates()),
+                cloudLogServiceConfig.getSlowCallThresholdInMs());
+        this.histograms = new LatencyHistograms(cloudLogServiceConfig.isExemplars());
     }
 
     @Override
     public void initGrpc(GrpcConnectionConfig grpcConfig) {
-        GrpcConnection<GatewayGrpc.GatewayBlockingStub> oldGrpc = this.grpc;
+        final GrpcConnection<GatewayGrpc.GatewayBlockingStub> oldGrpc = this.grpc;
+        if (oldGrpc != null && oldGrpc.updateToken(grpcConfig)) {
+            LOG.debug("Only the token changed, keeping the connection to {}:{}", grpcConfig.getHost(), grpcConfig.getPort());
+            return;
+        }
         LOG.debug("Initializing Grpc Connection with host {} and port {}", grpcConfig.getHost(), grpcConfig.getPort());
-        this.grpc = new GrpcConnection<>(grpcConfig, GatewayGrpc::newBlockingStub);
+        final GrpcConnection<GatewayGrpc.GatewayBlockingStub> newGrpc = new GrpcConnection<>(grpcConfig, GatewayGrpc::newBlockingStub, channelPool);
+        // make before break: the new connection is ready before we use it and the old one may finish its calls
+        newGrpc.warmUp(channelPool.getWarmUpTimeoutInMs());
+        this.grpc = newGrpc;
+        this.summariesSupported = true; // the new server might support them
         CloseUtil.close(oldGrpc);
     }
 
-    public void handleLogQueue() throws StorageException {
-        GrpcExecutionHandler grpcExecutionHandler = new GrpcExecutionHandler(this);
-        if (isQueueEmpty()) {
+    /**
+     * Sends the queued traces and the latency summaries. The queue has a single consumer, hence synchronized.
+     * The traces are sent even if the summaries fail, the summaries are sent again with the next invocation.
+     */
+    public synchronized void handleLogQueue() throws StorageException {
+        try {
+            sendLatencySummaries();
+        } catch (StorageException e) {
+            LOG.warn("Could not send {} latency summaries, will try again.", unsentSummaries.getSummariesCount(), e);
+        }
+        if (unsentBatch == null && isQueueEmpty()) {
             LOG.debug("The logs queue is empty, nothing to report.");
         } else {
-            while (isQueueNotEmpty()) {
-                List<LogEntry> logEntryList = getQueueBatch(cloudLogServiceConfig.getBatchSize());
+            while (unsentBatch != null || isQueueNotEmpty()) {
+                List<LogEntry> logEntryList = unsentBatch != null ? unsentBatch : drainQueueBatch(cloudLogServiceConfig.getBatchSize());
+                if (logEntryList.isEmpty()) {
+                    break; // the remaining entries are still being added
+                }
+                unsentBatch = logEntryList;
                 LOG.debug("Sending {} batch of elements to grpc endpoint", logEntryList.size());
                 GatewayOuterClass.SendTracesRequest sendTracesRequest = GatewayOuterClass.SendTracesRequest.newBuilder()
                         .addAllLatencyTraces(convertToLatencyTraceList(logEntryList))
@@ -92,17 +159,75 @@ public class CloudLogService implements GrpcService {
                         .callToExecute(() -> this.getGrpc().get().sendTraces(sendTracesRequest))
                         .methodDescriptor(GatewayGrpc.getSendTracesMethod())
                         .build());
+                unsentBatch = null;
+            }
+        }
+    }
 
-                removeBatch(logEntryList);
+    /**
+     * Sends the summaries of the calls since the last invocation. If the sending fails the calls of the next interval
+     * are added to the histograms until the failed summaries could be sent.
+     */
+    private void sendLatencySummaries() throws StorageException {
+        if (getTraceMode() == TraceMode.TRACES) {
+            return;
+        }
+        if (unsentSummaries == null) {
+            final LatencySummaries.LatencySummaryBatch batch = histograms.snapshotAndReset();
+            if (batch.getSummariesCount() == 0) {
+                return;
             }
+            unsentSummaries = batch;
         }
+        final LatencySummaries.LatencySummaryBatch batch = unsentSummaries;
+        LOG.debug("Sending {} latency summaries to grpc endpoint", batch.getSummariesCount());
+        grpcExecutionHandler.executeRpcCallVoid(GrpcExecutionHandler.GrpcCall.builder()
+                .callToExecute(() -> sendLatencySummaryBatch(batch))
+                .methodDescriptor(SEND_LATENCY_SUMMARIES_METHOD)
+                .build());
+        unsentSummaries = null;
+    }
+
+    /**
+     * If the server doesn't know latency summaries we fall back to traces for all further calls of the current
+     * connection. The summaries of this interval are lost.
+     */
+    private Object sendLatencySummaryBatch(final LatencySummaries.LatencySummaryBatch batch) {
+        final GatewayGrpc.GatewayBlockingStub stub = this.getGrpc().get();
+        try {
+            final Object response = ClientCalls.blockingUnaryCall(stub.getChannel(), SEND_LATENCY_SUMMARIES_METHOD,
+                    stub.getCallOptions(), batch);
+            summariesSent.addAndGet(batch.getSummariesCount());
+            return response;
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() != Status.Code.UNIMPLEMENTED) {
+                throw e;
+            }
+            LOG.info("Server doesn't support latency summaries, will fall back to traces.");
+            this.summariesSupported = false;
+            return null;
+        }
+    }
+
+    /** The configured trace mode or {@link TraceMode#TRACES} if the server doesn't support summaries. */
+    TraceMode getTraceMode() {
+        return summariesSupported ? cloudLogServiceConfig.getTraceMode() : TraceMode.TRACES;
     }
 
     public void log(long startTime, long endTime, MethodDescriptor<?, ?> methodInvoked, Status.Code returnCode, String traceParentHeader, String optionalErrorMsg) {
         LOG.debug("received cloud log with startTime={}, endTime={}, methodInvoked={}, returnCode={}",
                 startTime, endTime, methodInvoked.getFullMethodName(), returnCode);
 
-        if (!contains(methodInvoked.getFullMethodName(), SEND_TRACES_METHOD)) {
+        if (contains(methodInvoked.getFullMethodName(), SEND_TRACES_METHOD)
+                || SEND_LATENCY_SUMMARIES_METHOD.getFullMethodName().equals(methodInvoked.getFullMethodName())) {
+            return;
+        }
+        final TraceMode traceMode = getTraceMode();
+        if (traceMode != TraceMode.TRACES) {
+            histograms.record(methodInvoked, returnCode, endTime - startTime, traceParentHeader);
+        }
+        if (traceMode != TraceMode.SUMMARIES
+                && sampler.sample(methodInvoked, returnCode, endTime - startTime, traceParentHeader)) {
             logEntryQueue.add(LogEntry.builder()
                     .startTime(startTime)
                     .endTime(endTime)
@@ -114,18 +239,31 @@ public class CloudLogService implements GrpcService {
         }
     }
 
+    public Map<String, Number> getMetrics() {
+        final Map<String, Number> metrics = new TreeMap<>();
+        metrics.put("traces.queued", getLogEntryQueueSize());
+        metrics.put("traces.dropped", logEntryQueue.getDropped());
+        metrics.put("traces.sampled.kept", sampler.getKept());
+        metrics.put("traces.sampled.dropped", sampler.getDropped());
+        metrics.put("summaries.sent", summariesSent.get());
+        grpcExecutionHandler.getDeadlinesExceeded().forEach((method, count) -> metrics.put("deadlineExceeded." + method, count));
+        return metrics;
+    }
+
     public int getLogEntryQueueSize() {
         return logEntryQueue.size();
     }
 
-    public List<LogEntry> getQueueBatch(int batchSize) {
-        return logEntryQueue.stream()
-                .limit(batchSize).collect(Collectors.toList());
+    /** Removes up to batchSize of the oldest entries from the queue and returns them. */
+    public synchronized List<LogEntry> drainQueueBatch(int batchSize) {
+        final List<LogEntry> batch = new ArrayList<>(Math.min(batchSize, logEntryQueue.size()));
+        logEntryQueue.drainTo(batch, batchSize);
+        LOG.debug("Removed from log entry queue {} elements; current size: {}", batch.size(), getLogEntryQueueSize());
+        return batch;
     }
 
-    public void removeBatch(List<LogEntry> elementsToBeRemoved) {
-        logEntryQueue.removeAll(elementsToBeRemoved);
-        LOG.debug("Removed from log entry queue {} elements; current size: {}", elementsToBeRemoved.size(), getLogEntryQueueSize());
+    public long getDroppedLogEntries() {
+        return logEntryQueue.getDropped();
     }
 
     public boolean isQueueEmpty() {
@@ -136,12 +274,17 @@ public class CloudLogService implements GrpcService {
         return !logEntryQueue.isEmpty();
     }
 
-    public void deleteAll() {
+    public synchronized void deleteAll() {
         LOG.debug("Removing from log entry queue {} elements.", getLogEntryQueueSize());
         logEntryQueue.clear();
+        unsentBatch = null;
+        unsentSummaries = null;
     }
 
     public void destroy() {
         CloseUtil.close(this.grpc);
+        if (ownsChannelPool) {
+            CloseUtil.close(this.channelPool);
+        }
     }
 }
\ No newline at end of file
@@ -35,13 +35,59 @@ import lombok.Data;
 @Data
 public class CloudLogServiceConfig {
 
+    public static final double DEFAULT_SAMPLE_RATE = 1.0;
+    public static final long DEFAULT_SLOW_CALL_THRESHOLD_IN_MS = 1000;
+    public static final int DEFAULT_QUEUE_CAPACITY = 100_000;
+
     private final int batchSize;
     private final long runningPeriod;
+    /** Share of the calls whose latency trace is sent, see {@link TraceSampler}. */
+    private final double sampleRate;
+    /** Sample rates per method that differ from sampleRate, e.g. "Store=0.01,CheckHealth=0.1". */
+    private final String sampleRates;
+    /** Traces of calls that took at least this long are always sent. 0 disables it. */
+    private final long slowCallThresholdInMs;
+    /** Maximum number of traces waiting to be sent, the oldest are dropped if more are added. */
+    private final int queueCapacity;
+    /** Whether traces, latency summaries or both are sent, see {@link TraceMode}. */
+    private final TraceMode traceMode;
+    /** Adds the traceparent header of the slowest call to every latency summary. */
+    private final boolean exemplars;
 
     public CloudLogServiceConfig(
             final int batchSize,
             final long runningPeriod) {
+        this(batchSize, runningPeriod, DEFAULT_SAMPLE_RATE, "", DEFAULT_SLOW_CALL_THRESHOLD_IN_MS, DEFAULT_QUEUE_CAPACITY,
+                TraceMode.TRACES, true);
+    }
+
+    /** Called by blueprint.xml. */
+    public CloudLogServiceConfig(
+            final int batchSize,
+            final long runningPeriod,
+            final double sampleRate,
+            final String sampleRates,
+            final long slowCallThresholdInMs,
+            final int queueCapacity,
+            final TraceMode traceMode,
+            final boolean exemplars) {
         this.batchSize = batchSize;
         this.runningPeriod = runningPeriod;
+        this.sampleRate = sampleRate;
+        this.sampleRates = sampleRates;
+        this.slowCallThresholdInMs = slowCallThresholdInMs;
+        this.queueCapacity = queueCapacity;
+        this.traceMode = traceMode;
+        this.exemplars = exemplars;
+    }
+
+    @SuppressWarnings("java:S1068") // fields are not unused but part of lombok builder
+    public static class CloudLogServiceConfigBuilder {
+        private double sampleRate = DEFAULT_SAMPLE_RATE; // default value
+        private String sampleRates = ""; // default value
+        private long slowCallThresholdInMs = DEFAULT_SLOW_CALL_THRESHOLD_IN_MS; // default value
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY; // default value
+        private TraceMode traceMode = TraceMode.TRACES; // default value
+        private boolean exemplars = true; // default value
     }
 }
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc;
+
+import static org.apache.commons.lang3.StringUtils.isNotEmpty;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.grpc.Metadata;
+import lombok.Data;
+
+/**
+ * Holds the access token that is added to every call. It can be swapped while calls are running, new calls pick up
+ * the new token without a new channel.
+ */
+public class CredentialHolder {
+
+    @Data
+    public static class Credential {
+        private final String key;
+        private final String value;
+        /** Created once per token instead of once per call. null if there is no token. */
+        private final Metadata.Key<String> metadataKey;
+
+        public Credential(final String key, final String value) {
+            this.key = key;
+            this.value = value;
+            this.metadataKey = isNotEmpty(key) && isNotEmpty(value) ? Metadata.Key.of(key, Metadata.ASCII_STRING_MARSHALLER) : null;
+        }
+    }
+
+    private final AtomicReference<Credential> credential;
+
+    public CredentialHolder(final String key, final String value) {
+        this.credential = new AtomicReference<>(new Credential(key, value));
+    }
+
+    public Credential get() {
+        return credential.get();
+    }
+
+    public void set(final String key, final String value) {
+        credential.set(new Credential(key, value));
+    }
+}
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opennms.plugins.cloud.grpc.comp.CompressionConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import lombok.Data;
+
+/**
+ * Shares the channels to an endpoint between all services that talk to it, so they use the same TCP connections, TLS
+ * sessions and keepalives. Channels are opened by the first {@link #acquire(GrpcConnectionConfig)} and shut down when
+ * the last {@link Lease} is closed: they stop to accept new calls but running calls may finish within the drain timeout.
+ * The token is not part of the key, it is added per stub. The zstd level and dictionary are, the codecs are part of the
+ * compressor registry of a channel.
+ */
+public class GrpcChannelPool implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GrpcChannelPool.class);
+
+    private static final long DEFAULT_WARM_UP_TIMEOUT_IN_MS = 10_000;
+
+    private final int channelsPerEndpoint;
+    private final long warmUpTimeoutInMs;
+    private final long drainTimeoutInMs;
+    private final Map<ChannelKey, PooledChannels> pool = new HashMap<>(); // guarded by this
+    private final ExecutorService drainer = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("grpc-drain-%d")
+            .build());
+
+    public GrpcChannelPool(final int channelsPerEndpoint) {
+        this(channelsPerEndpoint, DEFAULT_WARM_UP_TIMEOUT_IN_MS, GrpcConnection.DEFAULT_DRAIN_TIMEOUT_IN_MS);
+    }
+
+    /** Called by blueprint.xml. */
+    public GrpcChannelPool(final int channelsPerEndpoint, final long warmUpTimeoutInMs, final long drainTimeoutInMs) {
+        if (channelsPerEndpoint < 1) {
+            throw new IllegalArgumentException(String.format("channelsPerEndpoint must be at least 1 but was %s", channelsPerEndpoint));
+        }
+        this.channelsPerEndpoint = channelsPerEndpoint;
+        this.warmUpTimeoutInMs = warmUpTimeoutInMs;
+        this.drainTimeoutInMs = drainTimeoutInMs;
+    }
+
+    public Lease acquire(final GrpcConnectionConfig config) {
+        return acquire(config, CompressionConfig.builder().build());
+    }
+
+    public Lease acquire(final GrpcConnectionConfig config, final CompressionConfig compression) {
+        Objects.requireNonNull(config);
+        Objects.requireNonNull(compression);
+        final ChannelKey key = new ChannelKey(toKey(config), compression.getLevel(), compression.getDictionary());
+        synchronized (this) {
+            PooledChannels channels = pool.get(key);
+            if (channels == null) {
+                LOG.info("Opening {} channel(s) to {}:{}", channelsPerEndpoint, config.getHost(), config.getPort());
+                List<ManagedChannel> managedChannels = new ArrayList<>(channelsPerEndpoint);
+                for (int i = 0; i < channelsPerEndpoint; i++) {
+                    managedChannels.add(GrpcConnection.createChannel(config, compression));
+                }
+                channels = new PooledChannels(managedChannels);
+                pool.put(key, channels);
+            }
+            channels.references++;
+            return new Lease(key, channels);
+        }
+    }
+
+    private void release(final ChannelKey key, final PooledChannels channels) {
+        synchronized (this) {
+            channels.references--;
+            if (channels.references > 0 || pool.get(key) != channels) {
+                return;
+            }
+            pool.remove(key);
+        }
+        LOG.info("Closing channel(s) to {}:{}", key.getConnection().getHost(), key.getConnection().getPort());
+        // calls that are still running may finish, we don't want to block the caller while they do
+        channels.managedChannels.forEach(ManagedChannel::shutdown);
+        drainer.execute(() -> channels.managedChannels.forEach(c -> GrpcConnection.shutdown(c, drainTimeoutInMs)));
+    }
+
+    /** Everything that makes a channel, without the token. */
+    static GrpcConnectionConfig toKey(final GrpcConnectionConfig config) {
+        return config.toBuilder()
+                .tokenKey(null)
+                .tokenValue(null)
+                .build();
+    }
+
+    /**
+     * @return the number of open channels, over all endpoints.
+     */
+    public synchronized int getOpenChannels() {
+        return pool.values().stream().mapToInt(c -> c.managedChannels.size()).sum();
+    }
+
+    /**
+     * @return how long a new connection may take to get ready before calls are routed to it anyway, 0 if new
+     * connections are not warmed up.
+     */
+    public long getWarmUpTimeoutInMs() {
+        return warmUpTimeoutInMs;
+    }
+
+    /**
+     * Shuts down all channels, leases that are still open can't be used anymore.
+     */
+    @Override
+    public void close() {
+        List<PooledChannels> all;
+        synchronized (this) {
+            all = new ArrayList<>(pool.values());
+            pool.clear();
+        }
+        all.forEach(c -> c.managedChannels.forEach(ManagedChannel::shutdown));
+        all.forEach(c -> c.managedChannels.forEach(m -> GrpcConnection.shutdown(m, drainTimeoutInMs)));
+        drainer.shutdown();
+    }
+
+    public boolean isClosed() {
+        return drainer.isShutdown();
+    }
+
+    @Data
+    private static class ChannelKey {
+        private final GrpcConnectionConfig connection; // without the token
+        private final int level;
+        private final byte[] dictionary;
+    }
+
+    private static class PooledChannels {
+        private final List<ManagedChannel> managedChannels;
+        private int references; // guarded by the pool
+
+        private PooledChannels(final List<ManagedChannel> managedChannels) {
+            this.managedChannels = Collections.unmodifiableList(managedChannels);
+        }
+    }
+
+    /**
+     * The use of the channels of an endpoint by one connection. Calls are spread round robin over the channels.
+     */
+    public class Lease implements AutoCloseable {
+        private final ChannelKey key;
+        private final PooledChannels channels;
+        private final Channel channel;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Lease(final ChannelKey key, final PooledChannels channels) {
+            this.key = key;
+            this.channels = channels;
+            this.channel = channels.managedChannels.size() == 1
+                    ? channels.managedChannels.get(0)
+                    : new RoundRobinChannel(channels.managedChannels);
+        }
+
+        public Channel getChannel() {
+            return channel;
+        }
+
+        public List<ManagedChannel> getManagedChannels() {
+            return channels.managedChannels;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(key, channels);
+            }
+        }
+    }
+
+    private static class RoundRobinChannel extends Channel {
+        private final List<ManagedChannel> channels;
+        private final AtomicInteger next = new AtomicInteger();
+
+        private RoundRobinChannel(final List<ManagedChannel> channels) {
+            this.channels = channels;
+        }
+
+        @Override
+        public <R, S> ClientCall<R, S> newCall(final MethodDescriptor<R, S> method, final CallOptions callOptions) {
+            return channels.get(Math.floorMod(next.getAndIncrement(), channels.size())).newCall(method, callOptions);
+        }
+
+        @Override
+        public String authority() {
+            return channels.get(0).authority();
+        }
+    }
+}
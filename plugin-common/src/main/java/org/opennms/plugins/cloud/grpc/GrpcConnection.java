@@ -29,28 +29,35 @@
 package org.opennms.plugins.cloud.grpc;
 
 import static java.util.Objects.isNull;
-import static org.apache.commons.lang3.StringUtils.isNotEmpty;
-import static org.opennms.plugins.cloud.grpc.TraceParentHeaderGenerator.generateTraceParentHeaderMetadata;
+import static org.opennms.plugins.cloud.grpc.TraceParentHeaderGenerator.TRACEPARENT_KEY;
+import static org.opennms.plugins.cloud.grpc.TraceParentHeaderGenerator.generateTraceParent;
 
 import java.io.ByteArrayInputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import javax.net.ssl.SSLException;
 
+import org.opennms.plugins.cloud.grpc.comp.CompressionConfig;
+import org.opennms.plugins.cloud.grpc.comp.CompressionInterceptor;
 import org.opennms.plugins.cloud.grpc.comp.ZstdCodecRegisterUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import io.grpc.CallOptions;
 import io.grpc.Channel;
 import io.grpc.ClientCall;
 import io.grpc.ClientInterceptor;
+import io.grpc.ConnectivityState;
 import io.grpc.Context;
+import io.grpc.Deadline;
 import io.grpc.ForwardingClientCall;
 import io.grpc.ManagedChannel;
 import io.grpc.Metadata;
@@ -63,19 +70,80 @@ import io.grpc.netty.shaded.io.netty.handler.ssl.SslContext;
 import io.grpc.netty.shaded.io.netty.handler.ssl.SslContextBuilder;
 import io.grpc.netty.shaded.io.netty.handler.ssl.SslProvider;
 import io.grpc.stub.AbstractBlockingStub;
+import io.grpc.stub.AbstractStub;
+import io.grpc.stub.ClientCalls;
 import lombok.NoArgsConstructor;
 
 public class GrpcConnection<T extends AbstractBlockingStub<T>> implements AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(GrpcConnection.class);
     // 100M sync with cortex server
-    private static final int MAX_MESSAGE_SIZE = 104857600;
-    public static final Context.Key<Metadata> TRACE_PARENT_HEADER_CONTEXT = Context.key("traceParentHeader");
+    public static final int MAX_MESSAGE_SIZE = 104857600;
+    public static final Context.Key<String> TRACE_PARENT_HEADER_CONTEXT = Context.key("traceParentHeader");
+    /** Deadline of the unary calls started in this context, see {@link GrpcExecutionHandler}. */
+    public static final Context.Key<Long> DEADLINE_IN_MS_CONTEXT = Context.key("deadlineInMs");
+    public static final long DEFAULT_DRAIN_TIMEOUT_IN_MS = 15_000;
 
     @VisibleForTesting
     public final ManagedChannel managedChannel;
     private final T clientStub;
+    private final GrpcChannelPool.Lease lease; // null if the channel is not shared
+    private final GrpcConnectionConfig config; // null if created from a stub
+    private final CredentialHolder credential;
+    private volatile long timeToReadyInMs = -1; // -1: not warmed up (yet)
 
-    public GrpcConnection(final GrpcConnectionConfig config, final Function<ManagedChannel, T> stubCreator) {
+    /**
+     * Creates a connection with its own channel.
+     */
+    public GrpcConnection(final GrpcConnectionConfig config, final Function<Channel, T> stubCreator) {
+        this.config = config;
+        credential = new CredentialHolder(config.getTokenKey(), config.getTokenValue());
+        final CompressionConfig compression = CompressionConfig.builder().build();
+        managedChannel = createChannel(config, compression);
+        clientStub = createStub(stubCreator, managedChannel, credential, compression);
+        lease = null;
+    }
+
+    /**
+     * Creates a connection over the shared channels of the pool.
+     */
+    public GrpcConnection(final GrpcConnectionConfig config, final Function<Channel, T> stubCreator, final GrpcChannelPool pool) {
+        this(config, stubCreator, pool, CompressionConfig.builder().build());
+    }
+
+    /**
+     * Creates a connection over the shared channels of the pool, with its own compression settings.
+     */
+    public GrpcConnection(final GrpcConnectionConfig config, final Function<Channel, T> stubCreator, final GrpcChannelPool pool,
+                          final CompressionConfig compression) {
+        this.config = config;
+        credential = new CredentialHolder(config.getTokenKey(), config.getTokenValue());
+        lease = pool.acquire(config, compression);
+        managedChannel = lease.getManagedChannels().get(0);
+        clientStub = createStub(stubCreator, lease.getChannel(), credential, compression);
+    }
+
+    public GrpcConnection(T clientStub, ManagedChannel managedChannel) {
+        this.clientStub = Objects.requireNonNull(clientStub);
+        this.managedChannel = Objects.requireNonNull(managedChannel);
+        this.lease = null;
+        this.config = null;
+        this.credential = null;
+    }
+
+    /**
+     * Takes over the token of the new config if everything else is the same, running and new calls keep using the
+     * same channel.
+     * @return false if the new config needs a new connection.
+     */
+    public boolean updateToken(final GrpcConnectionConfig newConfig) {
+        if (config == null || !GrpcChannelPool.toKey(config).equals(GrpcChannelPool.toKey(newConfig))) {
+            return false;
+        }
+        credential.set(newConfig.getTokenKey(), newConfig.getTokenValue());
+        return true;
+    }
+
+    static ManagedChannel createChannel(final GrpcConnectionConfig config, final CompressionConfig compression) {
         final NettyChannelBuilder builder = NettyChannelBuilder.forAddress(config.getHost(), config.getPort());
         builder.sslContext(createSslContext(config));
 
@@ -84,25 +152,33 @@ public class GrpcConnection<T extends AbstractBlockingStub<T>> implements AutoCl
                 .keepAliveTime(10, TimeUnit.SECONDS)
                 .keepAliveTimeout(5, TimeUnit.SECONDS)
                 .keepAliveWithoutCalls(true);
-        managedChannel = builder
-                .compressorRegistry(ZstdCodecRegisterUtil.createCompressorRegistry())
+        return builder
+                .compressorRegistry(ZstdCodecRegisterUtil.createCompressorRegistry(compression))
                 .decompressorRegistry(ZstdCodecRegisterUtil.createDecompressorRegistry())
                 .build();
-        clientStub = stubCreator.apply(managedChannel)
-                .withCompression("gzip") // ZstdGrpcCodec.ZSTD
-                .withInterceptors(new TokenAddingInterceptor(config.getTokenKey(), config.getTokenValue()), new TraceParentHeaderInterceptor());
     }
 
-    public GrpcConnection(T clientStub, ManagedChannel managedChannel) {
-        this.clientStub = Objects.requireNonNull(clientStub);
-        this.managedChannel = Objects.requireNonNull(managedChannel);
+    private static <T extends AbstractBlockingStub<T>> T createStub(final Function<Channel, T> stubCreator,
+                                                                     final Channel channel,
+                                                                     final CredentialHolder credential,
+                                                                     final CompressionConfig compression) {
+        return stubCreator.apply(channel)
+                .withInterceptors(new TokenAddingInterceptor(credential), new TraceParentHeaderInterceptor(),
+                        new CompressionInterceptor(compression), new DeadlineInterceptor());
     }
 
     public T get() {
         return this.clientStub;
     }
 
-    private SslContext createSslContext(final GrpcConnectionConfig config) {
+    /**
+     * Starts a non blocking call with the channel and the call options (compression, interceptors) of the given stub.
+     */
+    public static <R, S> ListenableFuture<S> futureCall(final AbstractStub<?> stub, final MethodDescriptor<R, S> method, final R request) {
+        return ClientCalls.futureUnaryCall(stub.getChannel().newCall(method, stub.getCallOptions()), request);
+    }
+
+    private static SslContext createSslContext(final GrpcConnectionConfig config) {
         Objects.requireNonNull(config);
         try {
             final SslProvider provider = OpenSsl.isAvailable() && SslProvider.isAlpnSupported(SslProvider.OPENSSL) ? SslProvider.OPENSSL : SslProvider.JDK;
@@ -127,12 +203,82 @@ public class GrpcConnection<T extends AbstractBlockingStub<T>> implements AutoCl
         }
     }
 
+    /**
+     * Connects eagerly so that the first calls don't pay for DNS, TCP, TLS and HTTP/2 setup. Waits at most the given
+     * timeout, 0 disables the warm up.
+     * @return true if the connection is ready.
+     */
+    public boolean warmUp(final long timeoutInMs) {
+        if (timeoutInMs <= 0) {
+            return false;
+        }
+        final long start = System.nanoTime();
+        if (awaitReady(timeoutInMs)) {
+            this.timeToReadyInMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            LOG.info("Connection to {} is ready after {}ms.", managedChannel.authority(), this.timeToReadyInMs);
+            return true;
+        }
+        LOG.warn("Connection to {} is not ready after {}ms, will use it anyway.", managedChannel.authority(), timeoutInMs);
+        return false;
+    }
+
+    /**
+     * @return how long the warm up took to get the connection ready, -1 if it was not warmed up or didn't get ready.
+     */
+    public long getTimeToReadyInMs() {
+        return timeToReadyInMs;
+    }
+
+    /**
+     * Connects the channel(s) of this connection and waits until they are ready.
+     * @return false if the channels are not ready within the timeout.
+     */
+    public boolean awaitReady(final long timeoutInMs) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMs);
+        List<ManagedChannel> channels = lease == null ? List.of(managedChannel) : lease.getManagedChannels();
+        try {
+            for (ManagedChannel channel : channels) {
+                ConnectivityState state = channel.getState(true);
+                while (state != ConnectivityState.READY) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || channel.isShutdown()) {
+                        return false;
+                    }
+                    CountDownLatch changed = new CountDownLatch(1);
+                    channel.notifyWhenStateChanged(state, changed::countDown);
+                    changed.await(remaining, TimeUnit.NANOSECONDS);
+                    state = channel.getState(true);
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     @Override
     public void close() {
-        managedChannel.shutdownNow();
+        if (lease != null) {
+            lease.close(); // the pool closes the channels once nobody uses them anymore
+        } else {
+            shutdown(managedChannel, DEFAULT_DRAIN_TIMEOUT_IN_MS);
+        }
+    }
+
+    /**
+     * Lets running calls finish within the drain timeout, cancels them afterwards.
+     */
+    static void shutdown(final ManagedChannel channel, final long drainTimeoutInMs) {
+        channel.shutdown();
         try {
-            managedChannel.awaitTermination(15, TimeUnit.SECONDS);
+            if (!channel.awaitTermination(drainTimeoutInMs, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Calls did not finish within {}ms, will cancel them.", drainTimeoutInMs);
+                channel.shutdownNow();
+                channel.awaitTermination(5, TimeUnit.SECONDS);
+            }
         } catch (InterruptedException e) {
+            channel.shutdownNow();
             Thread.currentThread().interrupt();
         }
     }
@@ -146,22 +292,45 @@ public class GrpcConnection<T extends AbstractBlockingStub<T>> implements AutoCl
             return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, callOptions)) {
                 @Override
                 public void start(final Listener<O> responseListener, final Metadata headers) {
-                    headers.merge(isNull(TRACE_PARENT_HEADER_CONTEXT.get()) ? generateTraceParentHeaderMetadata() :
-                            TRACE_PARENT_HEADER_CONTEXT.get());
+                    final String traceParent = TRACE_PARENT_HEADER_CONTEXT.get();
+                    headers.put(TRACEPARENT_KEY, isNull(traceParent) ? generateTraceParent() : traceParent);
                     super.start(responseListener, headers);
                 }
             };
         }
     }
 
+    /**
+     * Sets the deadline of the context on the call options, the deadline timer then runs on the scheduler of the channel.
+     * A shorter deadline of the caller, set on the call options or on the grpc context, wins.
+     */
+    static class DeadlineInterceptor implements ClientInterceptor {
+
+        @Override
+        public <I, O> ClientCall<I, O> interceptCall(MethodDescriptor<I, O> method,
+                                                     CallOptions callOptions, Channel next) {
+            final Long deadlineInMs = DEADLINE_IN_MS_CONTEXT.get();
+            if (deadlineInMs == null || method.getType() != MethodDescriptor.MethodType.UNARY) {
+                return next.newCall(method, callOptions);
+            }
+            Deadline deadline = Deadline.after(deadlineInMs, TimeUnit.MILLISECONDS);
+            if (callOptions.getDeadline() != null) {
+                deadline = deadline.minimum(callOptions.getDeadline());
+            }
+            final Deadline contextDeadline = Context.current().getDeadline();
+            if (contextDeadline != null) {
+                deadline = deadline.minimum(contextDeadline);
+            }
+            return next.newCall(method, callOptions.withDeadline(deadline));
+        }
+    }
+
     private static class TokenAddingInterceptor implements ClientInterceptor {
 
-        final String tokenKey;
-        final String tokenValue;
+        final CredentialHolder credential;
 
-        TokenAddingInterceptor(final String tokenKey, final String tokenValue) {
-            this.tokenKey = tokenKey;
-            this.tokenValue = tokenValue;
+        TokenAddingInterceptor(final CredentialHolder credential) {
+            this.credential = credential;
         }
 
         @Override
@@ -170,8 +339,9 @@ public class GrpcConnection<T extends AbstractBlockingStub<T>> implements AutoCl
             return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, callOptions)) {
                 @Override
                 public void start(final Listener<O> responseListener, final Metadata headers) {
-                    if (isNotEmpty(tokenKey) && isNotEmpty(tokenValue)) {
-                        headers.put(Metadata.Key.of(tokenKey, Metadata.ASCII_STRING_MARSHALLER), tokenValue);
+                    final CredentialHolder.Credential current = credential.get(); // read once, the token may be swapped
+                    if (current.getMetadataKey() != null) {
+                        headers.put(current.getMetadataKey(), current.getValue());
                     }
                     super.start(responseListener, headers);
                 }
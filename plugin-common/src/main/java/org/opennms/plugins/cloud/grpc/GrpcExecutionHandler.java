@@ -34,21 +34,33 @@ import static io.grpc.Status.Code.RESOURCE_EXHAUSTED;
 import static io.grpc.Status.Code.UNAUTHENTICATED;
 import static io.grpc.Status.Code.UNAVAILABLE;
 import static org.apache.commons.lang3.StringUtils.EMPTY;
+import static org.opennms.plugins.cloud.grpc.GrpcConnection.DEADLINE_IN_MS_CONTEXT;
 import static org.opennms.plugins.cloud.grpc.GrpcConnection.TRACE_PARENT_HEADER_CONTEXT;
-import static org.opennms.plugins.cloud.grpc.TraceParentHeaderGenerator.generateTraceParentHeader;
-import static org.opennms.plugins.cloud.grpc.TraceParentHeaderGenerator.generateTraceParentHeaderMetadata;
+import static org.opennms.plugins.cloud.grpc.TraceParentHeaderGenerator.generateTraceParent;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import org.opennms.dataplatform.access.AuthenticateGrpc;
 import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.tsaas.TimeseriesGrpc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
 import io.grpc.Context;
 import io.grpc.MethodDescriptor;
 import io.grpc.Status;
@@ -63,11 +75,15 @@ import lombok.Data;
  * - recoverable Exceptions: will be propgated to OpenNMS and
  * - non-recoverable Exceptions: will be logged dropped
  * - Request logging (logs are send towards the cloud)
+ * - Failing fast while the cloud is not reachable: every method has a {@link CircuitBreaker}
  * see also: https://www.grpc.io/docs/guides/error/
  */
 public class GrpcExecutionHandler {
 
     private final CloudLogService cloudLogService;
+    private final GrpcExecutionHandlerConfig config;
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>(); // by full method name
+    private final Map<String, AtomicLong> deadlinesExceeded = new ConcurrentHashMap<>(); // by full method name
 
     private static final Logger LOG = LoggerFactory.getLogger(GrpcExecutionHandler.class);
     private static final Set<Code> RECOVERABLE_EXCEPTIONS = new HashSet<>(Arrays.asList(
@@ -77,7 +93,16 @@ public class GrpcExecutionHandler {
             RESOURCE_EXHAUSTED));
 
     public GrpcExecutionHandler(CloudLogService cloudLogService) {
+        this(cloudLogService, GrpcExecutionHandlerConfig.builder().build());
+    }
+
+    public GrpcExecutionHandler(CloudLogService cloudLogService, GrpcExecutionHandlerConfig config) {
         this.cloudLogService = Objects.requireNonNull(cloudLogService);
+        this.config = Objects.requireNonNull(config);
+    }
+
+    public CloudLogService getCloudLogService() {
+        return cloudLogService;
     }
 
     public <T, R> R executeRpcCall(GrpcCall<T, R> callToExecute) throws StorageException {
@@ -85,11 +110,16 @@ public class GrpcExecutionHandler {
         Objects.requireNonNull(callToExecute.getMethodDescriptor());
         Objects.requireNonNull(callToExecute.getMapper());
         Objects.requireNonNull(callToExecute.getDefaultFunction());
+        final CircuitBreaker circuitBreaker = getCircuitBreaker(callToExecute.getMethodDescriptor());
+        if (!circuitBreaker.tryAcquire()) {
+            throw circuitBreakerOpen(callToExecute.getMethodDescriptor());
+        }
         String optionalErrorMsg = EMPTY;
         Status.Code status = OK;
-        String traceParentHeader = generateTraceParentHeader().createTraceParentHeaderAsString();
-        Context context = Context.current().withValue(TRACE_PARENT_HEADER_CONTEXT,
-                generateTraceParentHeaderMetadata(traceParentHeader));
+        boolean answered = true; // false if the call failed without an answer of the cloud
+        String traceParentHeader = generateTraceParent();
+        Context context = withDeadline(Context.current().withValue(TRACE_PARENT_HEADER_CONTEXT, traceParentHeader),
+                callToExecute.getMethodDescriptor());
         final Context previousContext = context.attach();
         long startTime = System.currentTimeMillis();
         try {
@@ -98,23 +128,198 @@ public class GrpcExecutionHandler {
         } catch (StatusRuntimeException ex) {
             optionalErrorMsg = ex.getMessage();
             status = ex.getStatus().getCode();
-            if (OK == status) {
-                // should not happen but just to be safe...
-                return callToExecute.getDefaultFunction().get();
-            } else if (RECOVERABLE_EXCEPTIONS.contains(status)) {
-                // network errors => recoverable => propagate error so OpenNMS can try later again.
-                throw new StorageException(String.format("Network problem %s", status), ex);
-            } else {
-                // all other errors: we can't fix them => log and forget...
-                LOG.warn("An error happened during the RPC call: {}", status, ex);
-                return callToExecute.getDefaultFunction().get();
-            }
+            return handleError(status, ex, callToExecute.getDefaultFunction());
+        } catch (RuntimeException ex) {
+            optionalErrorMsg = ex.getMessage();
+            status = Status.fromThrowable(ex).getCode(); // UNKNOWN
+            answered = false;
+            throw ex;
         } finally {
+            onCallDone(circuitBreaker, status, answered);
+            countDeadlineExceeded(callToExecute.getMethodDescriptor(), status);
             cloudLogService.log(startTime, System.currentTimeMillis(), callToExecute.getMethodDescriptor(), status, traceParentHeader, optionalErrorMsg);
             context.detach(previousContext);
         }
     }
 
+    /**
+     * Executes a blocking call with the deadline of its method. In contrast to {@link #executeRpcCall(GrpcCall)}
+     * errors are not mapped but thrown as they are, this is used for calls that are not part of the storage api
+     * (health check, PAS).
+     */
+    public <T> T executeWithDeadline(final MethodDescriptor<?, ?> method, final Supplier<T> callToExecute) {
+        Objects.requireNonNull(method);
+        Objects.requireNonNull(callToExecute);
+        Context context = withDeadline(Context.current(), method);
+        final Context previousContext = context.attach();
+        try {
+            return callToExecute.get();
+        } catch (StatusRuntimeException ex) {
+            countDeadlineExceeded(method, ex.getStatus().getCode());
+            throw ex;
+        } finally {
+            context.detach(previousContext);
+        }
+    }
+
+    /**
+     * Unary calls that are started within the returned context get the deadline of the method, it is set on their call
+     * options by {@link GrpcConnection}. Streams get no deadline here, they stay open for many messages, see SampleStreamer.
+     * <p>
+     * The handler only gets a supplier that makes the call, not the stub, so it can't use stub.withDeadlineAfter().
+     * Instead the deadline travels in {@link GrpcConnection#DEADLINE_IN_MS_CONTEXT} and GrpcConnection.DeadlineInterceptor
+     * turns it into a deadline of the call options when the call starts. A shorter deadline of the caller is kept.
+     */
+    private Context withDeadline(final Context context, final MethodDescriptor<?, ?> method) {
+        long deadlineInMs = getDeadlineInMs(method);
+        if (deadlineInMs <= 0 || method.getType() != MethodDescriptor.MethodType.UNARY) {
+            return context;
+        }
+        return context.withValue(DEADLINE_IN_MS_CONTEXT, deadlineInMs);
+    }
+
+    public long getDeadlineInMs(final MethodDescriptor<?, ?> method) {
+        if (AuthenticateGrpc.SERVICE_NAME.equals(method.getServiceName())) {
+            return config.getPasDeadlineInMs();
+        } else if (TimeseriesGrpc.getCheckHealthMethod().getFullMethodName().equals(method.getFullMethodName())) {
+            return config.getHealthDeadlineInMs();
+        } else if (TimeseriesGrpc.SERVICE_NAME.equals(method.getServiceName())
+                && !MethodDescriptor.extractBareMethodName(method.getFullMethodName()).startsWith("Store")) {
+            return config.getQueryDeadlineInMs();
+        }
+        return config.getStoreDeadlineInMs(); // store, store series, send traces
+    }
+
+    private void countDeadlineExceeded(final MethodDescriptor<?, ?> method, final Status.Code status) {
+        if (status == DEADLINE_EXCEEDED) {
+            deadlinesExceeded.computeIfAbsent(method.getFullMethodName(), m -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of calls that exceeded their deadline, by full method name.
+     */
+    public Map<String, Long> getDeadlinesExceeded() {
+        Map<String, Long> counts = new TreeMap<>();
+        deadlinesExceeded.forEach((method, count) -> counts.put(method, count.get()));
+        return counts;
+    }
+
+    private CircuitBreaker getCircuitBreaker(final MethodDescriptor<?, ?> method) {
+        return circuitBreakers.computeIfAbsent(method.getFullMethodName(), m -> new CircuitBreaker(
+                config.getCircuitBreakerFailureThreshold(), config.getCircuitBreakerOpenDurationInMs()));
+    }
+
+    private static StorageException circuitBreakerOpen(final MethodDescriptor<?, ?> method) {
+        return new StorageException(String.format("Circuit breaker for %s is open, the cloud is not reachable", method.getFullMethodName()));
+    }
+
+    /**
+     * A call fails the circuit breaker if the cloud didn't answer (network problem) or if it failed without an answer
+     * at all, e.g. the call couldn't be started or its result couldn't be mapped. Otherwise a probe would close it.
+     */
+    private static void onCallDone(final CircuitBreaker circuitBreaker, final Status.Code status, final boolean answered) {
+        if (!answered || RECOVERABLE_EXCEPTIONS.contains(status)) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess(); // the cloud answered
+        }
+    }
+
+    /**
+     * @return the state of the circuit breaker of every method that was called so far, by full method name.
+     */
+    public Map<String, CircuitBreaker.State> getCircuitBreakerStates() {
+        Map<String, CircuitBreaker.State> states = new TreeMap<>();
+        circuitBreakers.forEach((method, circuitBreaker) -> states.put(method, circuitBreaker.getState()));
+        return states;
+    }
+
+    private static <R> R handleError(final Status.Code status, final Throwable ex, final Supplier<R> defaultFunction) throws StorageException {
+        if (OK == status) {
+            // should not happen but just to be safe...
+            return defaultFunction.get();
+        } else if (RECOVERABLE_EXCEPTIONS.contains(status)) {
+            // network errors => recoverable => propagate error so OpenNMS can try later again.
+            throw new StorageException(String.format("Network problem %s", status), ex);
+        } else {
+            // all other errors: we can't fix them => log and forget...
+            LOG.warn("An error happened during the RPC call: {}", status, ex);
+            return defaultFunction.get();
+        }
+    }
+
+    /**
+     * Same as {@link #executeRpcCall(GrpcCall)} but doesn't wait for the call to complete. Recoverable errors complete
+     * the returned future exceptionally with a {@link StorageException}, all other errors complete it with the value of
+     * the default function.
+     */
+    public <T, R> CompletableFuture<R> executeRpcCallAsync(AsyncGrpcCall<T, R> callToExecute) {
+        Objects.requireNonNull(callToExecute);
+        Objects.requireNonNull(callToExecute.getMethodDescriptor());
+        Objects.requireNonNull(callToExecute.getMapper());
+        Objects.requireNonNull(callToExecute.getDefaultFunction());
+        final CircuitBreaker circuitBreaker = getCircuitBreaker(callToExecute.getMethodDescriptor());
+        if (!circuitBreaker.tryAcquire()) {
+            return CompletableFuture.failedFuture(circuitBreakerOpen(callToExecute.getMethodDescriptor()));
+        }
+        final String traceParentHeader = generateTraceParent();
+        final Context context = withDeadline(Context.current().withValue(TRACE_PARENT_HEADER_CONTEXT, traceParentHeader),
+                callToExecute.getMethodDescriptor());
+        final Context previousContext = context.attach(); // the headers and the deadline are added when the call is started
+        final long startTime = System.currentTimeMillis();
+        ListenableFuture<T> future;
+        try {
+            future = callToExecute.getCallToExecute().get();
+        } catch (RuntimeException e) {
+            future = Futures.immediateFailedFuture(e);
+        } finally {
+            context.detach(previousContext);
+        }
+        CompletableFuture<R> result = new CompletableFuture<>();
+        Futures.addCallback(future, new FutureCallback<>() {
+            @Override
+            public void onSuccess(T value) {
+                onCallDone(circuitBreaker, OK, true);
+                cloudLogService.log(startTime, System.currentTimeMillis(), callToExecute.getMethodDescriptor(), OK, traceParentHeader, EMPTY);
+                try {
+                    result.complete(callToExecute.getMapper().apply(value));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Status.Code status = Status.fromThrowable(t).getCode();
+                onCallDone(circuitBreaker, status, t instanceof StatusRuntimeException);
+                countDeadlineExceeded(callToExecute.getMethodDescriptor(), status);
+                cloudLogService.log(startTime, System.currentTimeMillis(), callToExecute.getMethodDescriptor(), status, traceParentHeader, t.getMessage());
+                if (!(t instanceof StatusRuntimeException)) {
+                    result.completeExceptionally(t);
+                    return;
+                }
+                try {
+                    result.complete(handleError(status, t, callToExecute.getDefaultFunction()));
+                } catch (StorageException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    public <T, R> CompletableFuture<Void> executeRpcCallVoidAsync(AsyncGrpcCall<T, R> callToExecute) {
+        Objects.requireNonNull(callToExecute);
+        AsyncGrpcCall<T, Void> call = AsyncGrpcCall.<T, Void>builder()
+                .callToExecute(callToExecute.getCallToExecute())
+                .methodDescriptor(callToExecute.getMethodDescriptor())
+                .defaultFunction(() -> null) // set something so executeRpcCallAsync() will work
+                .mapper(t -> null) // set something so executeRpcCallAsync() will work
+                .build();
+        return executeRpcCallAsync(call);
+    }
+
     public <T, R> void executeRpcCallVoid(GrpcCall<T, R> callToExecute) throws StorageException {
         Objects.requireNonNull(callToExecute);
         GrpcCall<T, R> call = callToExecute
@@ -134,4 +339,13 @@ public class GrpcExecutionHandler {
         final Supplier<R> defaultFunction;
         final MethodDescriptor<?, ?> methodDescriptor;
     }
+
+    @Builder(toBuilder = true)
+    @Data
+    public static class AsyncGrpcCall<T, R> {
+        final Supplier<ListenableFuture<T>> callToExecute;
+        final Function<T, R> mapper;
+        final Supplier<R> defaultFunction;
+        final MethodDescriptor<?, ?> methodDescriptor;
+    }
 }
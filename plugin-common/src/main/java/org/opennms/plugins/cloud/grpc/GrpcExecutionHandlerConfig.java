@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.grpc;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Builder(toBuilder = true)
+@Data
+public class GrpcExecutionHandlerConfig {
+
+    /** Number of failed calls in a row (cloud not reachable) after which the circuit breaker of a method opens. */
+    private final int circuitBreakerFailureThreshold;
+    /** How long calls are rejected before the circuit breaker lets a probe through. */
+    private final long circuitBreakerOpenDurationInMs;
+    /** Deadline of calls that store data in the cloud (samples, traces), 0 means no deadline. */
+    private final long storeDeadlineInMs;
+    /** Deadline of calls that read data from the cloud (find metrics, get time series data), 0 means no deadline. */
+    private final long queryDeadlineInMs;
+    /** Deadline of the health check call, 0 means no deadline. */
+    private final long healthDeadlineInMs;
+    /** Deadline of calls to PAS (authentication, services, token, certificates), 0 means no deadline. */
+    private final long pasDeadlineInMs;
+
+    /** Called by blueprint.xml. */
+    public GrpcExecutionHandlerConfig(
+            final int circuitBreakerFailureThreshold,
+            final long circuitBreakerOpenDurationInMs,
+            final long storeDeadlineInMs,
+            final long queryDeadlineInMs,
+            final long healthDeadlineInMs,
+            final long pasDeadlineInMs) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+        this.circuitBreakerOpenDurationInMs = circuitBreakerOpenDurationInMs;
+        this.storeDeadlineInMs = storeDeadlineInMs;
+        this.queryDeadlineInMs = queryDeadlineInMs;
+        this.healthDeadlineInMs = healthDeadlineInMs;
+        this.pasDeadlineInMs = pasDeadlineInMs;
+    }
+
+    @SuppressWarnings("java:S1068") // fields are not unused but part of lombok builder
+    public static class GrpcExecutionHandlerConfigBuilder {
+        private int circuitBreakerFailureThreshold = 5; // default value
+        private long circuitBreakerOpenDurationInMs = 10_000; // default value
+        private long storeDeadlineInMs = 30_000; // default value
+        private long queryDeadlineInMs = 20_000; // default value
+        private long healthDeadlineInMs = 5_000; // default value
+        private long pasDeadlineInMs = 30_000; // default value
+    }
+}
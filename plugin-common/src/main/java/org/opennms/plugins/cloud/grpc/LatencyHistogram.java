@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * HDR style histogram of latencies in milliseconds: log-linear buckets with 32 sub buckets per power of two, so every
+ * value is within 1/32 of the highest value of its bucket. Recording is lock free and O(1), the buckets are reset by
+ * {@link #snapshotAndReset()}. A value that is recorded while a snapshot is taken ends up in this or the next one.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_VALUE_BITS = 40; // ~35 years in ms, larger values are clamped
+    static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    static final int BUCKETS = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicReference<String> maxExemplar = new AtomicReference<>();
+
+    /**
+     * @param exemplar the trace id of the call, kept if it is the slowest one. May be null.
+     */
+    public void record(final long valueInMs, final String exemplar) {
+        final long value = Math.min(Math.max(0, valueInMs), MAX_VALUE);
+        counts.incrementAndGet(bucketIndex(value));
+        sum.addAndGet(value);
+        if (value >= max.get()) {
+            max.accumulateAndGet(value, Math::max);
+            if (exemplar != null) {
+                maxExemplar.set(exemplar); // racy, but any of the slowest calls is a good example
+            }
+        }
+    }
+
+    static int bucketIndex(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /** The highest value that falls into the bucket. */
+    static long highestValue(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public Snapshot snapshotAndReset() {
+        final long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) != 0) {
+                snapshot[i] = counts.getAndSet(i, 0);
+                count += snapshot[i];
+            }
+        }
+        return new Snapshot(snapshot, count, sum.getAndSet(0), max.getAndSet(0), maxExemplar.getAndSet(null));
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+        private final String maxExemplar;
+
+        Snapshot(final long[] counts, final long count, final long sum, final long max, final String maxExemplar) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+            this.maxExemplar = maxExemplar;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the highest value of the bucket that contains the percentile, at most the maximum
+         */
+        public long getValueAtPercentile(final double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public String getMaxExemplar() {
+            return maxExemplar;
+        }
+
+        /** Count of the bucket with the given index, see {@link LatencyHistogram#bucketIndex(long)}. */
+        public long getBucketCount(final int index) {
+            return counts[index];
+        }
+
+        public int getBuckets() {
+            return counts.length;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opennms.tsaas.telemetry.GatewayGrpc;
+
+import com.google.protobuf.Empty;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.protobuf.ProtoUtils;
+
+/**
+ * A {@link LatencyHistogram} per method and status code. Instead of a trace per call only the latency distribution
+ * of every interval is sent to the cloud, see latency_summary.proto.
+ */
+public class LatencyHistograms {
+
+    public static final MethodDescriptor<LatencySummaries.LatencySummaryBatch, Empty> SEND_LATENCY_SUMMARIES_METHOD =
+            MethodDescriptor.<LatencySummaries.LatencySummaryBatch, Empty>newBuilder()
+                    .setType(MethodDescriptor.MethodType.UNARY)
+                    .setFullMethodName(MethodDescriptor.generateFullMethodName(GatewayGrpc.SERVICE_NAME, "SendLatencySummaries"))
+                    .setRequestMarshaller(ProtoUtils.marshaller(LatencySummaries.LatencySummaryBatch.getDefaultInstance()))
+                    .setResponseMarshaller(ProtoUtils.marshaller(Empty.getDefaultInstance()))
+                    .build();
+
+    private static final int STATUS_CODES = Status.Code.values().length;
+
+    private final Map<String, LatencyHistogram[]> histograms = new ConcurrentHashMap<>();
+    private final boolean exemplars;
+    private long intervalStart = System.currentTimeMillis();
+
+    /**
+     * @param exemplars if true the traceparent header of the slowest call is added to every summary.
+     */
+    public LatencyHistograms(final boolean exemplars) {
+        this.exemplars = exemplars;
+    }
+
+    public void record(final MethodDescriptor<?, ?> method, final Status.Code code, final long durationInMs, final String traceParent) {
+        final LatencyHistogram[] byCode = histograms.computeIfAbsent(method.getFullMethodName(), k -> new LatencyHistogram[STATUS_CODES]);
+        LatencyHistogram histogram = byCode[code.value()];
+        if (histogram == null) {
+            synchronized (byCode) { // once per method and code
+                histogram = byCode[code.value()];
+                if (histogram == null) {
+                    histogram = new LatencyHistogram();
+                    byCode[code.value()] = histogram;
+                }
+            }
+        }
+        histogram.record(durationInMs, exemplars ? traceParent : null);
+    }
+
+    /**
+     * Returns the summaries of the calls since the last invocation and starts a new interval. Methods and codes without
+     * calls in the interval are left out. Not thread safe, there is only one consumer.
+     */
+    public LatencySummaries.LatencySummaryBatch snapshotAndReset() {
+        final long start = intervalStart;
+        final long end = System.currentTimeMillis();
+        intervalStart = end;
+        final LatencySummaries.LatencySummaryBatch.Builder batch = LatencySummaries.LatencySummaryBatch.newBuilder();
+        histograms.forEach((method, byCode) -> {
+            for (int code = 0; code < byCode.length; code++) {
+                final LatencyHistogram histogram = byCode[code];
+                if (histogram != null) {
+                    final LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+                    if (snapshot.getCount() > 0) {
+                        batch.addSummaries(toSummary(method, code, start, end, snapshot));
+                    }
+                }
+            }
+        });
+        return batch.build();
+    }
+
+    private static LatencySummaries.LatencySummary toSummary(final String method, final int code, final long start,
+                                                             final long end, final LatencyHistogram.Snapshot snapshot) {
+        final LatencySummaries.LatencySummary.Builder summary = LatencySummaries.LatencySummary.newBuilder()
+                .setSpanName(method)
+                .setStatusCode(code)
+                .setStartTimeMs(start)
+                .setEndTimeMs(end)
+                .setCount(snapshot.getCount())
+                .setSumMs(snapshot.getSum())
+                .setMaxMs(snapshot.getMax())
+                .setP50Ms(snapshot.getValueAtPercentile(50))
+                .setP90Ms(snapshot.getValueAtPercentile(90))
+                .setP99Ms(snapshot.getValueAtPercentile(99))
+                .setP999Ms(snapshot.getValueAtPercentile(99.9));
+        for (int i = 0; i < snapshot.getBuckets(); i++) {
+            if (snapshot.getBucketCount(i) > 0) {
+                summary.addBucketIndexes(i);
+                summary.addBucketCounts(snapshot.getBucketCount(i));
+            }
+        }
+        if (snapshot.getMaxExemplar() != null) {
+            summary.addExemplarTraceParents(snapshot.getMaxExemplar());
+        }
+        return summary.build();
+    }
+}
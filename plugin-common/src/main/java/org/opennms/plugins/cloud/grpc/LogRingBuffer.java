@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded multi producer, single consumer ring buffer. Adding never blocks: if the buffer is full the oldest entries
+ * are overwritten and counted as dropped. Only one thread at a time may drain it.
+ * <p>
+ * Every producer claims a sequence number and puts the entry with it into its slot. A slot only moves to newer
+ * sequences, so the consumer can tell whether a slot holds the entry it expects, a newer one (the expected one was
+ * overwritten) or an older one (the producer of the expected entry isn't done yet).
+ */
+public class LogRingBuffer<E> {
+
+    private static class Slot<E> {
+        final long sequence;
+        final E entry;
+
+        Slot(final long sequence, final E entry) {
+            this.sequence = sequence;
+            this.entry = entry;
+        }
+    }
+
+    private final int capacity;
+    private final AtomicReferenceArray<Slot<E>> slots;
+    private final AtomicLong tail = new AtomicLong(); // next sequence to claim
+    private final AtomicLong head = new AtomicLong(); // next sequence to drain, only written by the consumer
+    private final AtomicLong dropped = new AtomicLong();
+
+    public LogRingBuffer(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(String.format("capacity must be > 0 but was %s", capacity));
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    public void add(final E entry) {
+        final long sequence = tail.getAndIncrement();
+        final int index = index(sequence);
+        final Slot<E> slot = new Slot<>(sequence, entry);
+        Slot<E> current;
+        do {
+            current = slots.get(index);
+            if (current != null && current.sequence > sequence) {
+                return; // a producer a lap ahead was faster, our entry is the older one and counted by the consumer
+            }
+        } while (!slots.compareAndSet(index, current, slot));
+    }
+
+    /**
+     * Moves up to maxEntries of the oldest entries into the batch.
+     * @return the number of drained entries
+     */
+    public int drainTo(final Collection<? super E> batch, final int maxEntries) {
+        long next = skipOverwritten();
+        int drained = 0;
+        while (drained < maxEntries && next < tail.get()) {
+            final Slot<E> slot = slots.get(index(next));
+            if (slot == null || slot.sequence < next) {
+                break; // still being added, we get it with the next drain
+            }
+            if (slot.sequence == next) {
+                batch.add(slot.entry);
+                drained++;
+            } else {
+                dropped.incrementAndGet(); // overwritten while we were draining
+            }
+            next++;
+        }
+        head.set(next);
+        return drained;
+    }
+
+    /** Removes all entries. Only the consumer may call it. */
+    public void clear() {
+        head.set(tail.get());
+    }
+
+    /** Entries that were overwritten before the consumer got them, counted when we see them. */
+    private long skipOverwritten() {
+        final long first = head.get();
+        final long oldest = tail.get() - capacity;
+        if (first < oldest) {
+            dropped.addAndGet(oldest - first);
+            head.set(oldest);
+            return oldest;
+        }
+        return first;
+    }
+
+    private int index(final long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    public int size() {
+        return (int) Math.max(0, Math.min(capacity, tail.get() - head.get()));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Entries that were overwritten because the buffer was full, including the ones the consumer didn't skip yet. */
+    public long getDropped() {
+        return dropped.get() + Math.max(0, tail.get() - capacity - head.get());
+    }
+}
@@ -35,8 +35,6 @@ import lombok.Data;
 @Builder
 public class TraceParentHeader {
 
-    private static final String TRACE_PARENT_HEADER_FORMAT = "%s-%s-%s-%s";
-
     private final String version;
 
     private final String traceId;
@@ -46,6 +44,6 @@ public class TraceParentHeader {
     private final String traceFlags;
 
     public String createTraceParentHeaderAsString() {
-        return String.format(TRACE_PARENT_HEADER_FORMAT, version, traceId, parentId, traceFlags);
+        return version + '-' + traceId + '-' + parentId + '-' + traceFlags;
     }
 }
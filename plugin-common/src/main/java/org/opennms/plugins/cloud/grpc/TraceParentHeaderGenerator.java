@@ -29,10 +29,8 @@
 package org.opennms.plugins.cloud.grpc;
 
 import static io.grpc.Metadata.ASCII_STRING_MARSHALLER;
-import static org.apache.commons.codec.binary.Hex.encodeHexString;
-import static org.apache.commons.lang3.StringUtils.EMPTY;
 
-import java.security.SecureRandom;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -40,44 +38,79 @@ import io.grpc.Metadata;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 
+/**
+ * Generates W3C trace context headers (version-traceId-parentId-traceFlags).
+ * Trace ids only need to be unique, not unpredictable: they come from {@link ThreadLocalRandom} and are hex encoded
+ * into a per-thread buffer, since a header is created for every call.
+ */
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class TraceParentHeaderGenerator {
 
-    private static final int TRACE_ID_BYTE_LENGTH = 16;
-    private static final int PARENT_ID_BYTE_LENGTH = 8;
+    public static final Metadata.Key<String> TRACEPARENT_KEY = Metadata.Key.of("traceparent", ASCII_STRING_MARSHALLER);
     private static final String VERSION = "00";
     private static final String TRACE_FLAGS = "01";
-    private static final String TRACEPARENT_KEY_NAME = "traceparent";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int TRACE_ID_OFFSET = 3; // after "00-"
+    private static final int PARENT_ID_OFFSET = TRACE_ID_OFFSET + 33; // 32 hex chars and "-"
+    private static final int HEADER_LENGTH = PARENT_ID_OFFSET + 19; // 16 hex chars and "-01"
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> {
+        final char[] buffer = new char[HEADER_LENGTH];
+        VERSION.getChars(0, 2, buffer, 0);
+        buffer[TRACE_ID_OFFSET - 1] = '-';
+        buffer[PARENT_ID_OFFSET - 1] = '-';
+        TRACE_FLAGS.getChars(0, 2, buffer, HEADER_LENGTH - 2);
+        buffer[HEADER_LENGTH - 3] = '-';
+        return buffer;
+    });
+
+    /** Returns a new header, e.g. 00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01 */
+    public static String generateTraceParent() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        long traceIdHigh;
+        long traceIdLow;
+        long parentId;
+        do { // all zero ids are invalid
+            traceIdHigh = random.nextLong();
+            traceIdLow = random.nextLong();
+        } while (traceIdHigh == 0 && traceIdLow == 0);
+        do {
+            parentId = random.nextLong();
+        } while (parentId == 0);
+        final char[] buffer = BUFFER.get();
+        toHex(traceIdHigh, buffer, TRACE_ID_OFFSET);
+        toHex(traceIdLow, buffer, TRACE_ID_OFFSET + 16);
+        toHex(parentId, buffer, PARENT_ID_OFFSET);
+        return new String(buffer);
+    }
 
     public static TraceParentHeader generateTraceParentHeader() {
+        final String traceParent = generateTraceParent();
         return TraceParentHeader.builder()
                 .version(VERSION)
-                .traceId(encodeHexString(byteGenerator(TRACE_ID_BYTE_LENGTH)))
-                .parentId(encodeHexString(byteGenerator(PARENT_ID_BYTE_LENGTH)))
+                .traceId(traceParent.substring(TRACE_ID_OFFSET, PARENT_ID_OFFSET - 1))
+                .parentId(traceParent.substring(PARENT_ID_OFFSET, HEADER_LENGTH - 3))
                 .traceFlags(TRACE_FLAGS)
                 .build();
     }
 
     public static Metadata generateTraceParentHeaderMetadata() {
-        return createMetadata(EMPTY);
+        return createMetadata(generateTraceParent());
     }
 
     public static Metadata generateTraceParentHeaderMetadata(String traceParentHeader) {
-        return createMetadata(traceParentHeader);
+        return createMetadata(StringUtils.isBlank(traceParentHeader) ? generateTraceParent() : traceParentHeader);
     }
 
     private static Metadata createMetadata(String traceParentHeader) {
         Metadata metadata = new Metadata();
-        metadata.put(Metadata.Key.of(TRACEPARENT_KEY_NAME, ASCII_STRING_MARSHALLER),
-                StringUtils.isBlank(traceParentHeader) ? generateTraceParentHeader().createTraceParentHeaderAsString() :
-                        traceParentHeader);
+        metadata.put(TRACEPARENT_KEY, traceParentHeader);
         return metadata;
     }
 
-    private static byte[] byteGenerator(int length) {
-        SecureRandom random = new SecureRandom();
-        byte[] r = new byte[length];
-        random.nextBytes(r);
-        return r;
+    private static void toHex(long value, final char[] buffer, final int offset) {
+        for (int i = offset + 15; i >= offset; i--) {
+            buffer[i] = HEX[(int) value & 0xF];
+            value >>>= 4;
+        }
     }
 }
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * Head based sampling of the latency traces that are sent to the cloud.
+ * Failed calls and calls slower than slowCallThresholdInMs are always kept, the others with the sample rate of their
+ * method. The decision is taken from the trace id, so all services that see the same trace decide the same way.
+ */
+public class TraceSampler {
+
+    private static final long RANDOM_BITS_BOUND = 1L << 56; // W3C: the right 7 bytes of the trace id are random
+    private static final int TRACE_ID_END = 35; // 00-<32 hex chars>-...
+
+    private final double defaultRate;
+    private final Map<String, Double> ratesByMethod; // by full or bare method name
+    private final long slowCallThresholdInMs;
+    private final AtomicLong kept = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public TraceSampler(final double defaultRate, final Map<String, Double> ratesByMethod, final long slowCallThresholdInMs) {
+        checkRate(defaultRate);
+        ratesByMethod.values().forEach(TraceSampler::checkRate);
+        this.defaultRate = defaultRate;
+        this.ratesByMethod = Collections.unmodifiableMap(new HashMap<>(ratesByMethod));
+        this.slowCallThresholdInMs = slowCallThresholdInMs;
+    }
+
+    private static void checkRate(final double rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException(String.format("A sample rate must be between 0 and 1 but was %s", rate));
+        }
+    }
+
+    /**
+     * Parses rates in the form "Store=0.01,tsaas.Timeseries/CheckHealth=0.1".
+     */
+    public static Map<String, Double> parseRates(final String rates) {
+        final Map<String, Double> result = new HashMap<>();
+        if (rates == null || rates.isBlank()) {
+            return result;
+        }
+        for (String rate : rates.split(",")) {
+            final String[] keyValue = rate.split("=");
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException(String.format("Invalid sample rate '%s', expected <method>=<rate>", rate));
+            }
+            result.put(keyValue[0].trim(), Double.parseDouble(keyValue[1].trim()));
+        }
+        return result;
+    }
+
+    public boolean sample(final MethodDescriptor<?, ?> method, final Status.Code code, final long durationInMs, final String traceParent) {
+        final boolean keep = code != Status.Code.OK
+                || (slowCallThresholdInMs > 0 && durationInMs >= slowCallThresholdInMs)
+                || isSampled(getRate(method), traceParent);
+        (keep ? kept : dropped).incrementAndGet();
+        return keep;
+    }
+
+    double getRate(final MethodDescriptor<?, ?> method) {
+        Double rate = ratesByMethod.get(method.getFullMethodName());
+        if (rate == null) {
+            rate = ratesByMethod.get(method.getBareMethodName());
+        }
+        return rate == null ? defaultRate : rate;
+    }
+
+    private static boolean isSampled(final double rate, final String traceParent) {
+        if (rate >= 1) {
+            return true;
+        } else if (rate <= 0) {
+            return false;
+        }
+        long random;
+        try {
+            random = Long.parseUnsignedLong(traceParent.substring(TRACE_ID_END - 14, TRACE_ID_END), 16);
+        } catch (RuntimeException e) {
+            random = ThreadLocalRandom.current().nextLong(RANDOM_BITS_BOUND); // no valid trace id
+        }
+        return random < (long) (rate * RANDOM_BITS_BOUND);
+    }
+
+    public long getKept() {
+        return kept.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
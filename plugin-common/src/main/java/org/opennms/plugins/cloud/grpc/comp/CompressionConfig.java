@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc.comp;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Builder(toBuilder = true)
+@Data
+public class CompressionConfig {
+
+    private final Compression compression;
+    /** Zstd compression level, see {@link com.github.luben.zstd.Zstd#maxCompressionLevel()}. */
+    private final int level;
+    /** Messages smaller than this are sent uncompressed, compressing them costs more than it saves. */
+    private final int minMessageSizeInBytes;
+    /** Optional zstd dictionary, used if the server knows it. null: plain zstd. */
+    private final byte[] dictionary;
+
+    @SuppressWarnings("java:S1068") // fields are not unused but part of lombok builder
+    public static class CompressionConfigBuilder {
+        private Compression compression = Compression.ZSTD; // default value
+        private int level = ZstdGrpcCodec.DEFAULT_LEVEL; // default value
+        private int minMessageSizeInBytes = 1024; // default value
+        private byte[] dictionary = null; // default value
+    }
+}
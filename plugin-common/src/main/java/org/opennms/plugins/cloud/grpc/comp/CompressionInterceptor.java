@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc.comp;
+
+import java.util.Objects;
+
+import com.google.protobuf.MessageLite;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+
+/**
+ * Sets the compression of every call according to the {@link CompressionConfig}. Zstd is only used once the server
+ * advertised it in the grpc-accept-encoding header of a response, until then (and if it doesn't) gzip is used.
+ * The codecs with the level and the dictionary are in the compressor registry of the channel, see
+ * {@link ZstdCodecRegisterUtil#createCompressorRegistry(CompressionConfig)}.
+ */
+public class CompressionInterceptor implements ClientInterceptor {
+
+    private static final Metadata.Key<String> ACCEPT_ENCODING = Metadata.Key.of("grpc-accept-encoding", Metadata.ASCII_STRING_MARSHALLER);
+    private static final String GZIP = "gzip";
+
+    private final CompressionConfig config;
+    private final String dictionaryEncoding; // null if no dictionary is configured
+    private volatile boolean zstdAccepted; // learned from the responses of the server
+    private volatile boolean dictionaryAccepted; // learned from the responses of the server
+
+    public CompressionInterceptor(final CompressionConfig config) {
+        this.config = Objects.requireNonNull(config);
+        this.dictionaryEncoding = config.getDictionary() == null ? null : ZstdGrpcCodec.dictionaryEncoding(config.getDictionary());
+    }
+
+    @Override
+    public <I, O> ClientCall<I, O> interceptCall(final MethodDescriptor<I, O> method, final CallOptions callOptions, final Channel next) {
+        if (config.getCompression() == Compression.NONE) {
+            return next.newCall(method, callOptions);
+        }
+        final String encoding = chooseEncoding();
+        final ClientCall<I, O> call = next.newCall(method, callOptions.withCompression(encoding));
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(call) {
+            @Override
+            public void start(final Listener<O> responseListener, final Metadata headers) {
+                super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(responseListener) {
+                    @Override
+                    public void onHeaders(final Metadata responseHeaders) {
+                        learnAcceptedEncodings(responseHeaders);
+                        super.onHeaders(responseHeaders);
+                    }
+                }, headers);
+            }
+
+            @Override
+            public void sendMessage(final I message) {
+                setMessageCompression(!(message instanceof MessageLite)
+                        || ((MessageLite) message).getSerializedSize() >= config.getMinMessageSizeInBytes());
+                super.sendMessage(message);
+            }
+        };
+    }
+
+    private String chooseEncoding() {
+        if (config.getCompression() != Compression.ZSTD) {
+            return GZIP;
+        } else if (dictionaryAccepted) {
+            return dictionaryEncoding;
+        } else if (zstdAccepted) {
+            return ZstdGrpcCodec.ZSTD;
+        }
+        return GZIP;
+    }
+
+    private void learnAcceptedEncodings(final Metadata responseHeaders) {
+        final String accepted = responseHeaders.get(ACCEPT_ENCODING);
+        if (accepted != null) {
+            boolean zstd = false;
+            boolean dictionary = false;
+            for (String encoding : accepted.split(",")) {
+                zstd |= ZstdGrpcCodec.ZSTD.equals(encoding.trim());
+                dictionary |= dictionaryEncoding != null && dictionaryEncoding.equals(encoding.trim());
+            }
+            this.zstdAccepted = zstd;
+            this.dictionaryAccepted = dictionary;
+        }
+    }
+
+    public boolean isZstdAccepted() {
+        return zstdAccepted;
+    }
+
+    public boolean isDictionaryAccepted() {
+        return dictionaryAccepted;
+    }
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc.comp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps a uniform random sample (reservoir sampling) of at most maxSamples of the offered payloads.
+ * Used to capture real payloads to train a zstd dictionary.
+ */
+public class PayloadSampler<T> {
+
+    private final int maxSamples;
+    private final List<T> samples;
+    private long offered;
+
+    public PayloadSampler(final int maxSamples) {
+        if (maxSamples < 1) {
+            throw new IllegalArgumentException(String.format("maxSamples must be > 0 but was %s", maxSamples));
+        }
+        this.maxSamples = maxSamples;
+        this.samples = new ArrayList<>(maxSamples);
+    }
+
+    public synchronized void offer(final T payload) {
+        offered++;
+        if (samples.size() < maxSamples) {
+            samples.add(payload);
+            return;
+        }
+        final long index = ThreadLocalRandom.current().nextLong(offered);
+        if (index < maxSamples) {
+            samples.set((int) index, payload);
+        }
+    }
+
+    public synchronized List<T> getSamples() {
+        return new ArrayList<>(samples);
+    }
+
+    public synchronized long getOffered() {
+        return offered;
+    }
+}
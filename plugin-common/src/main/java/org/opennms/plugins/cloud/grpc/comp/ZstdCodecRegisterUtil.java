@@ -28,6 +28,7 @@
 
 package org.opennms.plugins.cloud.grpc.comp;
 
+import io.grpc.Codec;
 import io.grpc.CompressorRegistry;
 import io.grpc.DecompressorRegistry;
 
@@ -41,9 +42,31 @@ public class ZstdCodecRegisterUtil {
         return DecompressorRegistry.getDefaultInstance().with(new ZstdGrpcCodec(), true);
     }
 
+    /** Includes the given dictionary codecs, they are advertised to the other side. */
+    public static DecompressorRegistry createDecompressorRegistry(final ZstdGrpcCodec... dictionaryCodecs) {
+        DecompressorRegistry registry = createDecompressorRegistry();
+        for (ZstdGrpcCodec codec : dictionaryCodecs) {
+            registry = registry.with(codec, true);
+        }
+        return registry;
+    }
+
     public static CompressorRegistry createCompressorRegistry() {
-        final CompressorRegistry  registry = CompressorRegistry.getDefaultInstance();
-        registry.register(new ZstdGrpcCodec());
+        return createCompressorRegistry(CompressionConfig.builder().build());
+    }
+
+    /**
+     * Every channel gets its own registry with codecs for the level and the dictionary of its connections, the global
+     * default registry is left alone. Besides zstd it knows what the default registry knows (gzip, identity).
+     */
+    public static CompressorRegistry createCompressorRegistry(final CompressionConfig compression) {
+        final CompressorRegistry registry = CompressorRegistry.newEmptyInstance();
+        registry.register(new Codec.Gzip());
+        registry.register(Codec.Identity.NONE);
+        registry.register(new ZstdGrpcCodec(compression.getLevel()));
+        if (compression.getDictionary() != null) {
+            registry.register(new ZstdGrpcCodec(compression.getLevel(), compression.getDictionary()));
+        }
         return registry;
     }
 
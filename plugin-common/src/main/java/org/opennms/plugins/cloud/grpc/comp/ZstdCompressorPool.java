@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc.comp;
+
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+
+/**
+ * Reuses zstd compression contexts together with their buffers: creating a context allocates native memory and
+ * its internal buffers, which costs more than compressing a small message.
+ * At most maxPooled compressors are kept, the others are closed when they are released.
+ */
+class ZstdCompressorPool {
+
+    /** Buffers that grew beyond this (4 MB, the default batch size) are not kept in the pool. */
+    static final int MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final int maxPooled;
+    private final Deque<Compressor> pool = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    ZstdCompressorPool(final int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    Compressor acquire() {
+        final Compressor compressor = pool.pollFirst();
+        if (compressor == null) {
+            return new Compressor();
+        }
+        pooled.decrementAndGet();
+        return compressor;
+    }
+
+    void release(final Compressor compressor) {
+        compressor.reset();
+        if (pooled.incrementAndGet() <= maxPooled) {
+            pool.offerFirst(compressor); // the most recently used one is likely still in the cpu cache
+        } else {
+            pooled.decrementAndGet();
+            compressor.ctx.close();
+        }
+    }
+
+    int getPooled() {
+        return pooled.get();
+    }
+
+    /** A compression context and the buffers for the uncompressed and the compressed message. */
+    static class Compressor {
+        final ZstdCompressCtx ctx = new ZstdCompressCtx();
+        byte[] src = new byte[INITIAL_BUFFER_SIZE];
+        int size;
+        byte[] dst = new byte[0];
+
+        void write(final int b) {
+            if (size == src.length) {
+                src = Arrays.copyOf(src, 2 * src.length);
+            }
+            src[size++] = (byte) b;
+        }
+
+        void write(final byte[] bytes, final int offset, final int length) {
+            if (size + length > src.length) {
+                src = Arrays.copyOf(src, Math.max(size + length, 2 * src.length));
+            }
+            System.arraycopy(bytes, offset, src, size, length);
+            size += length;
+        }
+
+        /** Compresses the written bytes, the result is in dst. dictionary may be null. */
+        int compress(final int level, final ZstdDictCompress dictionary) {
+            final int bound = (int) Zstd.compressBound(size);
+            if (dst.length < bound) {
+                dst = new byte[bound];
+            }
+            ctx.setLevel(level);
+            if (dictionary != null) {
+                ctx.loadDict(dictionary);
+            }
+            return ctx.compressByteArray(dst, 0, dst.length, src, 0, size);
+        }
+
+        private void reset() {
+            size = 0;
+            if (src.length > MAX_RETAINED_BUFFER_SIZE) {
+                src = new byte[INITIAL_BUFFER_SIZE];
+            }
+            if (dst.length > MAX_RETAINED_BUFFER_SIZE) {
+                dst = new byte[0];
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc.comp;
+
+import java.util.Collection;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+
+import lombok.Data;
+
+/**
+ * Trains zstd dictionaries from captured payloads and measures what they gain over plain zstd.
+ * A dictionary only helps if the cloud knows it as well, so it is trained offline and deployed on both sides.
+ */
+public class ZstdDictionaries {
+
+    public static final int DEFAULT_DICTIONARY_SIZE = 112_640; // the default of the zstd cli
+
+    private ZstdDictionaries() {
+        // Utility class
+    }
+
+    public static byte[] train(final Collection<byte[]> samples, final int dictionarySize) {
+        final long totalSize = samples.stream().mapToLong(s -> s.length).sum();
+        if (totalSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Too many samples for training: %s bytes", totalSize));
+        }
+        final ZstdDictTrainer trainer = new ZstdDictTrainer((int) totalSize, dictionarySize);
+        for (byte[] sample : samples) {
+            trainer.addSample(sample);
+        }
+        return trainer.trainSamples();
+    }
+
+    /**
+     * Compresses the payloads with and without the dictionary. The payloads should not be the ones the dictionary was
+     * trained on, otherwise the gain is overstated.
+     */
+    public static Ratio compare(final Collection<byte[]> payloads, final byte[] dictionary, final int level) {
+        final Ratio ratio = new Ratio();
+        try (ZstdDictCompress dictCompress = new ZstdDictCompress(dictionary, level)) {
+            for (byte[] payload : payloads) {
+                ratio.uncompressedBytes += payload.length;
+                ratio.zstdBytes += Zstd.compress(payload, level).length;
+                ratio.dictionaryBytes += Zstd.compress(payload, dictCompress).length;
+            }
+        }
+        return ratio;
+    }
+
+    @Data
+    public static class Ratio {
+        private long uncompressedBytes;
+        private long zstdBytes;
+        private long dictionaryBytes;
+
+        public double getZstdRatio() {
+            return zstdBytes == 0 ? 0 : (double) uncompressedBytes / zstdBytes;
+        }
+
+        public double getDictionaryRatio() {
+            return dictionaryBytes == 0 ? 0 : (double) uncompressedBytes / dictionaryBytes;
+        }
+
+        /** How much smaller the payloads get with the dictionary compared to plain zstd. */
+        public double getGainInPercent() {
+            return zstdBytes == 0 ? 0 : 100.0 * (zstdBytes - dictionaryBytes) / zstdBytes;
+        }
+    }
+}
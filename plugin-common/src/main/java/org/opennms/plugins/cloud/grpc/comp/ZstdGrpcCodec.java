@@ -31,28 +31,146 @@ package org.opennms.plugins.cloud.grpc.comp;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Objects;
 
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
 import com.github.luben.zstd.ZstdInputStream;
-import com.github.luben.zstd.ZstdOutputStream;
 
 import io.grpc.Codec;
 
 public class ZstdGrpcCodec implements Codec {
 
     public static final String ZSTD = "zstd";
+    /** Encoding of the dictionary mode, followed by the id of the dictionary. */
+    public static final String ZSTD_DICTIONARY_PREFIX = "zstd-dict-";
+    public static final int DEFAULT_LEVEL = 3;
+
+    private final String encoding;
+    /**
+     * The level of every message compressed by this codec. Messages may be compressed later and in another thread
+     * than the one that sent them (e.g. while the call is not started yet), so the level can't come from the caller.
+     */
+    private final int level;
+    private final ZstdDictCompress dictCompress; // null if plain zstd
+    private final ZstdDictDecompress dictDecompress; // null if plain zstd
+    private final ZstdCompressorPool compressors = new ZstdCompressorPool(Runtime.getRuntime().availableProcessors());
+
+    public ZstdGrpcCodec() {
+        this(DEFAULT_LEVEL);
+    }
+
+    public ZstdGrpcCodec(final int level) {
+        this.encoding = ZSTD;
+        this.level = level;
+        this.dictCompress = null;
+        this.dictDecompress = null;
+    }
+
+    public ZstdGrpcCodec(final byte[] dictionary) {
+        this(DEFAULT_LEVEL, dictionary);
+    }
+
+    /**
+     * Dictionary mode: the id of the dictionary is part of the encoding.
+     * The server lists it in grpc-accept-encoding only if it knows the same dictionary.
+     */
+    public ZstdGrpcCodec(final int level, final byte[] dictionary) {
+        this.encoding = dictionaryEncoding(dictionary);
+        this.level = level;
+        // digesting the dictionary is expensive, do it once
+        this.dictCompress = new ZstdDictCompress(dictionary, level);
+        this.dictDecompress = new ZstdDictDecompress(dictionary);
+    }
+
+    public static String dictionaryEncoding(final long dictionaryId) {
+        return ZSTD_DICTIONARY_PREFIX + dictionaryId;
+    }
+
+    /**
+     * @throws IllegalArgumentException if it isn't a zstd dictionary
+     */
+    public static String dictionaryEncoding(final byte[] dictionary) {
+        Objects.requireNonNull(dictionary);
+        final long dictionaryId = Zstd.getDictIdFromDict(dictionary);
+        if (dictionaryId == 0) {
+            throw new IllegalArgumentException("Not a zstd dictionary, it has no dictionary id");
+        }
+        return dictionaryEncoding(dictionaryId);
+    }
 
     @Override
     public String getMessageEncoding() {
-        return ZSTD;
+        return encoding;
+    }
+
+    public int getLevel() {
+        return level;
     }
 
     @Override
     public InputStream decompress(final InputStream inputStream) throws IOException {
-        return new ZstdInputStream(inputStream);
+        // the size of the decompressed message is only known while reading, grpc enforces its limit on the stream
+        final ZstdInputStream stream = new ZstdInputStream(inputStream, RecyclingBufferPool.INSTANCE);
+        if (dictDecompress != null) {
+            stream.setDict(dictDecompress);
+        }
+        return stream;
     }
 
+    /**
+     * The message is collected and compressed in one go when the stream is closed (grpc always closes it),
+     * with a context and buffers from the pool.
+     */
     @Override
-    public OutputStream compress(final OutputStream outputStream) throws IOException {
-        return new ZstdOutputStream(outputStream);
+    public OutputStream compress(final OutputStream outputStream) {
+        return new PooledZstdOutputStream(outputStream);
+    }
+
+    int getPooledCompressors() {
+        return compressors.getPooled();
+    }
+
+    private class PooledZstdOutputStream extends OutputStream {
+        private final OutputStream out;
+        private ZstdCompressorPool.Compressor compressor;
+
+        PooledZstdOutputStream(final OutputStream out) {
+            this.out = out;
+            this.compressor = compressors.acquire();
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (compressor == null) {
+                throw new IOException("Stream is closed");
+            }
+            compressor.write(b);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            if (compressor == null) {
+                throw new IOException("Stream is closed");
+            }
+            compressor.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (compressor == null) {
+                return;
+            }
+            try {
+                final int compressedSize = compressor.compress(level, dictCompress);
+                out.write(compressor.dst, 0, compressedSize);
+                out.close();
+            } finally {
+                compressors.release(compressor);
+                compressor = null;
+            }
+        }
     }
 }
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.grpc.Status;
+
+/**
+ * Decides how many samples go into a batch and how many batches are sent at the same time.
+ * If adaptive batching is off, the batch size is the configured one and the concurrency is only limited by the sender
+ * threads and the window of outstanding batches.
+ * Otherwise it follows AIMD (additive increase, multiplicative decrease) based on the outcome of each batch:
+ * <ul>
+ *     <li>A full batch that was answered within the target latency increases the batch size by minBatchSize. After as
+ *     many of these in a row as the current concurrency, the concurrency is increased by 1.</li>
+ *     <li>A batch answered slower than the target latency shrinks the batch size proportionally (at most by half). If
+ *     it took more than twice the target latency, the concurrency is decreased by 1.</li>
+ *     <li>RESOURCE_EXHAUSTED and DEADLINE_EXCEEDED halve both.</li>
+ * </ul>
+ * Other errors (e.g. the cloud is unreachable) say nothing about the load and don't change anything.
+ * With {@link StoreMode#STREAMING} nothing is adapted: the server confirms the batches of a stream only when the stream
+ * is completed, so the latency of a batch mostly is the time the stream stayed open and not how long the cloud took.
+ */
+public class BatchController {
+
+    private final boolean adaptive;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int maxConcurrency;
+    private final long targetLatencyInMs;
+
+    // modified only in onBatchDone() but read without synchronization
+    private volatile int batchSize;
+    private volatile int concurrency;
+    private volatile long lastLatencyInMs;
+    private volatile long bytesPerSecond; // of the last batch
+    private int successesInRow;
+
+    private final AtomicLong increases = new AtomicLong();
+    private final AtomicLong decreases = new AtomicLong();
+
+    /**
+     * @param maxConcurrency the number of batches that can be sent at the same time without adaptation.
+     *                       {@link Integer#MAX_VALUE} if the concurrency must not be adapted.
+     */
+    public BatchController(final TsaasConfig config, final int maxConcurrency) {
+        this.adaptive = config.isAdaptiveBatching() && config.getStoreMode() != StoreMode.STREAMING;
+        this.batchSize = config.getBatchSize();
+        this.maxConcurrency = maxConcurrency;
+        this.concurrency = maxConcurrency;
+        this.minBatchSize = config.getMinBatchSize();
+        this.maxBatchSize = config.getMaxBatchSize();
+        this.targetLatencyInMs = config.getTargetLatencyInMilliSeconds();
+        if (adaptive) {
+            if (minBatchSize < 1 || minBatchSize > batchSize || batchSize > maxBatchSize) {
+                throw new IllegalArgumentException(String.format("Expected 1 <= minBatchSize <= batchSize <= maxBatchSize but was %s, %s, %s",
+                        minBatchSize, batchSize, maxBatchSize));
+            }
+            if (targetLatencyInMs < 1) {
+                throw new IllegalArgumentException(String.format("targetLatencyInMilliSeconds must be at least 1 but was %s", targetLatencyInMs));
+            }
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return how many batches may be in flight at the same time.
+     */
+    public int getConcurrency() {
+        return adaptive ? concurrency : Integer.MAX_VALUE;
+    }
+
+    private boolean isConcurrencyAdapted() {
+        return maxConcurrency != Integer.MAX_VALUE;
+    }
+
+    /**
+     * Adapts batch size and concurrency to the outcome of a batch.
+     *
+     * @param samples   the number of samples in the batch.
+     * @param bytes     the serialized size of the batch.
+     * @param latencyInMs the time from sending the batch until the response.
+     * @param status    the outcome, {@link Status.Code#OK} for success.
+     */
+    public synchronized void onBatchDone(final int samples, final long bytes, final long latencyInMs, final Status.Code status) {
+        if (!adaptive) {
+            return;
+        }
+        if (status == Status.Code.RESOURCE_EXHAUSTED || status == Status.Code.DEADLINE_EXCEEDED) {
+            successesInRow = 0;
+            decrease(batchSize / 2, concurrency / 2);
+            return;
+        }
+        if (status != Status.Code.OK) {
+            return;
+        }
+        lastLatencyInMs = latencyInMs;
+        bytesPerSecond = bytes * 1000 / Math.max(1, latencyInMs);
+        if (latencyInMs > targetLatencyInMs) {
+            successesInRow = 0;
+            int newBatchSize = (int) Math.max(batchSize / 2, batchSize * targetLatencyInMs / latencyInMs);
+            decrease(newBatchSize, latencyInMs > 2 * targetLatencyInMs ? concurrency - 1 : concurrency);
+        } else if (samples >= batchSize) { // a partial batch tells nothing about a bigger one
+            successesInRow++;
+            int newConcurrency = concurrency;
+            if (isConcurrencyAdapted() && successesInRow >= concurrency) {
+                successesInRow = 0;
+                newConcurrency = Math.min(maxConcurrency, concurrency + 1);
+            }
+            int newBatchSize = Math.min(maxBatchSize, batchSize + minBatchSize);
+            if (newBatchSize != batchSize || newConcurrency != concurrency) {
+                increases.incrementAndGet();
+                batchSize = newBatchSize;
+                concurrency = newConcurrency;
+            }
+        }
+    }
+
+    private void decrease(final int newBatchSize, final int newConcurrency) {
+        decreases.incrementAndGet();
+        batchSize = Math.max(minBatchSize, newBatchSize);
+        if (isConcurrencyAdapted()) {
+            concurrency = Math.max(1, newConcurrency);
+        }
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public long getLastLatencyInMs() {
+        return lastLatencyInMs;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public long getIncreases() {
+        return increases.get();
+    }
+
+    public long getDecreases() {
+        return decreases.get();
+    }
+}
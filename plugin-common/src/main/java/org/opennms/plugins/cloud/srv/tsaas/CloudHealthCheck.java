@@ -33,7 +33,9 @@ import static org.opennms.plugins.cloud.config.ConfigurationManager.ConfigStatus
 import static org.opennms.plugins.cloud.config.ConfigurationManager.ConfigStatus.FAILED;
 import static org.opennms.plugins.cloud.config.ConfigurationManager.ConfigStatus.NOT_ATTEMPTED;
 
+import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 import org.opennms.integration.api.v1.health.Context;
 import org.opennms.integration.api.v1.health.HealthCheck;
@@ -41,20 +43,26 @@ import org.opennms.integration.api.v1.health.Response;
 import org.opennms.integration.api.v1.health.Status;
 import org.opennms.integration.api.v1.health.immutables.ImmutableResponse;
 import org.opennms.plugins.cloud.config.ConfigurationManager;
+import org.opennms.plugins.cloud.grpc.CircuitBreaker;
+import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler;
 import org.opennms.tsaas.Tsaas;
 
 /**
  * Exposes the health of the cloud service to OIA.
  * Call in karaf shell via opennms:health-check
+ * Circuit breakers that are not closed are part of the message. An open one means failure, since calls of its method
+ * are currently rejected.
  */
 public class CloudHealthCheck implements HealthCheck {
 
     private final ConfigurationManager cm;
     private final TsaasStorage cloud;
+    private final GrpcExecutionHandler grpcHandler;
 
-    public CloudHealthCheck(final ConfigurationManager cm, final TsaasStorage cloud) {
+    public CloudHealthCheck(final ConfigurationManager cm, final TsaasStorage cloud, final GrpcExecutionHandler grpcHandler) {
         this.cm = Objects.requireNonNull(cm);
         this.cloud = Objects.requireNonNull(cloud);
+        this.grpcHandler = Objects.requireNonNull(grpcHandler);
     }
 
     @Override
@@ -80,6 +88,15 @@ public class CloudHealthCheck implements HealthCheck {
             status = toStatus(response.getStatus());
             message = String.format("Cloud status=%s", response.getStatus().name());
         }
+        Map<String, CircuitBreaker.State> notClosed = grpcHandler.getCircuitBreakerStates().entrySet().stream()
+                .filter(e -> e.getValue() != CircuitBreaker.State.CLOSED)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        if (!notClosed.isEmpty()) {
+            message = String.format("%s, circuit breakers=%s", message, notClosed);
+            if (notClosed.containsValue(CircuitBreaker.State.OPEN)) {
+                status = Failure;
+            }
+        }
         return ImmutableResponse.newInstance(status, message);
     }
 
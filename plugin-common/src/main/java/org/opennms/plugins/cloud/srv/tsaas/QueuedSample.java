@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas;
+
+import java.util.Objects;
+
+import org.opennms.tsaas.Tsaas;
+
+import com.google.protobuf.CodedOutputStream;
+
+import lombok.Getter;
+
+/**
+ * A sample waiting in the queue of {@link TsaasStorage} together with the time it was enqueued and its serialized size.
+ * batchBytes is what the sample adds to the size of a {@link Tsaas.Samples} message: the sample plus tag and length.
+ */
+@Getter
+final class QueuedSample {
+    private final Tsaas.Sample sample;
+    private final long enqueuedAtNanos;
+    private final int serializedSize;
+    private final int batchBytes;
+
+    QueuedSample(final Tsaas.Sample sample, final long enqueuedAtNanos) {
+        this.sample = Objects.requireNonNull(sample);
+        this.enqueuedAtNanos = enqueuedAtNanos;
+        this.serializedSize = sample.getSerializedSize();
+        this.batchBytes = CodedOutputStream.computeTagSize(Tsaas.Samples.SAMPLES_FIELD_NUMBER)
+                + CodedOutputStream.computeUInt32SizeNoTag(serializedSize)
+                + serializedSize;
+    }
+}
@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opennms.integration.api.v1.timeseries.StorageException;
+
+/**
+ * Bounded queue for the samples waiting to be sent to the cloud.
+ * It is limited by the number of samples and by their serialized size. Both are tracked on every change, so reading
+ * them is O(1). What happens on overflow is defined by the {@link OverflowPolicy}.
+ */
+public class SampleQueue {
+
+    private final int maxSamples;
+    private final long maxBytes;
+    private final OverflowPolicy overflowPolicy;
+
+    private final ArrayDeque<QueuedSample> queue = new ArrayDeque<>(); // guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    // modified only under lock but can be read without it
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger blockedProducers = new AtomicInteger();
+
+    private volatile Runnable fullListener = () -> { };
+
+    // overflow counters
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong droppedOldest = new AtomicLong();
+    private final AtomicLong droppedNewest = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public SampleQueue(final int maxSamples, final long maxBytes, final OverflowPolicy overflowPolicy) {
+        if (maxSamples < 1) {
+            throw new IllegalArgumentException(String.format("maxSamples must be at least 1 but was %s", maxSamples));
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException(String.format("maxBytes must be at least 1 but was %s", maxBytes));
+        }
+        this.maxSamples = maxSamples;
+        this.maxBytes = maxBytes;
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+    }
+
+    /**
+     * Called by a producer that has to wait for room with {@link OverflowPolicy#BLOCK}, before it waits. The queue
+     * might hold less than a batch, so the consumer has to be told that it should not wait for more. The listener is
+     * called without holding the lock of the queue.
+     */
+    public void setFullListener(final Runnable fullListener) {
+        this.fullListener = Objects.requireNonNull(fullListener);
+    }
+
+    /**
+     * Adds the samples to the end of the queue, applying the overflow policy if they don't fit.
+     *
+     * @throws StorageException if the policy is {@link OverflowPolicy#REJECT} and the samples don't fit or if the
+     *                          thread was interrupted while waiting for room with {@link OverflowPolicy#BLOCK}.
+     */
+    public void addAll(final Collection<QueuedSample> samples) throws StorageException {
+        lock.lock();
+        try {
+            if (overflowPolicy == OverflowPolicy.REJECT) {
+                long newBytes = samples.stream().mapToLong(QueuedSample::getSerializedSize).sum();
+                if (!fits(samples.size(), newBytes)) {
+                    rejected.addAndGet(samples.size());
+                    throw new StorageException(String.format("Queue is full (%s samples, %s bytes), rejected %s samples.",
+                            size.get(), bytes.get(), samples.size()));
+                }
+            }
+            for (QueuedSample sample : samples) {
+                if (makeRoomFor(sample)) {
+                    queue.addLast(sample);
+                    size.incrementAndGet();
+                    bytes.addAndGet(sample.getSerializedSize());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting for room in the queue.", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called under lock.
+     *
+     * @return true if the sample can be added.
+     */
+    private boolean makeRoomFor(final QueuedSample sample) throws InterruptedException {
+        boolean counted = false;
+        while (!fits(1, sample.getSerializedSize())) {
+            switch (overflowPolicy) {
+                case BLOCK:
+                    if (!counted) {
+                        blocked.incrementAndGet();
+                        counted = true;
+                    }
+                    blockedProducers.incrementAndGet();
+                    try {
+                        signalFull();
+                        if (!fits(1, sample.getSerializedSize())) { // a consumer might have made room meanwhile
+                            notFull.await();
+                        }
+                    } finally {
+                        blockedProducers.decrementAndGet();
+                    }
+                    break;
+                case DROP_OLDEST:
+                    removeFirst();
+                    droppedOldest.incrementAndGet();
+                    break;
+                default: // DROP_NEWEST, REJECT: the latter was already checked for the whole collection
+                    droppedNewest.incrementAndGet();
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Must be called under lock. The listener takes the lock of the consumer which in turn reads the queue, so we
+     * release ours while calling it.
+     */
+    private void signalFull() {
+        lock.unlock();
+        try {
+            fullListener.run();
+        } finally {
+            lock.lock();
+        }
+    }
+
+    private boolean fits(final int additionalSamples, final long additionalBytes) {
+        // an empty queue accepts a sample that is bigger than maxBytes, otherwise it could never be sent.
+        return size.get() + additionalSamples <= maxSamples
+                && (size.get() == 0 || bytes.get() + additionalBytes <= maxBytes);
+    }
+
+    /**
+     * Removes up to maxCount samples from the head of the queue.
+     */
+    public List<QueuedSample> poll(final int maxCount) {
+        return poll(maxCount, Long.MAX_VALUE);
+    }
+
+    /**
+     * Removes up to maxCount samples from the head of the queue whose {@link QueuedSample#getBatchBytes()} add up to
+     * at most maxBytes. The first sample is always taken, even if it is bigger.
+     */
+    public List<QueuedSample> poll(final int maxCount, final long maxBytes) {
+        lock.lock();
+        try {
+            List<QueuedSample> result = new ArrayList<>(Math.min(maxCount, size.get()));
+            long batchBytes = 0;
+            while (result.size() < maxCount && !queue.isEmpty()) {
+                int next = queue.peekFirst().getBatchBytes();
+                if (!result.isEmpty() && batchBytes + next > maxBytes) {
+                    break;
+                }
+                batchBytes += next;
+                result.add(removeFirst());
+            }
+            if (!result.isEmpty()) {
+                notFull.signalAll();
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private QueuedSample removeFirst() {
+        QueuedSample sample = queue.removeFirst();
+        size.decrementAndGet();
+        bytes.addAndGet(-sample.getSerializedSize());
+        return sample;
+    }
+
+    /**
+     * @return the oldest sample or null if the queue is empty.
+     */
+    public QueuedSample peek() {
+        lock.lock();
+        try {
+            return queue.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return true if a producer waits for room with {@link OverflowPolicy#BLOCK}.
+     */
+    public boolean hasBlockedProducers() {
+        return blockedProducers.get() > 0;
+    }
+
+    public long getBlocked() {
+        return blocked.get();
+    }
+
+    public long getDroppedOldest() {
+        return droppedOldest.get();
+    }
+
+    public long getDroppedNewest() {
+        return droppedNewest.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+}
@@ -28,6 +28,10 @@
 
 package org.opennms.plugins.cloud.srv.tsaas;
 
+import org.opennms.plugins.cloud.grpc.comp.Compression;
+import org.opennms.plugins.cloud.grpc.comp.ZstdGrpcCodec;
+import org.opennms.plugins.cloud.srv.tsaas.spool.SpoolMode;
+
 import lombok.Builder;
 import lombok.Data;
 
@@ -35,19 +39,154 @@ import lombok.Data;
 @Data
 public class TsaasConfig {
     private final int batchSize;
+    /** A batch is also sent when its samples reach this serialized size. Capped by the maximum message size of the channel. */
+    private final long batchMaxBytes;
     private final long maxBatchWaitTimeInMilliSeconds;
+    /** Number of background threads that send batches to the cloud. */
+    private final int senderThreads;
+    /** Maximum number of samples waiting to be sent. */
+    private final int queueMaxSamples;
+    /** Maximum serialized size of the samples waiting to be sent. */
+    private final long queueMaxBytes;
+    /** What happens if samples are stored while the queue is full. */
+    private final OverflowPolicy overflowPolicy;
+    /** Which batches are written to disk, see {@link SpoolMode}. */
+    private final SpoolMode spoolMode;
+    /** Directory of the spool. If empty, $OPENNMS_HOME/data/tsaas-spool is used. */
+    private final String spoolDirectory;
+    private final int spoolSegmentSizeInBytes;
+    /** Maximum disk space used by the spool. */
+    private final long spoolMaxSizeInBytes;
+    /** How fast the spooled batches are sent once the cloud is reachable again. */
+    private final int spoolReplayBatchesPerSecond;
+    /** Maximum number of converted metrics kept in the cache. */
+    private final long metricCacheMaxSize;
+    /** Metrics that were not stored for this time are evicted from the cache. */
+    private final long metricCacheExpireAfterAccessInSeconds;
+    /** The format in which batches are sent, see {@link BatchFormat}. */
+    private final BatchFormat batchFormat;
+    /** Number of batches that can be sent without waiting for the response. 1 means the sending is synchronous. */
+    private final int maxOutstandingBatches;
+    /** How batches are transported, see {@link StoreMode}. */
+    private final StoreMode storeMode;
+    /**
+     * In {@link StoreMode#STREAMING} a stream is completed after this number of batches. The window of outstanding
+     * batches is raised to senderThreads * maxBatchesPerStream, the batches of a stream are confirmed at its end.
+     */
+    private final int maxBatchesPerStream;
+    /** Adapt batch size and concurrency to latency and errors, see {@link BatchController}. batchSize is the start value. */
+    private final boolean adaptiveBatching;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    /** Batches that take longer than this make the adaptive batching send smaller batches. */
+    private final long targetLatencyInMilliSeconds;
+    /** How often a batch that failed with a recoverable error is sent again. 0 disables retries. */
+    private final int retryMaxAttempts;
+    /** Backoff before the first retry, doubled with every further attempt. */
+    private final long retryInitialBackoffInMilliSeconds;
+    private final long retryMaxBackoffInMilliSeconds;
+    /** Compression of the batches, see {@link Compression}. */
+    private final Compression compression;
+    /** Zstd compression level. */
+    private final int compressionLevel;
+    /** Batches smaller than this are sent uncompressed. */
+    private final int compressionMinBytes;
+    /** File of a zstd dictionary, used if the cloud knows the same dictionary. Empty: no dictionary. */
+    private final String compressionDictionary;
 
+    /** Called by blueprint.xml. */
     public TsaasConfig(
             final int batchSize,
-            final long maxBatchWaitTimeInMilliSeconds) {
+            final long batchMaxBytes,
+            final long maxBatchWaitTimeInMilliSeconds,
+            final int senderThreads,
+            final int queueMaxSamples,
+            final long queueMaxBytes,
+            final OverflowPolicy overflowPolicy,
+            final SpoolMode spoolMode,
+            final String spoolDirectory,
+            final int spoolSegmentSizeInBytes,
+            final long spoolMaxSizeInBytes,
+            final int spoolReplayBatchesPerSecond,
+            final long metricCacheMaxSize,
+            final long metricCacheExpireAfterAccessInSeconds,
+            final BatchFormat batchFormat,
+            final int maxOutstandingBatches,
+            final StoreMode storeMode,
+            final int maxBatchesPerStream,
+            final boolean adaptiveBatching,
+            final int minBatchSize,
+            final int maxBatchSize,
+            final long targetLatencyInMilliSeconds,
+            final int retryMaxAttempts,
+            final long retryInitialBackoffInMilliSeconds,
+            final long retryMaxBackoffInMilliSeconds,
+            final Compression compression,
+            final int compressionLevel,
+            final int compressionMinBytes,
+            final String compressionDictionary) {
         this.batchSize = batchSize;
+        this.batchMaxBytes = batchMaxBytes;
         this.maxBatchWaitTimeInMilliSeconds = maxBatchWaitTimeInMilliSeconds;
+        this.senderThreads = senderThreads;
+        this.queueMaxSamples = queueMaxSamples;
+        this.queueMaxBytes = queueMaxBytes;
+        this.overflowPolicy = overflowPolicy;
+        this.spoolMode = spoolMode;
+        this.spoolDirectory = spoolDirectory;
+        this.spoolSegmentSizeInBytes = spoolSegmentSizeInBytes;
+        this.spoolMaxSizeInBytes = spoolMaxSizeInBytes;
+        this.spoolReplayBatchesPerSecond = spoolReplayBatchesPerSecond;
+        this.metricCacheMaxSize = metricCacheMaxSize;
+        this.metricCacheExpireAfterAccessInSeconds = metricCacheExpireAfterAccessInSeconds;
+        this.batchFormat = batchFormat;
+        this.maxOutstandingBatches = maxOutstandingBatches;
+        this.storeMode = storeMode;
+        this.maxBatchesPerStream = maxBatchesPerStream;
+        this.adaptiveBatching = adaptiveBatching;
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.targetLatencyInMilliSeconds = targetLatencyInMilliSeconds;
+        this.retryMaxAttempts = retryMaxAttempts;
+        this.retryInitialBackoffInMilliSeconds = retryInitialBackoffInMilliSeconds;
+        this.retryMaxBackoffInMilliSeconds = retryMaxBackoffInMilliSeconds;
+        this.compression = compression;
+        this.compressionLevel = compressionLevel;
+        this.compressionMinBytes = compressionMinBytes;
+        this.compressionDictionary = compressionDictionary;
     }
 
     @SuppressWarnings("java:S1068") // fields are not unused but part of lombok builder
     public static class TsaasConfigBuilder {
         private int batchSize = 1000; // default value
+        private long batchMaxBytes = 4L * 1024 * 1024; // default value
         private long maxBatchWaitTimeInMilliSeconds = 5000;  // default value
+        private int senderThreads = 2; // default value
+        private int queueMaxSamples = 1_000_000; // default value
+        private long queueMaxBytes = 256L * 1024 * 1024; // default value
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST; // default value
+        private SpoolMode spoolMode = SpoolMode.OFF; // default value
+        private String spoolDirectory = ""; // default value
+        private int spoolSegmentSizeInBytes = 64 * 1024 * 1024; // default value
+        private long spoolMaxSizeInBytes = 10L * 1024 * 1024 * 1024; // default value
+        private int spoolReplayBatchesPerSecond = 10; // default value
+        private long metricCacheMaxSize = 500_000; // default value
+        private long metricCacheExpireAfterAccessInSeconds = 3600; // default value
+        private BatchFormat batchFormat = BatchFormat.SAMPLES; // default value
+        private int maxOutstandingBatches = 1; // default value
+        private StoreMode storeMode = StoreMode.UNARY; // default value
+        private int maxBatchesPerStream = 10; // default value
+        private boolean adaptiveBatching = false; // default value
+        private int minBatchSize = 100; // default value
+        private int maxBatchSize = 10_000; // default value
+        private long targetLatencyInMilliSeconds = 1000; // default value
+        private int retryMaxAttempts = 3; // default value
+        private long retryInitialBackoffInMilliSeconds = 500; // default value
+        private long retryMaxBackoffInMilliSeconds = 30_000; // default value
+        private Compression compression = Compression.ZSTD; // default value
+        private int compressionLevel = ZstdGrpcCodec.DEFAULT_LEVEL; // default value
+        private int compressionMinBytes = 1024; // default value
+        private String compressionDictionary = ""; // default value
     }
 
 
@@ -0,0 +1,676 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.plugins.cloud.grpc.GrpcConnection;
+import org.opennms.plugins.cloud.srv.tsaas.spool.SampleSpool;
+import org.opennms.plugins.cloud.srv.tsaas.spool.SpoolMode;
+import org.opennms.plugins.cloud.util.RunnerWrapper;
+import org.opennms.tsaas.Tsaas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.grpc.Status;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Owns the batching and sending of samples to the cloud.
+ * Samples are put into the queue by {@link TsaasStorage#store(java.util.List)}, the sender threads of the flusher take
+ * them from there, build batches and send them. This way the rpc latency is not imposed on the threads of OpenNMS.
+ * A batch is sent when it is full, by number of samples or by batchMaxBytes, or when its oldest sample has waited for
+ * maxBatchWaitTimeInMilliSeconds. The latter
+ * is checked by a timer, so partial batches are sent even if no more samples arrive.
+ * If a {@link SampleSpool} is given, batches are written to disk as defined by the {@link SpoolMode} and replayed with
+ * a limited rate once the cloud is reachable again.
+ * With maxOutstandingBatches greater than 1 the sender threads don't wait for the response of a batch but start the next one
+ * right away, until the window of outstanding batches is full. The outcome of a batch is then handled by a callback.
+ * This is also the case for {@link StoreMode#STREAMING} since the batches of a stream are confirmed only at its end.
+ * The size of the batches and how many are sent at the same time is decided by the {@link BatchController}.
+ * A batch that failed with a recoverable error goes into the retry lane and is sent again after a jittered exponential
+ * backoff, before any new batch. Only when all attempts failed it is spooled or lost.
+ */
+public class TsaasFlusher implements AutoCloseable, RunnerWrapper {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TsaasFlusher.class);
+    private static final long REPLAY_PAUSE_AFTER_FAILURE_IN_NANOS = SECONDS.toNanos(5);
+
+    private final TsaasConfig config;
+    private final SampleQueue queue;
+    private final BatchSender sender;
+    private final SampleSpool spool; // null if spooling is off
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private final ScheduledExecutorService replayer; // null if spooling is off
+    private final long maxBatchWaitTimeInNanos;
+    private final long batchMaxBytes;
+    private final Semaphore window; // outstanding async calls, null if batches are sent synchronously
+    private final BatchController controller;
+    // failed batches waiting for their next attempt, ordered by due time
+    private final PriorityBlockingQueue<PendingBatch> retryLane = new PriorityBlockingQueue<>(11,
+            Comparator.comparingLong(PendingBatch::getDueAtNanos));
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchReady = lock.newCondition();
+    private final Condition idle = lock.newCondition();
+    private int inFlight; // number of batches currently sent by the sender threads or outstanding, guarded by lock
+    private volatile boolean running;
+    private volatile long replayPausedUntilNanos;
+
+    private final AtomicLong spooledBatches = new AtomicLong();
+    private final AtomicLong replayedBatches = new AtomicLong();
+    private final AtomicLong lostBatches = new AtomicLong();
+    private final AtomicLong retriedBatches = new AtomicLong();
+    private final AtomicLong droppedAfterRetries = new AtomicLong();
+
+    public TsaasFlusher(final TsaasConfig config,
+                        final SampleQueue queue,
+                        final BatchSender sender) {
+        this(config, queue, sender, null);
+    }
+
+    public TsaasFlusher(final TsaasConfig config,
+                        final SampleQueue queue,
+                        final BatchSender sender,
+                        final SampleSpool spool) {
+        this.config = Objects.requireNonNull(config);
+        this.queue = Objects.requireNonNull(queue);
+        this.sender = Objects.requireNonNull(sender);
+        if (config.getSenderThreads() < 1) {
+            throw new IllegalArgumentException(String.format("senderThreads must be at least 1 but was %s", config.getSenderThreads()));
+        }
+        if (spool != null && config.getSpoolMode() == SpoolMode.OFF) {
+            throw new IllegalArgumentException("A spool was given but spoolMode is OFF");
+        }
+        if (spool == null && config.getSpoolMode() != SpoolMode.OFF) {
+            throw new IllegalArgumentException(String.format("spoolMode is %s but no spool was given", config.getSpoolMode()));
+        }
+        if (config.getMaxOutstandingBatches() < 1) {
+            throw new IllegalArgumentException(String.format("maxOutstandingBatches must be at least 1 but was %s", config.getMaxOutstandingBatches()));
+        }
+        if (config.getStoreMode() == StoreMode.STREAMING && config.getMaxBatchesPerStream() < 1) {
+            throw new IllegalArgumentException(String.format("maxBatchesPerStream must be at least 1 but was %s", config.getMaxBatchesPerStream()));
+        }
+        if (config.getRetryMaxAttempts() < 0) {
+            throw new IllegalArgumentException(String.format("retryMaxAttempts must not be negative but was %s", config.getRetryMaxAttempts()));
+        }
+        if (config.getRetryMaxAttempts() > 0 && (config.getRetryInitialBackoffInMilliSeconds() < 1
+                || config.getRetryMaxBackoffInMilliSeconds() < config.getRetryInitialBackoffInMilliSeconds())) {
+            throw new IllegalArgumentException(String.format("Expected 1 <= retryInitialBackoffInMilliSeconds <= retryMaxBackoffInMilliSeconds but was %s, %s",
+                    config.getRetryInitialBackoffInMilliSeconds(), config.getRetryMaxBackoffInMilliSeconds()));
+        }
+        if (config.getBatchMaxBytes() < 1) {
+            throw new IllegalArgumentException(String.format("batchMaxBytes must be at least 1 but was %s", config.getBatchMaxBytes()));
+        }
+        // the server doesn't accept bigger messages
+        this.batchMaxBytes = Math.min(config.getBatchMaxBytes(), GrpcConnection.MAX_MESSAGE_SIZE);
+        final int windowSize = getWindowSize(config);
+        this.window = windowSize > 1 || config.getStoreMode() == StoreMode.STREAMING
+                ? new Semaphore(windowSize)
+                : null;
+        // streams are not adapted, see BatchController
+        this.controller = new BatchController(config, window == null ? config.getSenderThreads() : windowSize);
+        this.spool = spool;
+        this.maxBatchWaitTimeInNanos = MILLISECONDS.toNanos(config.getMaxBatchWaitTimeInMilliSeconds());
+        this.running = true;
+        this.executor = Executors.newFixedThreadPool(config.getSenderThreads(), new ThreadFactoryBuilder()
+                .setNameFormat("tsaas-sender-%d")
+                .setDaemon(true)
+                .build());
+        for (int i = 0; i < config.getSenderThreads(); i++) {
+            executor.execute(this::runSender);
+        }
+        // check a few times per wait time, so that no sample waits much longer than maxBatchWaitTimeInMilliSeconds
+        long checkInterval = Math.min(1000, Math.max(10, config.getMaxBatchWaitTimeInMilliSeconds() / 4));
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("tsaas-flush-timer-%d")
+                .setDaemon(true)
+                .build());
+        this.timer.scheduleAtFixedRate(() -> wrap(this::signalIfBatchReady), checkInterval, checkInterval, MILLISECONDS);
+        this.queue.setFullListener(this::signalIfBatchReady);
+        if (spool != null) {
+            if (config.getSpoolReplayBatchesPerSecond() < 1) {
+                throw new IllegalArgumentException(String.format("spoolReplayBatchesPerSecond must be at least 1 but was %s",
+                        config.getSpoolReplayBatchesPerSecond()));
+            }
+            long replayInterval = Math.max(1, 1000 / config.getSpoolReplayBatchesPerSecond());
+            // not on the timer: a replay blocks until the cloud answers and must not hold back partial batches
+            this.replayer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("tsaas-spool-replay-%d")
+                    .setDaemon(true)
+                    .build());
+            this.replayer.scheduleAtFixedRate(() -> wrap(this::replayNext), replayInterval, replayInterval, MILLISECONDS);
+        } else {
+            this.replayer = null;
+        }
+    }
+
+    /**
+     * @return the number of batches that may be outstanding. In {@link StoreMode#STREAMING} the batches of a stream are
+     * confirmed at its end, so the window holds all batches of the open streams. Otherwise a sender would wait for the
+     * idle timeout of its own stream.
+     */
+    static int getWindowSize(final TsaasConfig config) {
+        if (config.getStoreMode() == StoreMode.STREAMING) {
+            return Math.max(config.getMaxOutstandingBatches(), config.getSenderThreads() * config.getMaxBatchesPerStream());
+        }
+        return config.getMaxOutstandingBatches();
+    }
+
+    /**
+     * Wakes up a sender thread if there is enough in the queue to send a batch or the oldest sample waited long enough.
+     */
+    public void signalIfBatchReady() {
+        if (!isBatchReady()) {
+            return;
+        }
+        lock.lock();
+        try {
+            batchReady.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends everything that is in the queue, the retry lane and the spool on the calling thread and waits for the
+     * batches the sender threads are currently working on. Batches that fail are not retried.
+     */
+    public void flush() throws StorageException {
+        Tsaas.Samples batch = pollBatch();
+        while (batch.getSamplesCount() > 0) {
+            send(new PendingBatch(batch), false);
+            batch = pollBatch();
+        }
+        sender.completePending();
+        lock.lock();
+        try {
+            while (inFlight > 0) {
+                idle.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+        // the batches of the sender threads might have ended up here:
+        PendingBatch retry = retryLane.poll();
+        while (retry != null) {
+            send(retry, false); // no need to wait for the backoff
+            retry = retryLane.poll();
+        }
+        if (spool != null) {
+            while (replay()) {
+                // continue until the spool is empty
+            }
+        }
+    }
+
+    /**
+     * Called by the replayer: sends the oldest batch of the spool, unless the last try failed only a short while ago.
+     */
+    private void replayNext() {
+        if (System.nanoTime() - replayPausedUntilNanos < 0) {
+            return;
+        }
+        try {
+            replay();
+        } catch (StorageException e) {
+            LOG.debug("Could not replay batch from spool, will try again later.", e);
+            replayPausedUntilNanos = System.nanoTime() + REPLAY_PAUSE_AFTER_FAILURE_IN_NANOS;
+        }
+    }
+
+    /**
+     * Sends the oldest batch of the spool.
+     *
+     * @return false if there was nothing to send.
+     */
+    private boolean replay() throws StorageException {
+        SampleSpool.Record record = spool.claimNext();
+        if (record == null) {
+            return false;
+        }
+        Tsaas.Samples batch;
+        try {
+            batch = spool.read(record);
+        } catch (IOException e) {
+            LOG.error("Dropping unreadable batch from spool.", e);
+            spool.acknowledge(record);
+            lostBatches.incrementAndGet();
+            return true;
+        }
+        try {
+            sender.send(batch);
+        } catch (StorageException | RuntimeException e) {
+            spool.release(record);
+            throw e;
+        }
+        spool.acknowledge(record);
+        replayedBatches.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Sends the batch. Depending on the {@link SpoolMode} the batch is written to the spool before sending or after
+     * sending failed. With retry a failed batch is put into the retry lane first. In all these cases the batch is not
+     * lost and no exception is thrown.
+     *
+     * @throws StorageException if the batch could neither be sent nor kept.
+     */
+    private void send(final PendingBatch pending, final boolean retry) throws StorageException {
+        writeThrough(pending);
+        final long start = System.nanoTime();
+        try {
+            sender.send(pending.getSamples());
+        } catch (StorageException e) {
+            onBatchDone(pending.getSamples(), start, e);
+            if ((retry && scheduleRetry(pending)) || keepFailedBatch(pending.getSamples(), pending.getRecord(), e)) {
+                return;
+            }
+            countDropAfterRetries(pending);
+            throw e;
+        }
+        onBatchDone(pending.getSamples(), start, null);
+        if (pending.getRecord() != null) {
+            spool.acknowledge(pending.getRecord());
+        }
+    }
+
+    /**
+     * Writes the batch to the spool before its first attempt in write through mode.
+     */
+    private void writeThrough(final PendingBatch pending) {
+        if (pending.getAttempts() == 0 && spool != null && config.getSpoolMode() == SpoolMode.WRITE_THROUGH) {
+            pending.setRecord(appendToSpool(pending.getSamples(), true));
+        }
+    }
+
+    /**
+     * Puts the batch into the retry lane if it has attempts left.
+     *
+     * @return false if the batch should not be retried.
+     */
+    private boolean scheduleRetry(final PendingBatch pending) {
+        if (!running || pending.getAttempts() >= config.getRetryMaxAttempts()) {
+            return false;
+        }
+        pending.setAttempts(pending.getAttempts() + 1);
+        long backoffInMs = backoffInMs(pending.getAttempts());
+        pending.setDueAtNanos(System.nanoTime() + MILLISECONDS.toNanos(backoffInMs));
+        retryLane.add(pending);
+        retriedBatches.incrementAndGet();
+        LOG.debug("Could not send batch of {} samples, will retry in {} ms (attempt {} of {}).", pending.getSamples().getSamplesCount(),
+                backoffInMs, pending.getAttempts(), config.getRetryMaxAttempts());
+        return true;
+    }
+
+    /**
+     * Exponential backoff with jitter: a random value between half and all of the backoff, so that the retries of
+     * batches that failed at the same time are spread out.
+     */
+    private long backoffInMs(final int attempt) {
+        long backoff = Math.min(config.getRetryMaxBackoffInMilliSeconds(),
+                config.getRetryInitialBackoffInMilliSeconds() << Math.min(attempt - 1, 30));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff - backoff / 2 + 1);
+    }
+
+    private void countDropAfterRetries(final PendingBatch pending) {
+        if (pending.getAttempts() > 0) {
+            droppedAfterRetries.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gives a batch that could not be sent to the spool, if we have one.
+     *
+     * @param record the record of the batch if it was already written to the spool (write through), otherwise null.
+     * @return false if the batch is lost.
+     */
+    private boolean keepFailedBatch(final Tsaas.Samples batch, final SampleSpool.Record record, final Exception e) {
+        if (record != null) {
+            spool.release(record); // will be replayed
+            return true;
+        }
+        if (spool != null && appendToSpool(batch, false) != null) {
+            LOG.debug("Could not send batch of {} samples, it was spooled.", batch.getSamplesCount(), e);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Starts sending the batch without waiting for the response. Blocks while the window of outstanding batches is
+     * full. The outcome is handled in the callback which also ends the batch.
+     */
+    private void sendBatchAsync(final PendingBatch pending) {
+        final Tsaas.Samples batch = pending.getSamples();
+        writeThrough(pending);
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batchFailed(pending, e);
+            batchDone();
+            return;
+        }
+        final long start = System.nanoTime();
+        CompletableFuture<Void> future;
+        try {
+            future = sender.sendAsync(batch);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((v, t) -> {
+            window.release();
+            try {
+                onBatchDone(batch, start, t);
+                if (t == null) {
+                    if (pending.getRecord() != null) {
+                        spool.acknowledge(pending.getRecord());
+                    }
+                } else {
+                    batchFailed(pending, t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                }
+            } finally {
+                batchDone();
+            }
+        });
+    }
+
+    private void onBatchDone(final Tsaas.Samples batch, final long startNanos, final Throwable t) {
+        controller.onBatchDone(batch.getSamplesCount(), batch.getSerializedSize(),
+                NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                t == null ? Status.Code.OK : Status.fromThrowable(t).getCode());
+    }
+
+    private void batchFailed(final PendingBatch pending, final Throwable t) {
+        final Tsaas.Samples batch = pending.getSamples();
+        if (t instanceof StorageException
+                && (scheduleRetry(pending) || keepFailedBatch(batch, pending.getRecord(), (StorageException) t))) {
+            return;
+        }
+        if (pending.getRecord() != null) {
+            spool.release(pending.getRecord());
+            return;
+        }
+        countDropAfterRetries(pending);
+        lostBatches.incrementAndGet();
+        LOG.warn("Could not send batch of {} samples.", batch.getSamplesCount(), t);
+    }
+
+    /**
+     * @return the record or null if the batch could not be written to the spool.
+     */
+    private SampleSpool.Record appendToSpool(final Tsaas.Samples batch, final boolean claimed) {
+        try {
+            SampleSpool.Record record = spool.append(batch, claimed);
+            if (!claimed) {
+                spooledBatches.incrementAndGet();
+            }
+            return record;
+        } catch (IOException e) {
+            LOG.warn("Could not write batch of {} samples to spool.", batch.getSamplesCount(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the age of the oldest sample in the queue or 0 if the queue is empty.
+     */
+    public long getOldestSampleAgeInMs() {
+        QueuedSample oldest = this.queue.peek();
+        return oldest == null ? 0 : NANOSECONDS.toMillis(System.nanoTime() - oldest.getEnqueuedAtNanos());
+    }
+
+    private boolean isBatchReady() {
+        PendingBatch retry = retryLane.peek();
+        if (retry != null && System.nanoTime() - retry.getDueAtNanos() >= 0) {
+            return true;
+        }
+        if (this.queue.size() >= this.controller.getBatchSize() || this.queue.getBytes() >= batchMaxBytes) {
+            return true;
+        }
+        if (this.queue.hasBlockedProducers()) {
+            return true; // the queue is full but holds less than a batch, waiting for more would block the producers
+        }
+        QueuedSample oldest = this.queue.peek();
+        return oldest != null && System.nanoTime() - oldest.getEnqueuedAtNanos() >= maxBatchWaitTimeInNanos;
+    }
+
+    private void runSender() {
+        while (running) {
+            try {
+                PendingBatch batch = awaitBatch();
+                if (batch != null) {
+                    sendBatch(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Blocks until a batch is ready or the flusher is closed. Returns null in the latter case. Due retries come first.
+     */
+    private PendingBatch awaitBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (running && (!isBatchReady() || inFlight >= controller.getConcurrency())) {
+                batchReady.await();
+            }
+            if (!running) {
+                return null;
+            }
+            inFlight++;
+            PendingBatch retry = retryLane.peek();
+            if (retry != null && System.nanoTime() - retry.getDueAtNanos() >= 0) {
+                return retryLane.poll();
+            }
+            return new PendingBatch(pollBatch());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sendBatch(final PendingBatch pending) {
+        final Tsaas.Samples batch = pending.getSamples();
+        if (window != null && batch.getSamplesCount() > 0) {
+            sendBatchAsync(pending);
+            return;
+        }
+        try {
+            // Make call (only if we have anything to send):
+            if (batch.getSamplesCount() > 0) {
+                send(pending, true);
+            }
+        } catch (StorageException e) {
+            lostBatches.incrementAndGet();
+            LOG.warn("Could not send batch of {} samples.", batch.getSamplesCount(), e);
+        } catch (RuntimeException e) {
+            LOG.error("Unexpected error while sending batch of {} samples.", batch.getSamplesCount(), e);
+        } finally {
+            batchDone();
+        }
+    }
+
+    private void batchDone() {
+        lock.lock();
+        try {
+            inFlight--;
+            if (inFlight == 0) {
+                idle.signalAll();
+            }
+            // there might be more to do than we have threads awake:
+            if (isBatchReady()) {
+                batchReady.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Tsaas.Samples pollBatch() {
+        Tsaas.Samples.Builder builder = Tsaas.Samples.newBuilder();
+        for (QueuedSample next : this.queue.poll(this.controller.getBatchSize(), batchMaxBytes)) {
+            builder.addSamples(next.getSample());
+        }
+        return builder.build();
+    }
+
+    public BatchController getController() {
+        return controller;
+    }
+
+    public long getSpooledBatches() {
+        return spooledBatches.get();
+    }
+
+    public long getReplayedBatches() {
+        return replayedBatches.get();
+    }
+
+    public long getLostBatches() {
+        return lostBatches.get();
+    }
+
+    public long getRetriedBatches() {
+        return retriedBatches.get();
+    }
+
+    public long getDroppedAfterRetries() {
+        return droppedAfterRetries.get();
+    }
+
+    public int getPendingRetries() {
+        return retryLane.size();
+    }
+
+    /**
+     * Stops the sender threads and sends what is left in the queue. If sending fails, what is left is spooled if a
+     * spool is configured.
+     */
+    @Override
+    public void close() {
+        timer.shutdown();
+        if (replayer != null) {
+            replayer.shutdown();
+        }
+        running = false;
+        lock.lock();
+        try {
+            batchReady.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(15, SECONDS)) {
+                LOG.warn("Sender threads did not terminate in time.");
+            }
+            if (!timer.awaitTermination(15, SECONDS)) {
+                LOG.warn("Timer did not terminate in time.");
+            }
+            if (replayer != null && !replayer.awaitTermination(15, SECONDS)) {
+                LOG.warn("Spool replay did not terminate in time.");
+            }
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (StorageException e) {
+            LOG.warn("Could not send all remaining samples on shutdown, {} samples are left in the queue.", queue.size(), e);
+        }
+    }
+
+    /**
+     * A batch on its way to the cloud together with its failed attempts.
+     */
+    @Getter
+    @Setter
+    private static final class PendingBatch {
+        private final Tsaas.Samples samples;
+        private SampleSpool.Record record; // set if the batch was written to the spool before sending (write through)
+        private int attempts; // failed attempts so far
+        private long dueAtNanos; // when the next attempt is due
+
+        PendingBatch(final Tsaas.Samples samples) {
+            this.samples = samples;
+        }
+    }
+
+    @FunctionalInterface
+    public interface BatchSender {
+        void send(Tsaas.Samples batch) throws StorageException;
+
+        /**
+         * Sends the batch without blocking. The future fails with a {@link StorageException} for recoverable errors.
+         * The default implementation sends synchronously.
+         */
+        default CompletableFuture<Void> sendAsync(Tsaas.Samples batch) {
+            try {
+                send(batch);
+                return CompletableFuture.completedFuture(null);
+            } catch (StorageException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        /**
+         * Makes sure that the futures of batches sent by {@link #sendAsync(Tsaas.Samples)} complete soon, e.g. by
+         * completing open streams.
+         */
+        default void completePending() {
+            // nothing pending by default
+        }
+    }
+}
@@ -31,12 +31,19 @@ package org.opennms.plugins.cloud.srv.tsaas;
 import static org.opennms.plugins.cloud.srv.tsaas.grpc.GrpcObjectMapper.toMetric;
 import static org.opennms.plugins.cloud.srv.tsaas.grpc.GrpcObjectMapper.toTimestamp;
 
-import java.time.Instant;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.opennms.integration.api.v1.timeseries.Aggregation;
@@ -47,19 +54,37 @@ import org.opennms.integration.api.v1.timeseries.TagMatcher;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesFetchRequest;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
 import org.opennms.plugins.cloud.grpc.CloseUtil;
+import org.opennms.plugins.cloud.grpc.GrpcChannelPool;
 import org.opennms.plugins.cloud.grpc.GrpcConnection;
 import org.opennms.plugins.cloud.grpc.GrpcConnectionConfig;
 import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler;
+import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler.AsyncGrpcCall;
 import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler.GrpcCall;
+import org.opennms.plugins.cloud.grpc.comp.CompressionConfig;
+import org.opennms.plugins.cloud.grpc.comp.PayloadSampler;
 import org.opennms.plugins.cloud.srv.GrpcService;
 import org.opennms.plugins.cloud.srv.tsaas.grpc.GrpcObjectMapper;
+import org.opennms.plugins.cloud.srv.tsaas.grpc.MetricCache;
+import org.opennms.plugins.cloud.srv.tsaas.grpc.SampleStreamer;
+import org.opennms.plugins.cloud.srv.tsaas.grpc.SeriesBatchMapper;
+import org.opennms.plugins.cloud.srv.tsaas.spool.SampleSpool;
+import org.opennms.plugins.cloud.srv.tsaas.spool.SpoolMode;
 import org.opennms.tsaas.TimeseriesGrpc;
 import org.opennms.tsaas.Tsaas;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.Empty;
 
+import io.grpc.ClientCall;
+import io.grpc.Deadline;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCalls;
 import lombok.Getter;
 
 /**
@@ -70,63 +95,380 @@ import lombok.Getter;
 public class TsaasStorage implements TimeSeriesStorage, GrpcService {
     private static final Logger LOG = LoggerFactory.getLogger(TsaasStorage.class);
     private final TsaasConfig config;
-    private final ConcurrentLinkedDeque<Tsaas.Sample> queue; // holds samples to be batched
-    private Instant lastBatchSentTs;
+    private final SampleQueue queue; // holds samples to be batched
+    private final MetricCache metricCache;
+    private final SampleSpool spool; // null if spooling is off
+    private final SampleStreamer streamer; // null if the store mode is unary
+    private final TsaasFlusher flusher;
+    private final byte[] compressionDictionary; // null if none is configured
+    private volatile PayloadSampler<Tsaas.Samples> batchSampler; // null unless batches are captured
 
     private GrpcExecutionHandler grpcHandler;
+    @Getter
+    @VisibleForTesting
+    private final GrpcChannelPool channelPool;
+    private final boolean ownsChannelPool; // true if we created the pool, it is closed by destroy()
+    // false if the server told us it doesn't know the series format, reset with every new connection
+    private volatile boolean seriesFormatSupported = true;
+    // false if the server told us it doesn't know the streaming call, reset with every new connection
+    private volatile boolean streamingSupported = true;
+    private final AtomicLong oversizedSamples = new AtomicLong();
 
     @Getter
     @VisibleForTesting
-    private GrpcConnection<TimeseriesGrpc.TimeseriesBlockingStub> grpc;
+    private volatile GrpcConnection<TimeseriesGrpc.TimeseriesBlockingStub> grpc; // swapped by initGrpc() while batches are sent, read it once per call
 
     public TsaasStorage(TsaasConfig config, GrpcExecutionHandler grpcHandler) {
+        this(config, grpcHandler, new GrpcChannelPool(1), true);
+    }
+
+    public TsaasStorage(TsaasConfig config, GrpcExecutionHandler grpcHandler, GrpcChannelPool channelPool) {
+        this(config, grpcHandler, channelPool, false);
+    }
+
+    private TsaasStorage(TsaasConfig config, GrpcExecutionHandler grpcHandler, GrpcChannelPool channelPool, boolean ownsChannelPool) {
         this.config = Objects.requireNonNull(config);
-        queue = new ConcurrentLinkedDeque<>();
-        lastBatchSentTs = Instant.now();
+        this.channelPool = Objects.requireNonNull(channelPool);
+        this.ownsChannelPool = ownsChannelPool;
+        queue = new SampleQueue(config.getQueueMaxSamples(), config.getQueueMaxBytes(), config.getOverflowPolicy());
         this.grpcHandler = Objects.requireNonNull(grpcHandler);
+        this.metricCache = new MetricCache(config.getMetricCacheMaxSize(),
+                Duration.ofSeconds(config.getMetricCacheExpireAfterAccessInSeconds()));
+        this.spool = createSpool(config);
+        this.compressionDictionary = loadCompressionDictionary(config);
+        this.streamer = config.getStoreMode() == StoreMode.STREAMING
+                ? new SampleStreamer(this::newStreamCall,
+                        config.getMaxBatchesPerStream(), // the flusher raises its window accordingly
+                        config.getMaxBatchWaitTimeInMilliSeconds(),
+                        grpcHandler.getDeadlineInMs(SampleStreamer.STORE_STREAM_METHOD))
+                : null;
+        this.flusher = new TsaasFlusher(config, queue, new CloudBatchSender(), spool);
+    }
+
+    private static SampleSpool createSpool(final TsaasConfig config) {
+        if (config.getSpoolMode() == SpoolMode.OFF) {
+            return null;
+        }
+        Path directory = config.getSpoolDirectory() == null || config.getSpoolDirectory().isBlank()
+                ? Paths.get(System.getProperty("karaf.data", "data"), "tsaas-spool") // karaf.data is $OPENNMS_HOME/data
+                : Paths.get(config.getSpoolDirectory());
+        try {
+            LOG.info("Spooling batches in {} mode to {}", config.getSpoolMode(), directory);
+            return new SampleSpool(directory, config.getSpoolSegmentSizeInBytes(), config.getSpoolMaxSizeInBytes());
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Could not open spool in %s", directory), e);
+        }
+    }
+
+    private static byte[] loadCompressionDictionary(final TsaasConfig config) {
+        if (config.getCompressionDictionary() == null || config.getCompressionDictionary().isBlank()) {
+            return null;
+        }
+        final Path file = Paths.get(config.getCompressionDictionary());
+        try {
+            LOG.info("Using zstd dictionary {}", file);
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Could not read zstd dictionary %s", file), e);
+        }
     }
 
     @Override
     public void initGrpc(GrpcConnectionConfig grpcConfig) {
-        GrpcConnection<TimeseriesGrpc.TimeseriesBlockingStub> oldGrpc = this.grpc;
+        final GrpcConnection<TimeseriesGrpc.TimeseriesBlockingStub> oldGrpc = this.grpc;
+        if (oldGrpc != null && oldGrpc.updateToken(grpcConfig)) {
+            LOG.debug("Only the token changed, keeping the connection to {}:{}", grpcConfig.getHost(), grpcConfig.getPort());
+            return;
+        }
         LOG.debug("Initializing Grpc Connection with host {} and port {}", grpcConfig.getHost(), grpcConfig.getPort());
-        this.grpc = new GrpcConnection<>(grpcConfig, TimeseriesGrpc::newBlockingStub);
+        final GrpcConnection<TimeseriesGrpc.TimeseriesBlockingStub> newGrpc = new GrpcConnection<>(grpcConfig, TimeseriesGrpc::newBlockingStub, channelPool,
+                CompressionConfig.builder()
+                        .compression(config.getCompression())
+                        .level(config.getCompressionLevel())
+                        .minMessageSizeInBytes(config.getCompressionMinBytes())
+                        .dictionary(compressionDictionary)
+                        .build());
+        // make before break: the new connection is ready before we use it and the old one may finish its calls
+        newGrpc.warmUp(channelPool.getWarmUpTimeoutInMs());
+        this.grpc = newGrpc;
+        this.seriesFormatSupported = true;
+        this.streamingSupported = true;
+        if (this.streamer != null) {
+            this.streamer.completeAll(); // new streams should use the new connection
+        }
         CloseUtil.close(oldGrpc);
     }
 
+    /**
+     * Converts the samples and puts them into the queue. The sending is done asynchronously by the {@link TsaasFlusher}.
+     * If the queue is full the configured {@link OverflowPolicy} applies. Samples that don't fit into a message on their
+     * own are dropped.
+     */
     @Override
     public void store(List<Sample> samples) throws StorageException {
 
         // convert given samples to grpc
-        samples.stream()
-                .map(GrpcObjectMapper::toSample)
-                .forEach(this.queue::add);
-
-        // send batched messages while the queue is fuller than batch size
-        while (this.queue.size() >= this.config.getBatchSize()
-                || !this.queue.isEmpty() && this.lastBatchSentTs.plusMillis(config.getMaxBatchWaitTimeInMilliSeconds()).isBefore(Instant.now())) {
-            Tsaas.Samples.Builder builder = Tsaas.Samples.newBuilder();
-            for (int i = 0; i < this.config.getBatchSize(); i++) {
-                Tsaas.Sample next = this.queue.poll();
-                if (next != null) {
-                    builder.addSamples(next);
-                } else {
-                    break; // queue is empty => nothing more to do. This can happen since we are in a multi threaded environment.
-                }
+        final long now = System.nanoTime();
+        List<QueuedSample> queuedSamples = samples.stream()
+                .map(s -> GrpcObjectMapper.toSample(s, metricCache.toMetric(s.getMetric())))
+                .map(s -> new QueuedSample(s, now))
+                .filter(this::fitsIntoMessage)
+                .collect(Collectors.toList());
+        try {
+            this.queue.addAll(queuedSamples);
+        } finally {
+            this.flusher.signalIfBatchReady();
+        }
+    }
+
+    private boolean fitsIntoMessage(final QueuedSample sample) {
+        if (sample.getBatchBytes() <= GrpcConnection.MAX_MESSAGE_SIZE) {
+            return true;
+        }
+        oversizedSamples.incrementAndGet();
+        LOG.warn("Dropping sample of {} bytes, it exceeds the maximum message size.", sample.getSerializedSize());
+        return false;
+    }
+
+    /**
+     * Sends all queued samples and waits until the sending is done.
+     */
+    public void flush() throws StorageException {
+        this.flusher.flush();
+    }
+
+    /**
+     * Metrics about the state of the storage, e.g. for the karaf shell.
+     */
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new TreeMap<>();
+        metrics.put("queue.size", this.queue.size());
+        metrics.put("queue.bytes", this.queue.getBytes());
+        metrics.put("queue.overflow.blocked", this.queue.getBlocked());
+        metrics.put("queue.overflow.droppedOldest", this.queue.getDroppedOldest());
+        metrics.put("queue.overflow.droppedNewest", this.queue.getDroppedNewest());
+        metrics.put("queue.overflow.rejected", this.queue.getRejected());
+        metrics.put("queue.oldestSampleAgeInMs", this.flusher.getOldestSampleAgeInMs());
+        metrics.put("batches.lost", this.flusher.getLostBatches());
+        metrics.put("batches.retried", this.flusher.getRetriedBatches());
+        metrics.put("batches.droppedAfterRetries", this.flusher.getDroppedAfterRetries());
+        metrics.put("batches.pendingRetries", this.flusher.getPendingRetries());
+        final GrpcConnection<TimeseriesGrpc.TimeseriesBlockingStub> connection = this.grpc;
+        if (connection != null) {
+            metrics.put("connection.timeToReadyInMs", connection.getTimeToReadyInMs());
+        }
+        this.grpcHandler.getDeadlinesExceeded().forEach((method, count) -> metrics.put("deadlineExceeded." + method, count));
+        metrics.putAll(this.grpcHandler.getCloudLogService().getMetrics());
+        metrics.put("samples.oversized", this.oversizedSamples.get());
+        metrics.put("metricCache.size", this.metricCache.size());
+        metrics.put("metricCache.hits", this.metricCache.getHits());
+        metrics.put("metricCache.misses", this.metricCache.getMisses());
+        metrics.put("batchFormat.series", config.getBatchFormat() == BatchFormat.SERIES && seriesFormatSupported ? 1 : 0);
+        metrics.put("storeMode.streaming", isStreaming() ? 1 : 0);
+        BatchController controller = this.flusher.getController();
+        metrics.put("batch.size", controller.getBatchSize());
+        if (controller.isAdaptive()) {
+            metrics.put("batch.concurrency", controller.getConcurrency());
+            metrics.put("batch.lastLatencyInMs", controller.getLastLatencyInMs());
+            metrics.put("batch.bytesPerSecond", controller.getBytesPerSecond());
+            metrics.put("batch.increases", controller.getIncreases());
+            metrics.put("batch.decreases", controller.getDecreases());
+        }
+        if (this.streamer != null) {
+            metrics.put("stream.open", this.streamer.getOpenStreams());
+            metrics.put("stream.completed", this.streamer.getCompletedStreams());
+            metrics.put("stream.flowControlWaits", this.streamer.getFlowControlWaits());
+            metrics.put("stream.timedOut", this.streamer.getTimedOutStreams());
+        }
+        if (this.spool != null) {
+            metrics.put("spool.size", this.spool.getSize());
+            metrics.put("spool.unacknowledgedBatches", this.spool.getUnacknowledgedBatches());
+            metrics.put("spool.spooledBatches", this.flusher.getSpooledBatches());
+            metrics.put("spool.replayedBatches", this.flusher.getReplayedBatches());
+            metrics.put("spool.rejectedBatches", this.spool.getRejected());
+        }
+        return metrics;
+    }
+
+    private void sendBatch(final Tsaas.Samples batch) throws StorageException {
+        if (config.getBatchFormat() == BatchFormat.SERIES && seriesFormatSupported) {
+            grpcHandler.executeRpcCallVoid(GrpcCall.builder()
+                    .callToExecute(() -> storeSeries(batch))
+                    .methodDescriptor(SeriesBatchMapper.STORE_SERIES_METHOD)
+                    .build());
+        } else {
+            grpcHandler.executeRpcCallVoid(GrpcCall.builder()
+                    .callToExecute(() -> this.grpc.get().store(batch))
+                    .methodDescriptor(TimeseriesGrpc.getStoreMethod())
+                    .build());
+        }
+    }
+
+    /**
+     * Sends the batch grouped by series. If the server doesn't know this format we fall back to the per sample format
+     * for this and all further batches of the current connection.
+     */
+    private Object storeSeries(final Tsaas.Samples batch) {
+        TimeseriesGrpc.TimeseriesBlockingStub stub = this.grpc.get();
+        try {
+            return ClientCalls.blockingUnaryCall(stub.getChannel(), SeriesBatchMapper.STORE_SERIES_METHOD,
+                    stub.getCallOptions(), SeriesBatchMapper.toSeriesBatch(batch));
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() != Status.Code.UNIMPLEMENTED) {
+                throw e;
             }
-            // Make call (only if we have anything to send):
-            if (builder.getSamplesCount() > 0) {
-                grpcHandler.executeRpcCallVoid(GrpcCall.builder()
-                        .callToExecute(() -> this.grpc.get().store(builder.build()))
-                        .methodDescriptor(TimeseriesGrpc.getStoreMethod())
-                        .build());
-                lastBatchSentTs = Instant.now();
+            seriesFormatNotSupported();
+            return stub.store(batch);
+        }
+    }
+
+    private void seriesFormatNotSupported() {
+        LOG.info("Server doesn't support the series batch format, will fall back to the samples format.");
+        this.seriesFormatSupported = false;
+    }
+
+    private CompletableFuture<Void> sendBatchAsync(final Tsaas.Samples batch) {
+        if (isStreaming()) {
+            return grpcHandler.executeRpcCallVoidAsync(AsyncGrpcCall.<Empty, Void>builder()
+                    .callToExecute(() -> storeStreaming(batch))
+                    .methodDescriptor(SampleStreamer.STORE_STREAM_METHOD)
+                    .build());
+        }
+        if (config.getBatchFormat() == BatchFormat.SERIES && seriesFormatSupported) {
+            return grpcHandler.executeRpcCallVoidAsync(AsyncGrpcCall.<Empty, Void>builder()
+                    .callToExecute(() -> storeSeriesAsync(batch))
+                    .methodDescriptor(SeriesBatchMapper.STORE_SERIES_METHOD)
+                    .build());
+        }
+        return grpcHandler.executeRpcCallVoidAsync(AsyncGrpcCall.<Empty, Void>builder()
+                .callToExecute(() -> storeAsync(this.grpc.get(), batch))
+                .methodDescriptor(TimeseriesGrpc.getStoreMethod())
+                .build());
+    }
+
+    private static ListenableFuture<Empty> storeAsync(final TimeseriesGrpc.TimeseriesBlockingStub stub, final Tsaas.Samples batch) {
+        return GrpcConnection.futureCall(stub, TimeseriesGrpc.getStoreMethod(), batch);
+    }
+
+    /**
+     * Async version of {@link #storeSeries(Tsaas.Samples)}, with the same fallback.
+     */
+    private ListenableFuture<Empty> storeSeriesAsync(final Tsaas.Samples batch) {
+        TimeseriesGrpc.TimeseriesBlockingStub stub = this.grpc.get();
+        ListenableFuture<Empty> future = GrpcConnection.futureCall(stub, SeriesBatchMapper.STORE_SERIES_METHOD,
+                SeriesBatchMapper.toSeriesBatch(batch));
+        return Futures.catchingAsync(future, StatusRuntimeException.class, e -> {
+            if (e.getStatus().getCode() != Status.Code.UNIMPLEMENTED) {
+                return Futures.immediateFailedFuture(e);
             }
+            seriesFormatNotSupported();
+            return storeAsync(stub, batch);
+        }, MoreExecutors.directExecutor());
+    }
+
+    private boolean isStreaming() {
+        return this.streamer != null && this.streamingSupported;
+    }
+
+    private ClientCall<Tsaas.Samples, Empty> newStreamCall(final Deadline deadline) {
+        TimeseriesGrpc.TimeseriesBlockingStub stub = this.grpc.get().withDeadline(deadline);
+        return stub.getChannel().newCall(SampleStreamer.STORE_STREAM_METHOD, stub.getCallOptions());
+    }
+
+    /**
+     * Writes the batch to the stream of the current sender thread. If the server doesn't know the streaming call we
+     * fall back to unary calls for this and all further batches of the current connection.
+     */
+    private ListenableFuture<Empty> storeStreaming(final Tsaas.Samples batch) {
+        return Futures.catchingAsync(streamer.send(batch), StatusRuntimeException.class, e -> {
+            if (e.getStatus().getCode() != Status.Code.UNIMPLEMENTED) {
+                return Futures.immediateFailedFuture(e);
+            }
+            if (this.streamingSupported) {
+                LOG.info("Server doesn't support streaming, will fall back to unary calls.");
+                this.streamingSupported = false;
+            }
+            return storeAsync(this.grpc.get(), batch);
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Sends the batches of the {@link TsaasFlusher} to the cloud.
+     */
+    private class CloudBatchSender implements TsaasFlusher.BatchSender {
+        @Override
+        public void send(final Tsaas.Samples batch) throws StorageException {
+            capture(batch);
+            sendBatch(batch);
         }
+
+        @Override
+        public CompletableFuture<Void> sendAsync(final Tsaas.Samples batch) {
+            capture(batch);
+            return sendBatchAsync(batch);
+        }
+
+        private void capture(final Tsaas.Samples batch) {
+            final PayloadSampler<Tsaas.Samples> sampler = batchSampler;
+            if (sampler != null) {
+                sampler.offer(batch);
+            }
+        }
+
+        @Override
+        public void completePending() {
+            if (streamer != null) {
+                streamer.completeAll();
+            }
+        }
+    }
+
+    /**
+     * Starts to keep a random sample of the sent batches, e.g. to train a zstd dictionary. Replaces a running capture.
+     */
+    public void startBatchCapture(final int maxBatches) {
+        this.batchSampler = new PayloadSampler<>(maxBatches);
+    }
+
+    /** Stops the capture and returns the sampled batches. */
+    public List<Tsaas.Samples> stopBatchCapture() {
+        final PayloadSampler<Tsaas.Samples> sampler = this.batchSampler;
+        this.batchSampler = null;
+        return sampler == null ? Collections.emptyList() : sampler.getSamples();
     }
 
     @Override
     public List<Metric> findMetrics(Collection<TagMatcher> tagMatchers) throws StorageException {
+        Tsaas.TagMatchers tagsMessage = toTagMatchers(tagMatchers);
+        LOG.trace("Getting the metrics for the following tags: {}", tagsMessage);
+        return grpcHandler.executeRpcCall(
+                GrpcCall.<Tsaas.Metrics, List<Metric>>builder()
+                        .callToExecute(() -> this.grpc.get().findMetrics(tagsMessage))
+                        .mapper(GrpcObjectMapper::toMetrics)
+                        .defaultFunction(Collections::emptyList)
+                        .methodDescriptor(TimeseriesGrpc.getFindMetricsMethod())
+                        .build()
+        );
+    }
+
+    /**
+     * Same as {@link #findMetrics(Collection)} but doesn't block the calling thread. Network problems complete the
+     * future exceptionally with a {@link StorageException}.
+     */
+    public CompletableFuture<List<Metric>> findMetricsAsync(Collection<TagMatcher> tagMatchers) {
+        Tsaas.TagMatchers tagsMessage = toTagMatchers(tagMatchers);
+        LOG.trace("Getting the metrics async for the following tags: {}", tagsMessage);
+        return grpcHandler.executeRpcCallAsync(
+                AsyncGrpcCall.<Tsaas.Metrics, List<Metric>>builder()
+                        .callToExecute(() -> GrpcConnection.futureCall(this.grpc.get(), TimeseriesGrpc.getFindMetricsMethod(), tagsMessage))
+                        .mapper(GrpcObjectMapper::toMetrics)
+                        .defaultFunction(Collections::emptyList)
+                        .methodDescriptor(TimeseriesGrpc.getFindMetricsMethod())
+                        .build()
+        );
+    }
+
+    private static Tsaas.TagMatchers toTagMatchers(final Collection<TagMatcher> tagMatchers) {
         Objects.requireNonNull(tagMatchers);
         if (tagMatchers.isEmpty()) {
             throw new IllegalArgumentException("at least one TagMatcher is required.");
@@ -135,30 +477,14 @@ public class TsaasStorage implements TimeSeriesStorage, GrpcService {
         List<Tsaas.TagMatcher> mappedTags = tagMatchers.stream()
                 .map(GrpcObjectMapper::toTagMatcher)
                 .collect(Collectors.toList());
-        Tsaas.TagMatchers tagsMessage = Tsaas.TagMatchers.newBuilder()
+        return Tsaas.TagMatchers.newBuilder()
                 .addAllMatchers(mappedTags)
                 .build();
-        LOG.trace("Getting the metrics for the following tags: {}", tagsMessage);
-        return grpcHandler.executeRpcCall(
-                GrpcCall.<Tsaas.Metrics, List<Metric>>builder()
-                        .callToExecute(() -> this.grpc.get().findMetrics(tagsMessage))
-                        .mapper(GrpcObjectMapper::toMetrics)
-                        .defaultFunction(Collections::emptyList)
-                        .methodDescriptor(TimeseriesGrpc.getFindMetricsMethod())
-                        .build()
-        );
     }
 
     @Override
     public List<Sample> getTimeseries(TimeSeriesFetchRequest request) throws StorageException {
-        Objects.requireNonNull(request.getMetric());
-        Tsaas.FetchRequest fetchRequest = Tsaas.FetchRequest.newBuilder()
-                .setMetric(toMetric(request.getMetric()))
-                .setStart(toTimestamp(request.getStart()))
-                .setEnd(toTimestamp(request.getEnd()))
-                .setStep(request.getStep().getSeconds())
-                .setAggregation(Tsaas.Aggregation.valueOf(request.getAggregation().name()))
-                .build();
+        Tsaas.FetchRequest fetchRequest = toFetchRequest(request);
         LOG.trace("Getting time series for request: {}", fetchRequest);
         return grpcHandler.executeRpcCall(
                 GrpcCall.<Tsaas.TimeseriesData, List<Sample>>builder()
@@ -170,6 +496,34 @@ public class TsaasStorage implements TimeSeriesStorage, GrpcService {
         );
     }
 
+    /**
+     * Same as {@link #getTimeseries(TimeSeriesFetchRequest)} but doesn't block the calling thread. Network problems
+     * complete the future exceptionally with a {@link StorageException}.
+     */
+    public CompletableFuture<List<Sample>> getTimeseriesAsync(TimeSeriesFetchRequest request) {
+        Tsaas.FetchRequest fetchRequest = toFetchRequest(request);
+        LOG.trace("Getting time series async for request: {}", fetchRequest);
+        return grpcHandler.executeRpcCallAsync(
+                AsyncGrpcCall.<Tsaas.TimeseriesData, List<Sample>>builder()
+                        .callToExecute(() -> GrpcConnection.futureCall(this.grpc.get(), TimeseriesGrpc.getGetTimeseriesDataMethod(), fetchRequest))
+                        .mapper(GrpcObjectMapper::toSamples)
+                        .defaultFunction(Collections::emptyList)
+                        .methodDescriptor(TimeseriesGrpc.getGetTimeseriesDataMethod())
+                        .build()
+        );
+    }
+
+    private static Tsaas.FetchRequest toFetchRequest(final TimeSeriesFetchRequest request) {
+        Objects.requireNonNull(request.getMetric());
+        return Tsaas.FetchRequest.newBuilder()
+                .setMetric(toMetric(request.getMetric()))
+                .setStart(toTimestamp(request.getStart()))
+                .setEnd(toTimestamp(request.getEnd()))
+                .setStep(request.getStep().getSeconds())
+                .setAggregation(Tsaas.Aggregation.valueOf(request.getAggregation().name()))
+                .build();
+    }
+
     @Override
     public void delete(Metric metric) {
         LOG.warn("Attempted to delete metric {} but deleting is unsupported", metric);
@@ -182,10 +536,17 @@ public class TsaasStorage implements TimeSeriesStorage, GrpcService {
     }
 
     public Tsaas.CheckHealthResponse checkHealth() {
-        return this.grpc.get().checkHealth(Tsaas.CheckHealthRequest.newBuilder().build());
+        return this.grpcHandler.executeWithDeadline(TimeseriesGrpc.getCheckHealthMethod(),
+                () -> this.grpc.get().checkHealth(Tsaas.CheckHealthRequest.newBuilder().build()));
     }
 
     public void destroy() {
+        CloseUtil.close(this.flusher);
+        CloseUtil.close(this.streamer);
+        CloseUtil.close(this.spool);
         CloseUtil.close(this.grpc);
+        if (ownsChannelPool) {
+            CloseUtil.close(this.channelPool);
+        }
     }
 }
@@ -153,8 +153,15 @@ public class GrpcObjectMapper {
     }
 
     public static Tsaas.Sample toSample(Sample sample) {
+        return toSample(sample, toMetric(sample.getMetric()));
+    }
+
+    /**
+     * Converts the sample using an already converted metric, e.g. from the {@link MetricCache}.
+     */
+    public static Tsaas.Sample toSample(Sample sample, Tsaas.Metric metric) {
         return Tsaas.Sample.newBuilder()
-                .setMetric(toMetric(sample.getMetric()))
+                .setMetric(metric)
                 .setTime(toTimestamp(sample.getTime()))
                 .setValue(sample.getValue())
                 .build();
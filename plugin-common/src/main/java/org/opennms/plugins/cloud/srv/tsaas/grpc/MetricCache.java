@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas.grpc;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.tsaas.Tsaas;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches the conversion of {@link Metric}s to {@link Tsaas.Metric}s. The same metrics are stored over and over again,
+ * so this saves us from rebuilding the tags for every sample.
+ * The cache is bounded by size and entries that were not used for a while are evicted.
+ */
+public class MetricCache {
+
+    private final Cache<MetricKey, Tsaas.Metric> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public MetricCache(final long maxSize, final Duration expireAfterAccess) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(expireAfterAccess.toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public Tsaas.Metric toMetric(final Metric metric) {
+        MetricKey key = new MetricKey(metric);
+        Tsaas.Metric grpcMetric = cache.getIfPresent(key);
+        if (grpcMetric != null) {
+            hits.incrementAndGet();
+            return grpcMetric;
+        }
+        misses.incrementAndGet();
+        grpcMetric = GrpcObjectMapper.toMetric(metric);
+        cache.put(key, grpcMetric);
+        return grpcMetric;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Metric.equals() only looks at the intrinsic tags, but the converted metric contains all tags => we need all of
+     * them in the key.
+     */
+    private static final class MetricKey {
+        private final Set<Tag> intrinsicTags;
+        private final Set<Tag> metaTags;
+        private final Set<Tag> externalTags;
+        private final int hashCode;
+
+        private MetricKey(final Metric metric) {
+            this.intrinsicTags = metric.getIntrinsicTags();
+            this.metaTags = metric.getMetaTags();
+            this.externalTags = metric.getExternalTags();
+            this.hashCode = Objects.hash(intrinsicTags, metaTags, externalTags);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MetricKey)) {
+                return false;
+            }
+            MetricKey other = (MetricKey) o;
+            return hashCode == other.hashCode
+                    && intrinsicTags.equals(other.intrinsicTags)
+                    && metaTags.equals(other.metaTags)
+                    && externalTags.equals(other.externalTags);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas.grpc;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.opennms.plugins.cloud.util.RunnerWrapper;
+import org.opennms.tsaas.TimeseriesGrpc;
+import org.opennms.tsaas.Tsaas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.Empty;
+
+import io.grpc.ClientCall;
+import io.grpc.Deadline;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ClientResponseObserver;
+
+/**
+ * Sends batches via long lived client streaming calls (Timeseries/StoreStream), one stream per sender thread. This
+ * saves the per call overhead (headers, interceptors, tracing) of a unary call per batch.
+ * The server acknowledges the batches of a stream only as a whole when the stream is completed. Therefore a stream is
+ * completed after maxBatchesPerStream batches or when no batch was written for maxIdleTimeInMs. The future returned
+ * for a batch completes with the response of its stream.
+ * Writing respects the flow control of the stream: the calling thread waits until the stream is ready to take more, at
+ * most timeoutInMs. Then the stream is cancelled and its batches fail with DEADLINE_EXCEEDED, so that they are retried.
+ * A stream also has a deadline: timeoutInMs plus the time it may stay open.
+ */
+public class SampleStreamer implements AutoCloseable, RunnerWrapper {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SampleStreamer.class);
+
+    /** Not part of the generated TimeseriesGrpc since it is defined by the plugin, see tsaas_series.proto. */
+    public static final MethodDescriptor<Tsaas.Samples, Empty> STORE_STREAM_METHOD =
+            MethodDescriptor.<Tsaas.Samples, Empty>newBuilder()
+                    .setType(MethodDescriptor.MethodType.CLIENT_STREAMING)
+                    .setFullMethodName(MethodDescriptor.generateFullMethodName(TimeseriesGrpc.SERVICE_NAME, "StoreStream"))
+                    .setRequestMarshaller(ProtoUtils.marshaller(Tsaas.Samples.getDefaultInstance()))
+                    .setResponseMarshaller(ProtoUtils.marshaller(Empty.getDefaultInstance()))
+                    .build();
+
+    private final Function<Deadline, ClientCall<Tsaas.Samples, Empty>> callFactory;
+    private final int maxBatchesPerStream;
+    private final long maxIdleTimeInNanos;
+    private final long timeoutInNanos; // 0: no timeout
+    private final long streamDeadlineInMs; // 0: no deadline
+    private final Map<Thread, SampleStream> streams = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+
+    private final AtomicLong completedStreams = new AtomicLong();
+    private final AtomicLong flowControlWaits = new AtomicLong();
+    private final AtomicLong timedOutStreams = new AtomicLong();
+
+    /**
+     * @param callFactory creates a new call of {@link #STORE_STREAM_METHOD} on the current channel with the given
+     *                    deadline (null for none).
+     * @param timeoutInMs how long a write may wait for the stream and the server may take to answer, 0 disables it.
+     */
+    public SampleStreamer(final Function<Deadline, ClientCall<Tsaas.Samples, Empty>> callFactory,
+                          final int maxBatchesPerStream,
+                          final long maxIdleTimeInMs,
+                          final long timeoutInMs) {
+        this.callFactory = Objects.requireNonNull(callFactory);
+        if (maxBatchesPerStream < 1) {
+            throw new IllegalArgumentException(String.format("maxBatchesPerStream must be at least 1 but was %s", maxBatchesPerStream));
+        }
+        this.maxBatchesPerStream = maxBatchesPerStream;
+        this.maxIdleTimeInNanos = MILLISECONDS.toNanos(maxIdleTimeInMs);
+        this.timeoutInNanos = MILLISECONDS.toNanos(Math.max(0, timeoutInMs));
+        // a stream is completed at the latest after maxBatchesPerStream writes, each may come just within the idle time
+        // and wait for the stream. Then the server has timeoutInMs to answer.
+        this.streamDeadlineInMs = timeoutInMs > 0 ? timeoutInMs + maxBatchesPerStream * (maxIdleTimeInMs + timeoutInMs) : 0;
+        long checkInterval = Math.min(1000, Math.max(10, maxIdleTimeInMs / 4));
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("tsaas-stream-timer-%d")
+                .setDaemon(true)
+                .build());
+        this.timer.scheduleAtFixedRate(() -> wrap(this::completeIdleStreams), checkInterval, checkInterval, MILLISECONDS);
+    }
+
+    /**
+     * Writes the batch to the stream of the calling thread, a new stream is opened if needed. Blocks while the stream
+     * is not ready. The returned future fails with a {@link io.grpc.StatusRuntimeException} if the stream fails.
+     */
+    public ListenableFuture<Empty> send(final Tsaas.Samples batch) {
+        final Thread thread = Thread.currentThread();
+        try {
+            while (true) {
+                SampleStream stream = streams.computeIfAbsent(thread, SampleStream::new);
+                ListenableFuture<Empty> future = stream.write(batch);
+                if (future != null) {
+                    return future;
+                }
+                // the stream ended in the meantime => try with a new one
+                streams.remove(thread, stream);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Futures.immediateFailedFuture(Status.UNAVAILABLE
+                    .withDescription("Interrupted while waiting for the stream to become ready")
+                    .withCause(e)
+                    .asRuntimeException());
+        }
+    }
+
+    /**
+     * Completes all open streams, e.g. to get the response for all written batches without waiting for the idle time.
+     */
+    public void completeAll() {
+        streams.values().forEach(SampleStream::complete);
+    }
+
+    private void completeIdleStreams() {
+        final long now = System.nanoTime();
+        for (SampleStream stream : streams.values()) {
+            if (now - stream.getLastWriteNanos() >= maxIdleTimeInNanos) {
+                stream.complete();
+            }
+        }
+    }
+
+    public int getOpenStreams() {
+        return streams.size();
+    }
+
+    public long getCompletedStreams() {
+        return completedStreams.get();
+    }
+
+    /** How often a sender had to wait since a stream was not ready. */
+    public long getFlowControlWaits() {
+        return flowControlWaits.get();
+    }
+
+    /** How often a stream was cancelled since it was not ready in time. */
+    public long getTimedOutStreams() {
+        return timedOutStreams.get();
+    }
+
+    @Override
+    public void close() {
+        timer.shutdown();
+        completeAll();
+    }
+
+    /**
+     * A single client streaming call. Written by its sender thread, completed by the sender thread or the timer.
+     */
+    private class SampleStream implements ClientResponseObserver<Tsaas.Samples, Empty> {
+        private final Thread owner;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition ready = lock.newCondition();
+        private final List<SettableFuture<Empty>> batches = new ArrayList<>(); // guarded by lock
+        private ClientCallStreamObserver<Tsaas.Samples> requestStream;
+        private boolean halfClosed; // guarded by lock
+        private boolean terminated; // guarded by lock
+        private volatile long lastWriteNanos = System.nanoTime();
+
+        SampleStream(final Thread owner) {
+            this.owner = owner;
+            final Deadline deadline = streamDeadlineInMs > 0 ? Deadline.after(streamDeadlineInMs, MILLISECONDS) : null;
+            ClientCalls.asyncClientStreamingCall(callFactory.apply(deadline), this);
+        }
+
+        @Override
+        public void beforeStart(final ClientCallStreamObserver<Tsaas.Samples> requestStream) {
+            this.requestStream = requestStream;
+            requestStream.setOnReadyHandler(this::signalReady);
+        }
+
+        /**
+         * @return the future of the batch or null if the stream can't take any more batches.
+         */
+        ListenableFuture<Empty> write(final Tsaas.Samples batch) throws InterruptedException {
+            List<SettableFuture<Empty>> timedOut = null;
+            lock.lock();
+            try {
+                if (!halfClosed && !terminated && !requestStream.isReady()) {
+                    flowControlWaits.incrementAndGet();
+                    long remainingNanos = timeoutInNanos;
+                    while (!halfClosed && !terminated && !requestStream.isReady()) {
+                        if (timeoutInNanos == 0) {
+                            ready.await();
+                        } else if (remainingNanos > 0) {
+                            remainingNanos = ready.awaitNanos(remainingNanos);
+                        } else {
+                            timedOut = cancel();
+                            break;
+                        }
+                    }
+                }
+                if (timedOut != null) {
+                    return Futures.immediateFailedFuture(notReady().asRuntimeException());
+                }
+                if (halfClosed || terminated) {
+                    return null;
+                }
+                SettableFuture<Empty> future = SettableFuture.create();
+                batches.add(future);
+                requestStream.onNext(batch);
+                lastWriteNanos = System.nanoTime();
+                if (batches.size() >= maxBatchesPerStream) {
+                    halfClose();
+                }
+                return future;
+            } finally {
+                lock.unlock();
+                if (timedOut != null) {
+                    timedOut.forEach(f -> f.setException(notReady().asRuntimeException()));
+                }
+            }
+        }
+
+        /**
+         * Gives up on a stream that doesn't take any more batches, e.g. since the server stopped reading.
+         *
+         * @return the futures of the written batches, to be failed outside the lock.
+         */
+        private List<SettableFuture<Empty>> cancel() {
+            LOG.warn("Stream was not ready for {} ms, cancelling it.", NANOSECONDS.toMillis(timeoutInNanos));
+            timedOutStreams.incrementAndGet();
+            List<SettableFuture<Empty>> written = terminate();
+            batches.clear(); // onError() of the cancelled call has nothing left to complete
+            requestStream.cancel("Stream was not ready in time", null);
+            return written;
+        }
+
+        private Status notReady() {
+            // DEADLINE_EXCEEDED: the batches are retried like other batches that took too long
+            return Status.DEADLINE_EXCEEDED.withDescription(String.format("Stream was not ready within %s ms",
+                    NANOSECONDS.toMillis(timeoutInNanos)));
+        }
+
+        long getLastWriteNanos() {
+            return lastWriteNanos;
+        }
+
+        /** Half closes the stream, the server will answer once it has processed all batches. */
+        void complete() {
+            lock.lock();
+            try {
+                if (!halfClosed && !terminated) {
+                    halfClose();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void halfClose() {
+            halfClosed = true;
+            streams.remove(owner, this);
+            requestStream.onCompleted();
+            ready.signalAll();
+        }
+
+        private void signalReady() {
+            lock.lock();
+            try {
+                ready.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void onNext(final Empty value) {
+            // the response is handled in onCompleted()
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+            LOG.debug("Stream failed", t);
+            terminate().forEach(f -> f.setException(t));
+        }
+
+        @Override
+        public void onCompleted() {
+            completedStreams.incrementAndGet();
+            terminate().forEach(f -> f.set(Empty.getDefaultInstance()));
+        }
+
+        /**
+         * @return the futures of all written batches, they must be completed outside the lock since their callbacks
+         * might block.
+         */
+        private List<SettableFuture<Empty>> terminate() {
+            lock.lock();
+            try {
+                terminated = true;
+                streams.remove(owner, this);
+                ready.signalAll();
+                return new ArrayList<>(batches);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas.grpc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opennms.tsaas.TimeseriesGrpc;
+import org.opennms.tsaas.Tsaas;
+
+import com.google.protobuf.Empty;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+
+/**
+ * Converts between the per sample format ({@link Tsaas.Samples}) and the series grouped format
+ * ({@link TsaasSeries.SeriesBatch}).
+ */
+public class SeriesBatchMapper {
+
+    /** Not part of the generated TimeseriesGrpc since it is defined by the plugin, see tsaas_series.proto. */
+    public static final MethodDescriptor<TsaasSeries.SeriesBatch, Empty> STORE_SERIES_METHOD =
+            MethodDescriptor.<TsaasSeries.SeriesBatch, Empty>newBuilder()
+                    .setType(MethodDescriptor.MethodType.UNARY)
+                    .setFullMethodName(MethodDescriptor.generateFullMethodName(TimeseriesGrpc.SERVICE_NAME, "StoreSeries"))
+                    .setRequestMarshaller(ProtoUtils.marshaller(TsaasSeries.SeriesBatch.getDefaultInstance()))
+                    .setResponseMarshaller(ProtoUtils.marshaller(Empty.getDefaultInstance()))
+                    .build();
+
+    private SeriesBatchMapper() {
+        // Utility class
+    }
+
+    /**
+     * Groups the samples by their metric. The order of the samples within a series is kept.
+     */
+    public static TsaasSeries.SeriesBatch toSeriesBatch(final Tsaas.Samples samples) {
+        // samples of the same metric usually share the same Tsaas.Metric instance (see MetricCache) => cheap equals()
+        Map<Tsaas.Metric, TsaasSeries.Series.Builder> series = new LinkedHashMap<>();
+        for (Tsaas.Sample sample : samples.getSamplesList()) {
+            TsaasSeries.Series.Builder builder = series.computeIfAbsent(sample.getMetric(),
+                    m -> TsaasSeries.Series.newBuilder().setMetric(m.toByteString()));
+            builder.addTimeSeconds(sample.getTime().getSeconds())
+                    .addTimeNanos(sample.getTime().getNanos())
+                    .addValues(sample.getValue());
+        }
+        TsaasSeries.SeriesBatch.Builder batch = TsaasSeries.SeriesBatch.newBuilder();
+        series.values().forEach(batch::addSeries);
+        return batch.build();
+    }
+
+    public static Tsaas.Samples toSamples(final TsaasSeries.SeriesBatch batch) throws InvalidProtocolBufferException {
+        Tsaas.Samples.Builder samples = Tsaas.Samples.newBuilder();
+        for (TsaasSeries.Series series : batch.getSeriesList()) {
+            Tsaas.Metric metric = Tsaas.Metric.parseFrom(series.getMetric());
+            if (series.getTimeSecondsCount() != series.getValuesCount() || series.getTimeNanosCount() != series.getValuesCount()) {
+                throw new InvalidProtocolBufferException(String.format("Series has %s times, %s nanos and %s values.",
+                        series.getTimeSecondsCount(), series.getTimeNanosCount(), series.getValuesCount()));
+            }
+            for (int i = 0; i < series.getValuesCount(); i++) {
+                samples.addSamples(Tsaas.Sample.newBuilder()
+                        .setMetric(metric)
+                        .setTime(Timestamp.newBuilder()
+                                .setSeconds(series.getTimeSeconds(i))
+                                .setNanos(series.getTimeNanos(i)))
+                        .setValue(series.getValues(i)));
+            }
+        }
+        return samples.build();
+    }
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.srv.tsaas.shell;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.opennms.plugins.cloud.grpc.comp.ZstdDictionaries;
+import org.opennms.plugins.cloud.grpc.comp.ZstdGrpcCodec;
+import org.opennms.plugins.cloud.srv.tsaas.TsaasStorage;
+import org.opennms.tsaas.Tsaas;
+
+import com.github.luben.zstd.Zstd;
+import com.google.protobuf.AbstractMessageLite;
+
+@Command(scope = "opennms-tsaas", name = "compression-dictionary",
+        description = "Captures sent batches, trains a zstd dictionary from them and shows the gain over plain zstd.")
+@Service
+@SuppressWarnings("java:S106") // System.out is used intentionally: we want to see it in the Karaf shell
+public class CompressionDictionary implements Action {
+
+    @Reference
+    TsaasStorage tss;
+
+    @Argument(name = "file", description = "The trained dictionary is written to this file.", required = true)
+    String file;
+
+    @Option(name = "seconds", description = "How long batches are captured.")
+    int seconds = 60;
+
+    @Option(name = "batches", description = "Maximum number of captured batches.")
+    int batches = 20;
+
+    @Option(name = "size", description = "Size of the dictionary in bytes.")
+    int size = ZstdDictionaries.DEFAULT_DICTIONARY_SIZE;
+
+    @Option(name = "level", description = "Zstd compression level used for the comparison.")
+    int level = ZstdGrpcCodec.DEFAULT_LEVEL;
+
+    @Override
+    public Object execute() throws Exception {
+        System.out.printf("Capturing batches for %s seconds.%n", seconds);
+        tss.startBatchCapture(batches);
+        final List<Tsaas.Samples> captured;
+        try {
+            Thread.sleep(seconds * 1000L);
+        } finally {
+            captured = tss.stopBatchCapture();
+        }
+        if (captured.size() < 2) {
+            System.out.printf("%s batches were sent, at least 2 are needed to train and test a dictionary.%n", captured.size());
+            return null;
+        }
+        // the gain is measured on the latest batches, the dictionary must not have seen them
+        final int evaluated = Math.max(1, captured.size() / 5);
+        final List<Tsaas.Samples> training = captured.subList(0, captured.size() - evaluated);
+        final List<Tsaas.Samples> evaluation = captured.subList(captured.size() - evaluated, captured.size());
+        // the dictionary is trained on single samples: they are what repeats within and across batches
+        final List<byte[]> samples = training.stream()
+                .flatMap(batch -> batch.getSamplesList().stream())
+                .map(AbstractMessageLite::toByteArray)
+                .collect(Collectors.toList());
+        final byte[] dictionary = ZstdDictionaries.train(samples, size);
+        Files.write(Paths.get(file), dictionary);
+        System.out.printf("Trained dictionary %s (%s bytes) from %s samples of %s batches, written to %s.%n",
+                ZstdGrpcCodec.dictionaryEncoding(Zstd.getDictIdFromDict(dictionary)),
+                dictionary.length, samples.size(), training.size(), file);
+
+        final ZstdDictionaries.Ratio ratio = ZstdDictionaries.compare(evaluation.stream()
+                .map(AbstractMessageLite::toByteArray)
+                .collect(Collectors.toList()), dictionary, level);
+        System.out.printf("Compared on %s batches that were not used for training:%n", evaluation.size());
+        System.out.printf("Uncompressed: %s bytes%n", ratio.getUncompressedBytes());
+        System.out.printf("Zstd:         %s bytes (ratio %.2f)%n", ratio.getZstdBytes(), ratio.getZstdRatio());
+        System.out.printf("Dictionary:   %s bytes (ratio %.2f)%n", ratio.getDictionaryBytes(), ratio.getDictionaryRatio());
+        System.out.printf("Gain:         %.1f%%%n", ratio.getGainInPercent());
+        System.out.println("The dictionary is used (tsaas.compressionDictionary) once the cloud knows it as well.");
+        return null;
+    }
+}
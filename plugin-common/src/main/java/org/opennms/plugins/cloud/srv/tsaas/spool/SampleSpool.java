@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas.spool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.opennms.tsaas.Tsaas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Persistent, append only log of batches that still need to be sent to the cloud.
+ * <p>
+ * The batches are stored in memory mapped {@link SpoolSegment}s. A segment is deleted as soon as all of its batches
+ * are acknowledged. The position of the first unacknowledged batch is kept in the segment, so after a restart sending
+ * continues where it stopped. Batches are handed out in the order they were appended.
+ */
+public class SampleSpool implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SampleSpool.class);
+
+    private enum State { PENDING, CLAIMED, DONE }
+
+    /** A batch in the spool. */
+    public static final class Record {
+        private final SpoolSegment segment;
+        private final int position;
+        private State state;
+
+        private Record(final SpoolSegment segment, final int position, final State state) {
+            this.segment = segment;
+            this.position = position;
+            this.state = state;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxSize;
+
+    private final ArrayDeque<SpoolSegment> segments = new ArrayDeque<>(); // guarded by this
+    private final ArrayDeque<Record> records = new ArrayDeque<>(); // not yet acknowledged, guarded by this
+    // may contain records that were acknowledged while pending, claimNext skips them. Guarded by this.
+    private final ArrayDeque<Record> pendingRecords = new ArrayDeque<>();
+    private long size; // sum of all segment capacities, guarded by this
+    private int pending; // guarded by this
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong acknowledged = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public SampleSpool(final Path directory, final int segmentSize, final long maxSize) throws IOException {
+        this.directory = Objects.requireNonNull(directory);
+        if (segmentSize <= SpoolSegment.HEADER_SIZE + SpoolSegment.RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException(String.format("segmentSize is too small: %s", segmentSize));
+        }
+        if (maxSize < segmentSize) {
+            throw new IllegalArgumentException(String.format("maxSize (%s) must not be smaller than segmentSize (%s)", maxSize, segmentSize));
+        }
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream
+                    .filter(p -> p.getFileName().toString().startsWith(SpoolSegment.FILE_PREFIX))
+                    .filter(p -> p.getFileName().toString().endsWith(SpoolSegment.FILE_SUFFIX))
+                    .sorted() // the id is zero padded => sorted by name is sorted by id
+                    .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            SpoolSegment segment;
+            try {
+                segment = SpoolSegment.open(file);
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Ignoring unreadable spool segment {}.", file, e);
+                continue;
+            }
+            segments.add(segment);
+            size += segment.getCapacity();
+            int position = segment.getReadPosition();
+            while (position < segment.getWritePosition()) {
+                Record record = new Record(segment, position, State.PENDING);
+                records.add(record);
+                pendingRecords.add(record);
+                pending++;
+                position += SpoolSegment.RECORD_HEADER_SIZE + segment.lengthAt(position);
+            }
+        }
+        if (!records.isEmpty()) {
+            LOG.info("Found {} unsent batches in spool {}.", records.size(), directory);
+        }
+    }
+
+    /**
+     * Appends the batch to the end of the spool.
+     *
+     * @param claimed if true the batch is handed to the caller right away and won't be returned by {@link #claimNext()}
+     *                until it is released.
+     * @throws IOException if the batch could not be written, e.g. because the spool is full.
+     */
+    public synchronized Record append(final Tsaas.Samples batch, final boolean claimed) throws IOException {
+        byte[] payload = batch.toByteArray();
+        SpoolSegment segment = segments.peekLast();
+        if (segment == null || !segment.hasRoomFor(payload.length)) {
+            segment = newSegment(payload.length);
+        }
+        Record record = new Record(segment, segment.append(payload), claimed ? State.CLAIMED : State.PENDING);
+        records.add(record);
+        if (!claimed) {
+            pendingRecords.add(record);
+            pending++;
+        }
+        appended.incrementAndGet();
+        return record;
+    }
+
+    private SpoolSegment newSegment(final int payloadLength) throws IOException {
+        // a batch that is bigger than the segment size gets a segment of its own
+        int capacity = Math.max(segmentSize, SpoolSegment.HEADER_SIZE + SpoolSegment.RECORD_HEADER_SIZE + payloadLength);
+        if (size + capacity > maxSize) {
+            rejected.incrementAndGet();
+            throw new IOException(String.format("Spool %s is full (%s bytes).", directory, size));
+        }
+        long id = segments.isEmpty() ? 0 : segments.getLast().getId() + 1;
+        SpoolSegment segment = SpoolSegment.create(directory, id, capacity);
+        segments.add(segment);
+        size += capacity;
+        return segment;
+    }
+
+    /**
+     * Hands out the oldest batch that is neither acknowledged nor claimed by somebody else. Released batches are handed
+     * out before all others.
+     *
+     * @return the record or null if there is nothing to send.
+     */
+    public synchronized Record claimNext() {
+        if (pending == 0) {
+            pendingRecords.clear(); // only acknowledged leftovers
+            return null;
+        }
+        Record record;
+        do {
+            record = pendingRecords.removeFirst();
+        } while (record.state != State.PENDING);
+        record.state = State.CLAIMED;
+        pending--;
+        return record;
+    }
+
+    public Tsaas.Samples read(final Record record) throws IOException {
+        try {
+            return Tsaas.Samples.parseFrom(record.segment.read(record.position));
+        } catch (InvalidProtocolBufferException e) {
+            throw new IOException(String.format("Could not read batch at position %s of segment %s.",
+                    record.position, record.segment.getId()), e);
+        }
+    }
+
+    /**
+     * Gives a claimed batch back, e.g. because it could not be sent. It will be handed out again by {@link #claimNext()}.
+     */
+    public synchronized void release(final Record record) {
+        if (record.state == State.CLAIMED) {
+            record.state = State.PENDING;
+            pendingRecords.addFirst(record); // it was the oldest when it was claimed, it is retried first
+            pending++;
+        }
+    }
+
+    /**
+     * Marks the batch as sent. Segments that contain only acknowledged batches are deleted.
+     */
+    public synchronized void acknowledge(final Record record) {
+        if (record.state == State.DONE) {
+            return;
+        }
+        if (record.state == State.PENDING) {
+            pending--;
+        }
+        record.state = State.DONE;
+        acknowledged.incrementAndGet();
+
+        // move the read positions forward over all acknowledged batches:
+        while (!records.isEmpty() && records.peekFirst().state == State.DONE) {
+            Record done = records.removeFirst();
+            done.segment.setReadPosition(done.position + SpoolSegment.RECORD_HEADER_SIZE + done.segment.lengthAt(done.position));
+        }
+        removeConsumedSegments();
+    }
+
+    private void removeConsumedSegments() {
+        Iterator<SpoolSegment> it = segments.iterator();
+        while (it.hasNext()) {
+            SpoolSegment segment = it.next();
+            // the last segment is the one we write to, we keep it
+            boolean isLast = !it.hasNext();
+            if (isLast || segment.getReadPosition() < segment.getWritePosition()) {
+                return;
+            }
+            it.remove();
+            size -= segment.getCapacity();
+            segment.close();
+            try {
+                segment.delete();
+            } catch (IOException e) {
+                LOG.warn("Could not delete spool segment {}.", segment.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of batches that are not acknowledged yet.
+     */
+    public synchronized int getUnacknowledgedBatches() {
+        return records.size();
+    }
+
+    /**
+     * @return the disk space used by the spool.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getAppended() {
+        return appended.get();
+    }
+
+    public long getAcknowledged() {
+        return acknowledged.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        segments.forEach(SpoolSegment::close);
+    }
+}
@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas.spool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A memory mapped file with a fixed capacity that holds records of the {@link SampleSpool}.
+ * <p>
+ * Layout: a header (magic, read position) followed by the records. Each record consists of its length, a crc32 of the
+ * payload and the payload. A length of 0 marks the end of the written records since new files are zero filled.
+ * <p>
+ * Every record is forced to disk before append returns, so it survives a crash of the JVM or the host. The read
+ * position is not forced: after a crash batches may be sent again, but none is lost.
+ */
+class SpoolSegment implements Closeable {
+
+    static final String FILE_PREFIX = "segment-";
+    static final String FILE_SUFFIX = ".spool";
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAGIC = 0x54535350; // "TSSP"
+    private static final int READ_POSITION_OFFSET = 4;
+    private static final Logger LOG = LoggerFactory.getLogger(SpoolSegment.class);
+    private static final Unmapper UNMAPPER = Unmapper.create();
+
+    private final long id;
+    private final Path path;
+    private final int capacity;
+    private final MappedByteBuffer buffer;
+    private int writePosition;
+    private int readPosition;
+    private boolean closed; // guarded by this: the buffer must not be touched once it is unmapped
+
+    private SpoolSegment(final long id, final Path path, final MappedByteBuffer buffer) {
+        this.id = id;
+        this.path = path;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+    }
+
+    static SpoolSegment create(final Path directory, final long id, final int capacity) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", FILE_PREFIX, id, FILE_SUFFIX));
+        SpoolSegment segment = new SpoolSegment(id, path, map(path, capacity, StandardOpenOption.CREATE_NEW));
+        segment.buffer.putInt(0, MAGIC);
+        segment.setReadPosition(HEADER_SIZE);
+        segment.writePosition = HEADER_SIZE;
+        return segment;
+    }
+
+    /**
+     * Opens an existing segment and finds the end of its records.
+     */
+    static SpoolSegment open(final Path path) throws IOException {
+        String name = path.getFileName().toString();
+        long id = Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+        SpoolSegment segment = new SpoolSegment(id, path, map(path, (int) Files.size(path)));
+        if (segment.capacity < HEADER_SIZE || segment.buffer.getInt(0) != MAGIC) {
+            throw new IOException(String.format("%s is not a spool segment.", path));
+        }
+        segment.readPosition = segment.buffer.getInt(READ_POSITION_OFFSET);
+        if (segment.readPosition < HEADER_SIZE || segment.readPosition > segment.capacity) {
+            throw new IOException(String.format("%s has an invalid read position %s.", path, segment.readPosition));
+        }
+        int position = segment.readPosition;
+        while (segment.isValidRecordAt(position)) {
+            position += RECORD_HEADER_SIZE + segment.buffer.getInt(position);
+        }
+        segment.writePosition = position;
+        return segment;
+    }
+
+    private static MappedByteBuffer map(final Path path, final int capacity, final StandardOpenOption... options) throws IOException {
+        List<StandardOpenOption> allOptions = new ArrayList<>(List.of(options));
+        allOptions.add(StandardOpenOption.READ);
+        allOptions.add(StandardOpenOption.WRITE);
+        try (FileChannel channel = FileChannel.open(path, allOptions.toArray(new StandardOpenOption[0]))) {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+
+    private boolean isValidRecordAt(final int position) {
+        if (position + RECORD_HEADER_SIZE > capacity) {
+            return false;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + RECORD_HEADER_SIZE + length > capacity) {
+            return false;
+        }
+        // a record that was only partially written before a crash is ignored together with everything after it
+        return buffer.getInt(position + 4) == crc(position + RECORD_HEADER_SIZE, length);
+    }
+
+    private int crc(final int position, final int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(position).limit(position + length));
+        return (int) crc.getValue();
+    }
+
+    boolean hasRoomFor(final int payloadLength) {
+        return writePosition + RECORD_HEADER_SIZE + payloadLength <= capacity;
+    }
+
+    /**
+     * @return the position of the record.
+     */
+    int append(final byte[] payload) {
+        int position = writePosition;
+        buffer.duplicate().position(position + RECORD_HEADER_SIZE).put(payload);
+        buffer.putInt(position + 4, crc(position + RECORD_HEADER_SIZE, payload.length));
+        buffer.putInt(position, payload.length); // written last: marks the record as complete
+        // Java 11 can only force the whole mapping, the OS writes back the dirty pages only
+        buffer.force();
+        writePosition = position + RECORD_HEADER_SIZE + payload.length;
+        return position;
+    }
+
+    /**
+     * Reads are not guarded by the lock of the {@link SampleSpool}, so they are synchronized with {@link #close()}.
+     */
+    synchronized byte[] read(final int position) throws IOException {
+        if (closed) {
+            throw new IOException(String.format("Segment %s is closed.", path));
+        }
+        int length = buffer.getInt(position);
+        byte[] payload = new byte[length];
+        buffer.duplicate().position(position + RECORD_HEADER_SIZE).get(payload);
+        return payload;
+    }
+
+    int lengthAt(final int position) {
+        return buffer.getInt(position);
+    }
+
+    int getReadPosition() {
+        return readPosition;
+    }
+
+    void setReadPosition(final int readPosition) {
+        this.readPosition = readPosition;
+        buffer.putInt(READ_POSITION_OFFSET, readPosition);
+    }
+
+    int getWritePosition() {
+        return writePosition;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Forces the records to disk and unmaps the buffer. Without unmapping a deleted segment keeps its disk space until
+     * the buffer is garbage collected.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        UNMAPPER.unmap(buffer);
+    }
+
+    /**
+     * Java 11 has no api to unmap a buffer: sun.misc.Unsafe.invokeCleaner of jdk.unsupported is used if it is
+     * accessible, otherwise the mapping is released when the buffer is garbage collected.
+     */
+    private static final class Unmapper {
+        private final Object unsafe; // null if not accessible
+        private final Method invokeCleaner;
+
+        private Unmapper(final Object unsafe, final Method invokeCleaner) {
+            this.unsafe = unsafe;
+            this.invokeCleaner = invokeCleaner;
+        }
+
+        static Unmapper create() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                return new Unmapper(theUnsafe.get(null), unsafeClass.getMethod("invokeCleaner", ByteBuffer.class));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.info("Can not unmap spool segments, they are released by the garbage collector: {}", e.getMessage());
+                return new Unmapper(null, null);
+            }
+        }
+
+        void unmap(final MappedByteBuffer buffer) {
+            if (unsafe == null) {
+                return;
+            }
+            try {
+                invokeCleaner.invoke(unsafe, buffer);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.warn("Could not unmap spool segment.", e);
+            }
+        }
+    }
+}
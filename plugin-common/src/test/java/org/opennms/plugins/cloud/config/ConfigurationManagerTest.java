@@ -85,6 +85,7 @@ public class ConfigurationManagerTest {
     private RuntimeInfo info;
     private GrpcConnectionConfig clientConfig;
     private CloudLogServiceConfig cloudLogServiceConfig;
+    private GrpcExecutionHandler grpcHandler;
 
     @Before
     public void setUp() throws IOException {
@@ -94,15 +95,16 @@ public class ConfigurationManagerTest {
         when(info.getSystemId()).thenReturn(UUID.randomUUID().toString());
         clientConfig = cloud.getClientConfig();
         this.cloudLogServiceConfig = new CloudLogServiceConfig(1000, 60);
+        this.grpcHandler = new GrpcExecutionHandler(new CloudLogService(cloudLogServiceConfig));
     }
 
     @Test
     public void shouldGetCloudConfig() {
-        GrpcExecutionHandler grpcHandler = new GrpcExecutionHandler(new CloudLogService(cloudLogServiceConfig));
-        TsaasStorage grpc = spy(new TsaasStorage(new TsaasConfig(1, 1), grpcHandler));
+        TsaasStorage grpc = spy(new TsaasStorage(TsaasConfig.builder().batchSize(1).maxBatchWaitTimeInMilliSeconds(1).build(), grpcHandler));
         ConfigurationManager cm = new ConfigurationManager(config, clientConfig, clientConfig, mock(RegistrationManager.class),
                 info,
-                Collections.singletonList(grpc));
+                Collections.singletonList(grpc),
+                grpcHandler);
         assertEquals(NOT_ATTEMPTED, cm.getStatus());
         cm.initConfiguration("something");
         assertEquals(AUTHENTCATED, cm.getStatus());
@@ -119,7 +121,8 @@ public class ConfigurationManagerTest {
     public void shouldSetStatusForFailedConfig() {
         ConfigurationManager cm = new ConfigurationManager(config, clientConfig, clientConfig, mock(RegistrationManager.class),
                 info,
-                Collections.singletonList(grpc));
+                Collections.singletonList(grpc),
+                grpcHandler);
         final String key = null; // will fail
         assertThrows(NullPointerException.class, () -> cm.initConfiguration(key));
         assertEquals(FAILED, cm.getStatus());
@@ -129,7 +132,8 @@ public class ConfigurationManagerTest {
     public void shouldSetStatusForFailedInit() throws InterruptedException {
         ConfigurationManager cm = new ConfigurationManager(config, clientConfig, clientConfig, mock(RegistrationManager.class),
                 info,
-                Collections.singletonList(grpc));
+                Collections.singletonList(grpc),
+                grpcHandler);
         cm.initConfiguration("something");
         config.putProperty(grpchost, "I don't exist");
         assertEquals(FAILED, cm.configure());
@@ -140,7 +144,8 @@ public class ConfigurationManagerTest {
         doThrow(new RuntimeException("failed")).when(grpc).initGrpc(any(GrpcConnectionConfig.class));
         ConfigurationManager cm = new ConfigurationManager(config, clientConfig, clientConfig, mock(RegistrationManager.class),
                 info,
-                Collections.singletonList(grpc));
+                Collections.singletonList(grpc),
+                grpcHandler);
         cm.initGrpcServices(GrpcConnectionConfig.builder().build()); // should swallow exception
     }
 
@@ -150,7 +155,8 @@ public class ConfigurationManagerTest {
         when(grpc.checkHealth()).thenReturn(Tsaas.CheckHealthResponse.newBuilder().setStatus(Tsaas.CheckHealthResponse.ServingStatus.SERVING).build());
         ConfigurationManager cm = new ConfigurationManager(config, clientConfig, clientConfig, mock(RegistrationManager.class),
                 info,
-                Collections.singletonList(grpc));
+                Collections.singletonList(grpc),
+                grpcHandler);
         assertEquals(NOT_ATTEMPTED, cm.getStatus());
         cm.initConfiguration("something");
         assertEquals(AUTHENTCATED, cm.getStatus());
@@ -170,7 +176,8 @@ public class ConfigurationManagerTest {
         when(grpc.checkHealth()).thenReturn(Tsaas.CheckHealthResponse.newBuilder().setStatus(Tsaas.CheckHealthResponse.ServingStatus.SERVING).build());
         ConfigurationManager cm = new ConfigurationManager(config, clientConfig, clientConfig, mock(RegistrationManager.class),
                 info,
-                Collections.singletonList(grpc));
+                Collections.singletonList(grpc),
+                grpcHandler);
         assertThrows(NullPointerException.class, cm::renewCerts); // this will fail because cm was never initialized and configured
         assertEquals(FAILED, cm.getStatus()); // make sure the status is correct
     }
@@ -182,11 +189,11 @@ public class ConfigurationManagerTest {
     @Test
     public void shouldCallConfigureIfAuthenticatedOrConfigured() {
         // test prep: initialize already
-        GrpcExecutionHandler grpcHandler = new GrpcExecutionHandler(new CloudLogService(cloudLogServiceConfig));
-        TsaasStorage grpc = spy(new TsaasStorage(new TsaasConfig(1, 1), grpcHandler));
+        TsaasStorage grpc = spy(new TsaasStorage(TsaasConfig.builder().batchSize(1).maxBatchWaitTimeInMilliSeconds(1).build(), grpcHandler));
         ConfigurationManager cm = new ConfigurationManager(config, clientConfig, clientConfig, mock(RegistrationManager.class),
                 info,
-                Collections.singletonList(grpc));
+                Collections.singletonList(grpc),
+                grpcHandler);
         cm.initConfiguration("something");
         assertEquals(AUTHENTCATED, cm.getStatus());
         config.putProperty(truststore, classpathFileToString("/cert/clienttruststore.pem"));
@@ -194,7 +201,8 @@ public class ConfigurationManagerTest {
         // test part 1: create new config manager => should automatically call configure() because status = AUTHENTCATED
         cm = new ConfigurationManager(config, clientConfig, clientConfig, mock(RegistrationManager.class),
                 info,
-                Collections.singletonList(grpc));
+                Collections.singletonList(grpc),
+                grpcHandler);
         assertEquals(CONFIGURED, cm.getStatus());
         verify(grpc, times(1)).initGrpc(any()); // this is done in configure()
         clearInvocations(grpc);
@@ -202,21 +210,22 @@ public class ConfigurationManagerTest {
         // test part 2 : create new config manager => should automatically call configure() because status = CONFIGURED
         cm = new ConfigurationManager(config, clientConfig, clientConfig, mock(RegistrationManager.class),
                 info,
-                Collections.singletonList(grpc));
+                Collections.singletonList(grpc),
+                grpcHandler);
         assertEquals(CONFIGURED, cm.getStatus());
         verify(grpc, times(1)).initGrpc(any()); // this is done in configure()
     }
 
     @Test
     public void shouldAbleToDeactivate() {
-        GrpcExecutionHandler grpcHandler = new GrpcExecutionHandler(new CloudLogService(cloudLogServiceConfig));
-        TsaasStorage grpc = spy(new TsaasStorage(new TsaasConfig(1, 1), grpcHandler));
+        TsaasStorage grpc = spy(new TsaasStorage(TsaasConfig.builder().batchSize(1).maxBatchWaitTimeInMilliSeconds(1).build(), grpcHandler));
         Faas faas = spy(new Faas());
         CloudLogService cloudLogService = spy(new CloudLogService(new CloudLogServiceConfig(1, 1)));
         List<GrpcService> serviceList = Arrays.asList(grpc, faas, cloudLogService);
         ConfigurationManager cm = new ConfigurationManager(config, clientConfig, clientConfig, mock(RegistrationManager.class),
                 info,
-                serviceList);
+                serviceList,
+                grpcHandler);
         cm.initConfiguration("something");
         cm.configure();
         // should be normal
@@ -29,6 +29,7 @@
 package org.opennms.plugins.cloud.config;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
 import static org.opennms.plugins.cloud.testserver.FileUtil.classpathFileToString;
 
 import java.io.IOException;
@@ -41,7 +42,9 @@ import org.junit.Test;
 import org.opennms.dataplatform.access.AuthenticateGrpc;
 import org.opennms.dataplatform.access.AuthenticateOuterClass;
 import org.opennms.plugins.cloud.config.ConfigStore.Key;
+import org.opennms.plugins.cloud.grpc.CloudLogService;
 import org.opennms.plugins.cloud.grpc.GrpcConnection;
+import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler;
 import org.opennms.plugins.cloud.srv.RegistrationManager;
 
 import io.grpc.ManagedChannel;
@@ -119,7 +122,7 @@ public class PasAccessTest {
 
         AuthenticateGrpc.AuthenticateBlockingStub stub = AuthenticateGrpc.newBlockingStub(channel);
         GrpcConnection<AuthenticateGrpc.AuthenticateBlockingStub> grpc = new GrpcConnection<>(stub, channel);
-        PasAccess pas = new PasAccess(grpc);
+        PasAccess pas = new PasAccess(grpc, new GrpcExecutionHandler(mock(CloudLogService.class)));
 
         Map<Key, String> config = pas.getCredentialsFromAccessService("key", "systemId");
         assertEquals(serverHost, config.get(ConfigStore.Key.grpchost));
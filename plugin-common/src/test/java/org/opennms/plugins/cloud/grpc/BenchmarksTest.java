@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.opennms.plugins.cloud.grpc.comp.ZstdGrpcCodecBenchmark;
+
+/**
+ * Runs every JMH benchmark once, briefly and in this JVM, to make sure the benchmarks keep working.
+ * The scores of this test are meaningless. To measure, run a benchmark in forked JVMs, from the project root:
+ * <pre>
+ * mvn -pl plugin-common test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/test-classpath.txt
+ * java -cp plugin-common/target/test-classes:plugin-common/target/classes:$(cat plugin-common/target/test-classpath.txt) \
+ *     org.openjdk.jmh.Main ZstdGrpcCodecBenchmark -prof gc
+ * </pre>
+ * -prof gc adds the allocated bytes per operation (gc.alloc.rate.norm).
+ */
+public class BenchmarksTest {
+
+    @Test
+    public void shouldRunZstdGrpcCodecBenchmark() throws RunnerException {
+        run(ZstdGrpcCodecBenchmark.class, 4 * 3); // 4 benchmarks with 3 sizes
+    }
+
+    @Test
+    public void shouldRunTraceParentHeaderGeneratorBenchmark() throws RunnerException {
+        run(TraceParentHeaderGeneratorBenchmark.class, 2);
+    }
+
+    @Test
+    public void shouldRunCloudLogServiceBenchmark() throws RunnerException {
+        run(CloudLogServiceBenchmark.class, 2); // 2 trace modes
+    }
+
+    private static void run(final Class<?> benchmark, final int expectedRuns) throws RunnerException {
+        final Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .include("^" + Pattern.quote(benchmark.getName() + "."))
+                .forks(0)
+                .warmupIterations(0)
+                .measurementIterations(1)
+                .measurementTime(TimeValue.milliseconds(100))
+                .build()).run();
+        assertEquals(expectedRuns, results.size());
+        for (RunResult result : results) {
+            assertTrue(result.getParams().getBenchmark(), result.getPrimaryResult().getScore() > 0);
+        }
+    }
+}
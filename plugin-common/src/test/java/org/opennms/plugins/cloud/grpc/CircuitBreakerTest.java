@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void shouldOpenAfterConsecutiveFailures() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 60_000);
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onFailure();
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onSuccess(); // resets the count
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire());
+        assertEquals(1, circuitBreaker.getRejected());
+    }
+
+    @Test
+    public void shouldProbeWithOneCall() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0);
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        assertTrue(circuitBreaker.tryAcquire()); // the probe
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire()); // only one probe at a time
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquire());
+        assertTrue(circuitBreaker.tryAcquire());
+    }
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opennms.tsaas.TimeseriesGrpc;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * Compares the cost of {@link CloudLogService#log} in {@link TraceMode#TRACES} and {@link TraceMode#SUMMARIES}.
+ * An iteration is a batch of {@link #CALLS} calls, which fit into the emptied queue: the measured path is the enqueue,
+ * not overwriting entries of a full queue. The score is the time of a batch. See BenchmarksTest for how to run it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, batchSize = CloudLogServiceBenchmark.CALLS)
+@Measurement(iterations = 20, batchSize = CloudLogServiceBenchmark.CALLS)
+public class CloudLogServiceBenchmark {
+
+    static final int CALLS = 100_000;
+    private static final String TRACE_PARENT = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+
+    @Param({"TRACES", "SUMMARIES"})
+    public TraceMode traceMode;
+
+    private final MethodDescriptor<?, ?> method = TimeseriesGrpc.getStoreMethod();
+    private CloudLogService service;
+    private long call;
+
+    @Setup
+    public void setUp() {
+        // the tests log at debug level, which would be measured instead of log()
+        Configurator.setLevel(CloudLogService.class.getName(), org.apache.logging.log4j.Level.INFO);
+        service = new CloudLogService(CloudLogServiceConfig.builder()
+                .queueCapacity(CALLS)
+                .traceMode(traceMode)
+                .build());
+    }
+
+    @Setup(Level.Iteration)
+    public void emptyQueue() {
+        service.deleteAll();
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkNothingDropped() {
+        if (service.getDroppedLogEntries() > 0) {
+            throw new IllegalStateException("The queue was full, the batch didn't measure the enqueue");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.destroy();
+        Configurator.setLevel(CloudLogService.class.getName(), org.apache.logging.log4j.Level.DEBUG);
+    }
+
+    @Benchmark
+    public void log() {
+        service.log(0, call++ & 1023, method, Status.Code.OK, TRACE_PARENT, "");
+    }
+}
@@ -29,6 +29,7 @@
 package org.opennms.plugins.cloud.grpc;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.List;
@@ -48,6 +49,17 @@ public class CloudLogServiceQueueTest implements CloudLogServiceTestUtil {
         cloudLogService.deleteAll();
     }
 
+    @Test
+    public void shouldCloseOnlyItsOwnChannelPool() {
+        cloudLogService.destroy();
+        assertTrue(cloudLogService.getChannelPool().isClosed());
+
+        try (GrpcChannelPool shared = new GrpcChannelPool(1)) {
+            new CloudLogService(new CloudLogServiceConfig(1000, 60), shared).destroy();
+            assertFalse(shared.isClosed());
+        }
+    }
+
     @Test
     public void entryIsCorrectlyInsertedInQueue() {
         // When
@@ -67,8 +79,7 @@ public class CloudLogServiceQueueTest implements CloudLogServiceTestUtil {
         assertEquals(100, cloudLogService.getLogEntryQueueSize());
 
         // When
-        List<LogEntry> logEntryList = cloudLogService.getQueueBatch(35);
-        cloudLogService.removeBatch(logEntryList);
+        List<LogEntry> logEntryList = cloudLogService.drainQueueBatch(35);
 
         // Then
         assertEquals(35, logEntryList.size());
@@ -79,4 +90,35 @@ public class CloudLogServiceQueueTest implements CloudLogServiceTestUtil {
         cloudLogService.deleteAll();
         assertTrue(cloudLogService.isQueueEmpty());
     }
+
+    @Test
+    public void oldestEntriesAreDroppedIfQueueIsFull() {
+        // When
+        cloudLogService = new CloudLogService(CloudLogServiceConfig.builder()
+                .batchSize(1000)
+                .queueCapacity(10)
+                .build());
+        fillOutLogEntryQueueCloudLog(25, cloudLogService);
+
+        // Then
+        assertEquals(10, cloudLogService.getLogEntryQueueSize());
+        assertEquals(15, cloudLogService.getDroppedLogEntries());
+        assertEquals(10, cloudLogService.drainQueueBatch(1000).size());
+        assertEquals(15L, cloudLogService.getMetrics().get("traces.dropped"));
+    }
+
+    @Test
+    public void entriesAreSampled() {
+        // When
+        cloudLogService = new CloudLogService(CloudLogServiceConfig.builder()
+                .batchSize(1000)
+                .sampleRate(0)
+                .build());
+        fillOutLogEntryQueueCloudLog(10, cloudLogService);
+
+        // Then
+        assertTrue(cloudLogService.isQueueEmpty());
+        assertEquals(10L, cloudLogService.getMetrics().get("traces.sampled.dropped"));
+        assertEquals(0L, cloudLogService.getMetrics().get("traces.sampled.kept"));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.plugins.cloud.testserver.LogServiceGrpc;
+import org.opennms.plugins.cloud.testserver.MockCloud;
+import org.opennms.tsaas.TimeseriesGrpc;
+
+import com.google.protobuf.Empty;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+public class CloudLogServiceSummaryTest {
+
+    private MockCloud cloud;
+
+    private CloudLogService cloudLogService;
+
+    @After
+    public void tearDown() {
+        LogServiceGrpc.getList().clear();
+        LogServiceGrpc.getSummaries().clear();
+        if (cloudLogService != null) {
+            cloudLogService.destroy();
+        }
+        if (cloud != null) {
+            cloud.stop();
+        }
+    }
+
+    @Test
+    public void summariesShouldBeSentInsteadOfTraces() throws Exception {
+        start(MockCloud.builder().build(), TraceMode.SUMMARIES);
+        log(100, Status.Code.OK);
+        log(1, Status.Code.UNAVAILABLE);
+
+        cloudLogService.handleLogQueue();
+
+        assertTrue(cloudLogService.isQueueEmpty());
+        assertTrue(LogServiceGrpc.getList().isEmpty());
+        List<LatencySummaries.LatencySummary> summaries = LogServiceGrpc.getSummaries();
+        assertEquals(2, summaries.size());
+        LatencySummaries.LatencySummary ok = summaries.stream()
+                .filter(s -> s.getStatusCode() == Status.Code.OK.value())
+                .findFirst()
+                .orElseThrow();
+        assertEquals(TimeseriesGrpc.getStoreMethod().getFullMethodName(), ok.getSpanName());
+        assertEquals(100, ok.getCount());
+        assertEquals(100, ok.getMaxMs());
+        assertEquals(5050, ok.getSumMs());
+        assertEquals(50, ok.getP50Ms());
+        assertEquals(99, ok.getP99Ms());
+        assertEquals(100, ok.getP999Ms());
+        assertEquals("00-trace-100", ok.getExemplarTraceParents(0));
+        assertEquals(2L, cloudLogService.getMetrics().get("summaries.sent"));
+
+        cloudLogService.handleLogQueue(); // no calls since the last summaries
+        assertEquals(2, LogServiceGrpc.getSummaries().size());
+    }
+
+    @Test
+    public void shouldFallBackToTracesForOlderServers() throws StorageException {
+        start(MockCloud.builder().logServiceGrpc(new LogServiceGrpc(false)).build(), TraceMode.BOTH);
+        log(10, Status.Code.OK);
+
+        cloudLogService.handleLogQueue();
+        assertEquals(TraceMode.TRACES, cloudLogService.getTraceMode());
+        assertEquals(10, LogServiceGrpc.getList().size());
+
+        log(10, Status.Code.OK);
+        cloudLogService.handleLogQueue();
+        assertEquals(20, LogServiceGrpc.getList().size());
+        assertTrue(LogServiceGrpc.getSummaries().isEmpty());
+    }
+
+    @Test
+    public void shouldSendTracesIfSummariesFail() throws StorageException {
+        LogServiceGrpc failingOnce = new LogServiceGrpc() {
+            private boolean failed;
+
+            @Override
+            public void sendLatencySummaries(LatencySummaries.LatencySummaryBatch request, StreamObserver<Empty> responseObserver) {
+                if (failed) {
+                    super.sendLatencySummaries(request, responseObserver);
+                } else {
+                    failed = true;
+                    responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                }
+            }
+        };
+        start(MockCloud.builder().logServiceGrpc(failingOnce).build(), TraceMode.BOTH);
+        log(10, Status.Code.OK);
+
+        cloudLogService.handleLogQueue();
+        assertEquals(10, LogServiceGrpc.getList().size());
+        assertTrue(LogServiceGrpc.getSummaries().isEmpty());
+
+        cloudLogService.handleLogQueue(); // the failed summaries are sent again
+        assertEquals(1, LogServiceGrpc.getSummaries().size());
+        assertEquals(10, LogServiceGrpc.getSummaries().get(0).getCount());
+        assertEquals(TraceMode.BOTH, cloudLogService.getTraceMode());
+    }
+
+    private void start(final MockCloud mockCloud, final TraceMode traceMode) {
+        cloud = mockCloud;
+        try {
+            cloud.start();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        cloudLogService = new CloudLogService(CloudLogServiceConfig.builder()
+                .batchSize(1000)
+                .traceMode(traceMode)
+                .build());
+        cloudLogService.initGrpc(cloud.getClientConfigWithToken());
+    }
+
+    /** Logs calls that took 1 to count ms. */
+    private void log(final int count, final Status.Code code) {
+        for (int i = 1; i <= count; i++) {
+            cloudLogService.log(0, i, TimeseriesGrpc.getStoreMethod(), code, "00-trace-" + i, "");
+        }
+    }
+}
@@ -28,8 +28,11 @@
 
 package org.opennms.plugins.cloud.grpc;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.powermock.api.mockito.PowerMockito.when;
@@ -39,6 +42,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
+import org.opennms.integration.api.v1.timeseries.StorageException;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -60,15 +64,20 @@ public class CloudLogServiceTest implements CloudLogServiceTestUtil {
     @Before
     public void setUp() {
         cloudLogServiceConfig = new CloudLogServiceConfig(1000, 60);
+        grpcExecutionHandlerMock = Mockito.mock(GrpcExecutionHandler.class);
+    }
+
+    /** The handler is created once by the constructor. */
+    private void createCloudLogServiceWithHandlerMock() throws Exception {
+        whenNew(GrpcExecutionHandler.class).withAnyArguments().thenReturn(grpcExecutionHandlerMock);
         cloudLogService = new CloudLogService(cloudLogServiceConfig);
         cloudLogServiceMock = PowerMockito.spy(cloudLogService);
-        grpcExecutionHandlerMock = Mockito.mock(GrpcExecutionHandler.class);
     }
 
     @Test
     public void cloudLogServiceMustSendAllLogEntriesInTheExpectedAmountOfCalls() throws Exception {
         // Given
-        whenNew(GrpcExecutionHandler.class).withAnyArguments().thenReturn(grpcExecutionHandlerMock);
+        createCloudLogServiceWithHandlerMock();
         fillOutLogEntryQueueCloudLog(2500, cloudLogServiceMock);
         when(cloudLogServiceMock.getGrpc()).thenReturn(PowerMockito.mock(GrpcConnection.class));
 
@@ -86,4 +95,21 @@ public class CloudLogServiceTest implements CloudLogServiceTestUtil {
         assertTrue(cloudLogServiceMock.isQueueEmpty());
         verifyNoMoreInteractions(grpcExecutionHandlerMock);
     }
+
+    @Test
+    public void batchMustBeSentAgainAfterNetworkProblem() throws Exception {
+        // Given
+        createCloudLogServiceWithHandlerMock();
+        fillOutLogEntryQueueCloudLog(10, cloudLogServiceMock);
+        when(cloudLogServiceMock.getGrpc()).thenReturn(PowerMockito.mock(GrpcConnection.class));
+        doThrow(new StorageException("Network problem")).doNothing().when(grpcExecutionHandlerMock).executeRpcCallVoid(any());
+
+        // When
+        assertThrows(StorageException.class, cloudLogServiceMock::handleLogQueue);
+        assertEquals(0, cloudLogServiceMock.getLogEntryQueueSize());
+        cloudLogServiceMock.handleLogQueue();
+
+        // Then: the drained batch was sent again
+        verify(grpcExecutionHandlerMock, Mockito.times(2)).executeRpcCallVoid(any());
+    }
 }
\ No newline at end of file
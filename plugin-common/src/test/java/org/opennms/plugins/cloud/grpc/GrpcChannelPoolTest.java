@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.InMemoryStorage;
+import org.opennms.plugins.cloud.testserver.MockCloud;
+import org.opennms.tsaas.TimeseriesGrpc;
+import org.opennms.tsaas.Tsaas;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+
+public class GrpcChannelPoolTest {
+
+    @Rule
+    public final MockCloud cloud = MockCloud.builder()
+            .serverStorage(spy(new InMemoryStorage()))
+            .build();
+
+    @Test
+    public void shouldShareChannelsBetweenConnections() {
+        GrpcChannelPool pool = new GrpcChannelPool(1);
+        GrpcConnectionConfig config = cloud.getClientConfigWithToken();
+        GrpcConnection<TimeseriesGrpc.TimeseriesBlockingStub> first = new GrpcConnection<>(config, TimeseriesGrpc::newBlockingStub, pool);
+        // a different token doesn't need a different channel:
+        GrpcConnection<TimeseriesGrpc.TimeseriesBlockingStub> second = new GrpcConnection<>(config.toBuilder().tokenValue("other").build(),
+                TimeseriesGrpc::newBlockingStub, pool);
+        assertTrue(first.awaitReady(5000));
+        assertSame(first.managedChannel, second.managedChannel);
+        assertEquals(1, pool.getOpenChannels());
+
+        first.close();
+        first.close(); // closing twice must not release the channel of the second connection
+        assertFalse(second.managedChannel.isShutdown());
+        assertEquals(Tsaas.CheckHealthResponse.ServingStatus.SERVING,
+                second.get().checkHealth(Tsaas.CheckHealthRequest.newBuilder().build()).getStatus());
+
+        second.close();
+        assertTrue(second.managedChannel.isShutdown());
+        await().atMost(5, TimeUnit.SECONDS).until(second.managedChannel::isTerminated);
+        assertEquals(0, pool.getOpenChannels());
+
+        // reopened on demand:
+        GrpcConnection<TimeseriesGrpc.TimeseriesBlockingStub> third = new GrpcConnection<>(config, TimeseriesGrpc::newBlockingStub, pool);
+        assertNotSame(first.managedChannel, third.managedChannel);
+        pool.close();
+        assertTrue(third.managedChannel.isShutdown());
+    }
+
+    @Test
+    public void shouldLetRunningCallsFinishOnClose() throws Exception {
+        doAnswer(invocation -> {
+            Thread.sleep(500); // slow cloud
+            return invocation.callRealMethod();
+        }).when(cloud.getServerStorage()).findMetrics(any());
+        GrpcChannelPool pool = new GrpcChannelPool(1);
+        GrpcConnection<TimeseriesGrpc.TimeseriesBlockingStub> grpc = new GrpcConnection<>(cloud.getClientConfigWithToken(),
+                TimeseriesGrpc::newBlockingStub, pool);
+        ListenableFuture<Tsaas.Metrics> running = GrpcConnection.futureCall(grpc.get(), TimeseriesGrpc.getFindMetricsMethod(),
+                Tsaas.TagMatchers.newBuilder()
+                        .addMatchers(Tsaas.TagMatcher.newBuilder().setKey("name").setValue("a"))
+                        .build());
+        verify(cloud.getServerStorage(), timeout(2000)).findMetrics(any());
+
+        grpc.close(); // doesn't block and doesn't cancel the running call
+        assertFalse(running.isDone());
+        assertNotNull(running.get(5, TimeUnit.SECONDS));
+        await().atMost(5, TimeUnit.SECONDS).until(grpc.managedChannel::isTerminated);
+        pool.close();
+    }
+
+    @Test
+    public void shouldSpreadCallsOverChannels() {
+        GrpcChannelPool pool = new GrpcChannelPool(3);
+        try (GrpcConnection<TimeseriesGrpc.TimeseriesBlockingStub> grpc = new GrpcConnection<>(cloud.getClientConfigWithToken(),
+                TimeseriesGrpc::newBlockingStub, pool)) {
+            assertEquals(3, pool.getOpenChannels());
+            for (int i = 0; i < 3; i++) {
+                grpc.get().checkHealth(Tsaas.CheckHealthRequest.newBuilder().build());
+            }
+            for (ManagedChannel channel : pool.acquire(cloud.getClientConfigWithToken()).getManagedChannels()) {
+                assertEquals(ConnectivityState.READY, channel.getState(false));
+            }
+        }
+        pool.close();
+    }
+}
@@ -28,7 +28,10 @@
 
 package org.opennms.plugins.cloud.grpc;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
@@ -37,16 +40,32 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.function.ThrowingRunnable;
+import org.mockito.ArgumentCaptor;
+import org.opennms.dataplatform.access.AuthenticateGrpc;
 import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler.AsyncGrpcCall;
 import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler.GrpcCall;
 import org.opennms.tsaas.TimeseriesGrpc;
 import org.opennms.tsaas.Tsaas;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.protobuf.Empty;
 
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptor;
+import io.grpc.Context;
+import io.grpc.Deadline;
 import io.grpc.MethodDescriptor;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
@@ -119,4 +138,164 @@ public class GrpcExecutionHandlerTest {
                 .log(anyLong(), anyLong(), eq(METHOD), eq(Status.UNAVAILABLE.getCode()), anyString(), anyString());
     }
 
+    @Test
+    public void shouldHandleAsyncCalls() throws Exception {
+        CompletableFuture<String> success = grpcHandler.executeRpcCallAsync(AsyncGrpcCall.<String, String>builder()
+                .callToExecute(() -> Futures.immediateFuture("a"))
+                .mapper(s -> s + "b")
+                .defaultFunction(() -> "")
+                .methodDescriptor(METHOD)
+                .build());
+        assertEquals("ab", success.get());
+        verify(cloudLogService, times(1))
+                .log(anyLong(), anyLong(), eq(METHOD), eq(Status.OK.getCode()), anyString(), anyString());
+
+        // non recoverable => default value
+        CompletableFuture<String> nonRecoverable = grpcHandler.executeRpcCallAsync(AsyncGrpcCall.<String, String>builder()
+                .callToExecute(() -> Futures.immediateFailedFuture(new StatusRuntimeException(Status.UNIMPLEMENTED)))
+                .mapper(s -> s)
+                .defaultFunction(() -> "default")
+                .methodDescriptor(METHOD)
+                .build());
+        assertEquals("default", nonRecoverable.get());
+
+        // recoverable => StorageException
+        CompletableFuture<Void> recoverable = grpcHandler.executeRpcCallVoidAsync(AsyncGrpcCall.<Empty, Void>builder()
+                .callToExecute(() -> Futures.immediateFailedFuture(new StatusRuntimeException(Status.UNAVAILABLE)))
+                .methodDescriptor(METHOD)
+                .build());
+        ExecutionException e = assertThrows(ExecutionException.class, recoverable::get);
+        assertTrue(e.getCause() instanceof StorageException);
+        verify(cloudLogService, times(1))
+                .log(anyLong(), anyLong(), eq(METHOD), eq(Status.UNAVAILABLE.getCode()), anyString(), anyString());
+    }
+
+    @Test
+    public void shouldFailFastWhileCircuitBreakerIsOpen() {
+        grpcHandler = new GrpcExecutionHandler(cloudLogService, GrpcExecutionHandlerConfig.builder()
+                .circuitBreakerFailureThreshold(2)
+                .circuitBreakerOpenDurationInMs(60_000)
+                .build());
+        AtomicInteger calls = new AtomicInteger();
+        ThrowingRunnable run = () -> grpcHandler.executeRpcCallVoid(GrpcCall.builder()
+                .callToExecute(() -> {
+                    calls.incrementAndGet();
+                    throw new StatusRuntimeException(Status.UNAVAILABLE);
+                })
+                .methodDescriptor(METHOD)
+                .build());
+        assertThrows(StorageException.class, run);
+        assertThrows(StorageException.class, run);
+        assertEquals(CircuitBreaker.State.OPEN, grpcHandler.getCircuitBreakerStates().get(METHOD.getFullMethodName()));
+
+        // rejected without calling the cloud:
+        assertThrows(StorageException.class, run);
+        assertEquals(2, calls.get());
+        CompletableFuture<Void> async = grpcHandler.executeRpcCallVoidAsync(AsyncGrpcCall.<Empty, Void>builder()
+                .callToExecute(() -> {
+                    calls.incrementAndGet();
+                    return Futures.immediateFuture(Empty.getDefaultInstance());
+                })
+                .methodDescriptor(METHOD)
+                .build());
+        assertTrue(async.isCompletedExceptionally());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void shouldKeepCircuitBreakerOpenIfProbeFailsWithoutAnswer() throws StorageException {
+        grpcHandler = new GrpcExecutionHandler(cloudLogService, GrpcExecutionHandlerConfig.builder()
+                .circuitBreakerFailureThreshold(1)
+                .circuitBreakerOpenDurationInMs(0) // the next call is the probe
+                .build());
+        assertThrows(StorageException.class, () -> grpcHandler.executeRpcCallVoid(GrpcCall.builder()
+                .callToExecute(() -> {
+                    throw new StatusRuntimeException(Status.UNAVAILABLE);
+                })
+                .methodDescriptor(METHOD)
+                .build()));
+        assertEquals(CircuitBreaker.State.OPEN, grpcHandler.getCircuitBreakerStates().get(METHOD.getFullMethodName()));
+
+        assertThrows(IllegalStateException.class, () -> grpcHandler.executeRpcCallVoid(GrpcCall.builder()
+                .callToExecute(() -> {
+                    throw new IllegalStateException("channel is shut down");
+                })
+                .methodDescriptor(METHOD)
+                .build()));
+        assertEquals(CircuitBreaker.State.OPEN, grpcHandler.getCircuitBreakerStates().get(METHOD.getFullMethodName()));
+        verify(cloudLogService, times(1))
+                .log(anyLong(), anyLong(), eq(METHOD), eq(Status.Code.UNKNOWN), anyString(), eq("channel is shut down"));
+
+        // an answer of the cloud closes it again:
+        grpcHandler.executeRpcCallVoid(GrpcCall.builder()
+                .callToExecute(Empty::getDefaultInstance)
+                .methodDescriptor(METHOD)
+                .build());
+        assertEquals(CircuitBreaker.State.CLOSED, grpcHandler.getCircuitBreakerStates().get(METHOD.getFullMethodName()));
+    }
+
+    @Test
+    public void shouldApplyDeadlinePerMethod() throws StorageException {
+        grpcHandler = new GrpcExecutionHandler(cloudLogService, GrpcExecutionHandlerConfig.builder()
+                .storeDeadlineInMs(1000)
+                .queryDeadlineInMs(2000)
+                .healthDeadlineInMs(3000)
+                .pasDeadlineInMs(0)
+                .build());
+        assertEquals(1000, grpcHandler.getDeadlineInMs(METHOD));
+        assertEquals(2000, grpcHandler.getDeadlineInMs(TimeseriesGrpc.getFindMetricsMethod()));
+        assertEquals(3000, grpcHandler.getDeadlineInMs(TimeseriesGrpc.getCheckHealthMethod()));
+
+        // the interceptor of GrpcConnection sets it on the call options:
+        Channel channel = mock(Channel.class);
+        ClientInterceptor interceptor = new GrpcConnection.DeadlineInterceptor();
+        ArgumentCaptor<CallOptions> callOptions = ArgumentCaptor.forClass(CallOptions.class);
+        grpcHandler.executeRpcCall(GrpcCall.<Object, Object>builder()
+                .callToExecute(() -> interceptor.interceptCall(TimeseriesGrpc.getFindMetricsMethod(), CallOptions.DEFAULT, channel))
+                .mapper(c -> c)
+                .defaultFunction(() -> null)
+                .methodDescriptor(TimeseriesGrpc.getFindMetricsMethod())
+                .build());
+        verify(channel).newCall(eq(TimeseriesGrpc.getFindMetricsMethod()), callOptions.capture());
+        Deadline deadline = callOptions.getValue().getDeadline();
+        assertTrue(deadline.timeRemaining(TimeUnit.MILLISECONDS) <= 2000);
+        assertTrue(deadline.timeRemaining(TimeUnit.MILLISECONDS) > 1000);
+        assertNull(GrpcConnection.DEADLINE_IN_MS_CONTEXT.get()); // only set during the call
+
+        // a shorter deadline of the caller wins, on the call options:
+        Deadline callerDeadline = Deadline.after(100, TimeUnit.MILLISECONDS);
+        grpcHandler.executeWithDeadline(TimeseriesGrpc.getFindMetricsMethod(),
+                () -> interceptor.interceptCall(TimeseriesGrpc.getFindMetricsMethod(), CallOptions.DEFAULT.withDeadline(callerDeadline), channel));
+        // and on the context:
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        Context.current().withDeadline(callerDeadline, scheduler).run(() ->
+                grpcHandler.executeWithDeadline(TimeseriesGrpc.getFindMetricsMethod(),
+                        () -> interceptor.interceptCall(TimeseriesGrpc.getFindMetricsMethod(), CallOptions.DEFAULT, channel)));
+        scheduler.shutdownNow();
+        ArgumentCaptor<CallOptions> callerOptions = ArgumentCaptor.forClass(CallOptions.class);
+        verify(channel, times(3)).newCall(eq(TimeseriesGrpc.getFindMetricsMethod()), callerOptions.capture());
+        assertEquals(callerDeadline, callerOptions.getAllValues().get(1).getDeadline());
+        assertEquals(callerDeadline, callerOptions.getAllValues().get(2).getDeadline());
+
+        // 0 => no deadline
+        assertNull(grpcHandler.executeWithDeadline(AuthenticateGrpc.getGetServicesMethod(), GrpcConnection.DEADLINE_IN_MS_CONTEXT::get));
+        assertEquals(Long.valueOf(3000), grpcHandler.executeWithDeadline(TimeseriesGrpc.getCheckHealthMethod(), GrpcConnection.DEADLINE_IN_MS_CONTEXT::get));
+    }
+
+    @Test
+    public void shouldCountExceededDeadlines() {
+        ThrowingRunnable run = () -> grpcHandler.executeRpcCallVoid(GrpcCall.builder()
+                .callToExecute(() -> {
+                    throw new StatusRuntimeException(Status.DEADLINE_EXCEEDED);
+                })
+                .methodDescriptor(METHOD)
+                .build());
+        assertThrows(StorageException.class, run);
+        assertThrows(StorageException.class, run);
+        assertThrows(StatusRuntimeException.class, () -> grpcHandler.executeWithDeadline(TimeseriesGrpc.getCheckHealthMethod(), () -> {
+            throw new StatusRuntimeException(Status.DEADLINE_EXCEEDED);
+        }));
+        assertEquals(Long.valueOf(2), grpcHandler.getDeadlinesExceeded().get(METHOD.getFullMethodName()));
+        assertEquals(Long.valueOf(1), grpcHandler.getDeadlinesExceeded().get(TimeseriesGrpc.getCheckHealthMethod().getFullMethodName()));
+    }
 }
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void valuesShouldFallIntoTheirBucket() {
+        for (long value : new long[]{0, 1, 31, 32, 33, 63, 64, 65, 1000, 123_456, LatencyHistogram.MAX_VALUE}) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(index < LatencyHistogram.BUCKETS);
+            long highest = LatencyHistogram.highestValue(index);
+            assertTrue(value + " > " + highest, value <= highest);
+            assertTrue(value + " too far from " + highest, highest - value <= value / LatencyHistogram.SUB_BUCKETS);
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.highestValue(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void percentilesShouldBeWithinTheBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(42);
+        long[] values = new long[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.abs(random.nextGaussian() * 200) + 1;
+            histogram.record(values[i], null);
+        }
+        Arrays.sort(values);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+
+        assertEquals(values.length, snapshot.getCount());
+        assertEquals(values[values.length - 1], snapshot.getMax());
+        assertEquals(Arrays.stream(values).sum(), snapshot.getSum());
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long actual = snapshot.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + actual + " vs " + expected, actual >= expected && actual - expected <= expected / 32);
+        }
+        assertEquals(snapshot.getMax(), snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void snapshotShouldResetTheHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10, "a");
+        histogram.record(20, "b");
+        histogram.record(5, "c");
+        histogram.record(-1, null); // clock went backwards
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(4, snapshot.getCount());
+        assertEquals(20, snapshot.getMax());
+        assertEquals("b", snapshot.getMaxExemplar());
+        assertEquals(1, snapshot.getBucketCount(0));
+
+        snapshot = histogram.snapshotAndReset();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+        assertNull(snapshot.getMaxExemplar());
+    }
+}
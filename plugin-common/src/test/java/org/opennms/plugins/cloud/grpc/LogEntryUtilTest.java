@@ -70,7 +70,7 @@ public class LogEntryUtilTest implements CloudLogServiceTestUtil {
         fillOutLogEntryQueueCloudLog(batchSize, cloudLogService);
 
         // When
-        List<GatewayOuterClass.LatencyTrace> latencyTraces = convertToLatencyTraceList(cloudLogService.getQueueBatch(batchSize));
+        List<GatewayOuterClass.LatencyTrace> latencyTraces = convertToLatencyTraceList(cloudLogService.drainQueueBatch(batchSize));
 
         // Then
         assertEquals(2, latencyTraces.size());
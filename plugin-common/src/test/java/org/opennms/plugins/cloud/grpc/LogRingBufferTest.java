@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LogRingBufferTest {
+
+    @Test
+    public void shouldDrainInOrder() {
+        LogRingBuffer<Integer> buffer = new LogRingBuffer<>(5);
+        for (int i = 0; i < 4; i++) {
+            buffer.add(i);
+        }
+        List<Integer> batch = new ArrayList<>();
+        assertEquals(3, buffer.drainTo(batch, 3));
+        assertEquals(List.of(0, 1, 2), batch);
+        assertEquals(1, buffer.size());
+
+        buffer.add(4);
+        buffer.add(5);
+        batch.clear();
+        assertEquals(3, buffer.drainTo(batch, 10));
+        assertEquals(List.of(3, 4, 5), batch);
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.getDropped());
+    }
+
+    @Test
+    public void shouldDropOldest() {
+        LogRingBuffer<Integer> buffer = new LogRingBuffer<>(3);
+        for (int i = 0; i < 8; i++) {
+            buffer.add(i);
+        }
+        assertEquals(3, buffer.size());
+        assertEquals(5, buffer.getDropped());
+        List<Integer> batch = new ArrayList<>();
+        buffer.drainTo(batch, 10);
+        assertEquals(List.of(5, 6, 7), batch);
+        assertEquals(5, buffer.getDropped());
+    }
+
+    @Test
+    public void shouldClear() {
+        LogRingBuffer<Integer> buffer = new LogRingBuffer<>(3);
+        buffer.add(1);
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        buffer.add(2);
+        List<Integer> batch = new ArrayList<>();
+        buffer.drainTo(batch, 10);
+        assertEquals(List.of(2), batch);
+    }
+
+    @Test
+    public void shouldNotLoseOrDuplicateEntriesOfConcurrentProducers() throws Exception {
+        final int producers = 4;
+        final int perProducer = 50_000;
+        LogRingBuffer<Integer> buffer = new LogRingBuffer<>(1024);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final int offset = p * perProducer;
+            executor.execute(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    buffer.add(offset + i);
+                }
+                done.countDown();
+            });
+        }
+        Set<Integer> drained = new HashSet<>();
+        List<Integer> batch = new ArrayList<>();
+        while (done.getCount() > 0 || !buffer.isEmpty()) {
+            batch.clear();
+            buffer.drainTo(batch, 100);
+            for (Integer entry : batch) {
+                assertTrue("duplicate " + entry, drained.add(entry));
+            }
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        // every entry was either drained or counted as dropped:
+        assertEquals(producers * perProducer, drained.size() + buffer.getDropped());
+    }
+}
@@ -31,11 +31,18 @@ package org.opennms.plugins.cloud.grpc;
 import static org.apache.commons.lang3.StringUtils.EMPTY;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
 import org.junit.Test;
 
+import io.grpc.Metadata;
+
 public class TraceIdGeneratorTest {
 
     @Test
@@ -52,4 +59,21 @@ public class TraceIdGeneratorTest {
         assertEquals(16, Hex.decodeHex(traceParentHeader.getTraceId()).length);
         assertEquals(8, Hex.decodeHex(traceParentHeader.getParentId()).length);
     }
+
+    @Test
+    public void traceParentShouldBeUniqueLowerCaseHex() {
+        Set<String> traceIds = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String traceParent = TraceParentHeaderGenerator.generateTraceParent();
+            assertTrue(traceParent, traceParent.matches("00-[0-9a-f]{32}-[0-9a-f]{16}-01"));
+            assertTrue(traceIds.add(traceParent.substring(3, 35)));
+        }
+    }
+
+    @Test
+    public void metadataShouldContainTraceParent() {
+        Metadata metadata = TraceParentHeaderGenerator.generateTraceParentHeaderMetadata("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+        assertEquals("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01", metadata.get(TraceParentHeaderGenerator.TRACEPARENT_KEY));
+        assertNotNull(TraceParentHeaderGenerator.generateTraceParentHeaderMetadata().get(TraceParentHeaderGenerator.TRACEPARENT_KEY));
+    }
 }
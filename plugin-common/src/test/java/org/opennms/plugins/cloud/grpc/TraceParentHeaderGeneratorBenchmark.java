@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc;
+
+import static org.opennms.plugins.cloud.grpc.TraceParentHeaderGenerator.TRACEPARENT_KEY;
+import static org.opennms.plugins.cloud.grpc.TraceParentHeaderGenerator.generateTraceParent;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import io.grpc.Metadata;
+
+/**
+ * Compares the trace parent header of {@link TraceParentHeaderGenerator} with the former SecureRandom based one,
+ * including the request headers of the call. See BenchmarksTest for how to run it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraceParentHeaderGeneratorBenchmark {
+
+    /** The former implementation: a SecureRandom per id, String.format and a Metadata that is merged per call. */
+    @Benchmark
+    public Metadata secureRandom() {
+        final String header = String.format("%s-%s-%s-%s", "00", Hex.encodeHexString(randomBytes(16)),
+                Hex.encodeHexString(randomBytes(8)), "01");
+        final Metadata traceParent = new Metadata();
+        traceParent.put(Metadata.Key.of("traceparent", Metadata.ASCII_STRING_MARSHALLER), header);
+        final Metadata headers = new Metadata();
+        headers.merge(traceParent);
+        return headers;
+    }
+
+    @Benchmark
+    public Metadata threadLocalRandom() {
+        final Metadata headers = new Metadata();
+        headers.put(TRACEPARENT_KEY, generateTraceParent());
+        return headers;
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new SecureRandom().nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.opennms.tsaas.TimeseriesGrpc;
+
+import io.grpc.Status;
+
+public class TraceSamplerTest {
+
+    @Test
+    public void shouldSampleConsistentlyByTraceId() {
+        TraceSampler sampler = new TraceSampler(0.5, Map.of(), 0);
+        // the right 7 bytes of the trace id decide:
+        String low = "00-0af7651916cd43dd8400000000000001-b7ad6b7169203331-01";
+        String high = "00-0af7651916cd43dd84ffffffffffffff-b7ad6b7169203331-01";
+        for (int i = 0; i < 10; i++) {
+            assertTrue(sampler.sample(TimeseriesGrpc.getStoreMethod(), Status.Code.OK, 1, low));
+            assertFalse(sampler.sample(TimeseriesGrpc.getStoreMethod(), Status.Code.OK, 1, high));
+        }
+        assertEquals(10, sampler.getKept());
+        assertEquals(10, sampler.getDropped());
+    }
+
+    @Test
+    public void shouldSampleWithRate() {
+        TraceSampler sampler = new TraceSampler(0.1, Map.of(), 0);
+        for (int i = 0; i < 10_000; i++) {
+            sampler.sample(TimeseriesGrpc.getStoreMethod(), Status.Code.OK, 1, TraceParentHeaderGenerator.generateTraceParent());
+        }
+        assertTrue(String.valueOf(sampler.getKept()), sampler.getKept() > 800 && sampler.getKept() < 1200);
+    }
+
+    @Test
+    public void shouldAlwaysKeepErrorsAndSlowCalls() {
+        TraceSampler sampler = new TraceSampler(0, Map.of(), 1000);
+        String traceParent = TraceParentHeaderGenerator.generateTraceParent();
+        assertFalse(sampler.sample(TimeseriesGrpc.getStoreMethod(), Status.Code.OK, 999, traceParent));
+        assertTrue(sampler.sample(TimeseriesGrpc.getStoreMethod(), Status.Code.UNAVAILABLE, 1, traceParent));
+        assertTrue(sampler.sample(TimeseriesGrpc.getStoreMethod(), Status.Code.OK, 1000, traceParent));
+    }
+
+    @Test
+    public void shouldUseRatePerMethod() {
+        TraceSampler sampler = new TraceSampler(1.0, TraceSampler.parseRates("Store=0, tsaas.Timeseries/CheckHealth=0.5"), 0);
+        assertEquals(0.0, sampler.getRate(TimeseriesGrpc.getStoreMethod()), 0);
+        assertEquals(0.5, sampler.getRate(TimeseriesGrpc.getCheckHealthMethod()), 0);
+        assertEquals(1.0, sampler.getRate(TimeseriesGrpc.getFindMetricsMethod()), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidRates() {
+        new TraceSampler(1.0, TraceSampler.parseRates("Store=2"), 0);
+    }
+}
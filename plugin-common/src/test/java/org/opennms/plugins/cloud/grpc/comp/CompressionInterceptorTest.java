@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc.comp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.tsaas.TimeseriesGrpc;
+import org.opennms.tsaas.Tsaas;
+
+import com.google.protobuf.Empty;
+
+import io.grpc.CompressorRegistry;
+import io.grpc.DecompressorRegistry;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.grpc.testing.GrpcCleanupRule;
+
+public class CompressionInterceptorTest {
+
+    private static final Metadata.Key<String> ENCODING = Metadata.Key.of("grpc-encoding", Metadata.ASCII_STRING_MARSHALLER);
+
+    @Rule
+    public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+    private final List<String> encodings = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void shouldUseZstdOnceTheServerAdvertisesIt() throws Exception {
+        CompressionConfig compression = CompressionConfig.builder()
+                .compression(Compression.ZSTD)
+                .level(9)
+                .minMessageSizeInBytes(0)
+                .build();
+        CompressionInterceptor interceptor = new CompressionInterceptor(compression);
+        TimeseriesGrpc.TimeseriesBlockingStub stub = createStub(ZstdCodecRegisterUtil.createDecompressorRegistry(), compression, interceptor);
+        stub.store(createSamples());
+        assertTrue(interceptor.isZstdAccepted());
+        stub.store(createSamples());
+        assertEquals(List.of("gzip", ZstdGrpcCodec.ZSTD), encodings);
+    }
+
+    @Test
+    public void shouldUseDictionaryOnceTheServerKnowsIt() throws Exception {
+        ZstdGrpcCodec dictionaryCodec = new ZstdGrpcCodec(ZstdDictionariesTest.trainDictionary());
+        CompressionConfig compression = CompressionConfig.builder()
+                .minMessageSizeInBytes(0)
+                .dictionary(ZstdDictionariesTest.trainDictionary())
+                .build();
+        CompressionInterceptor interceptor = new CompressionInterceptor(compression);
+        TimeseriesGrpc.TimeseriesBlockingStub stub = createStub(ZstdCodecRegisterUtil.createDecompressorRegistry(dictionaryCodec), compression, interceptor);
+        stub.store(createSamples());
+        assertTrue(interceptor.isDictionaryAccepted());
+        stub.store(createSamples()); // is decompressed by the server with the same dictionary
+        assertEquals(List.of("gzip", dictionaryCodec.getMessageEncoding()), encodings);
+    }
+
+    @Test
+    public void shouldUseZstdIfTheServerDoesntKnowTheDictionary() throws Exception {
+        CompressionConfig compression = CompressionConfig.builder()
+                .minMessageSizeInBytes(0)
+                .dictionary(ZstdDictionariesTest.trainDictionary())
+                .build();
+        CompressionInterceptor interceptor = new CompressionInterceptor(compression);
+        TimeseriesGrpc.TimeseriesBlockingStub stub = createStub(ZstdCodecRegisterUtil.createDecompressorRegistry(), compression, interceptor);
+        stub.store(createSamples());
+        stub.store(createSamples());
+        assertFalse(interceptor.isDictionaryAccepted());
+        assertEquals(List.of("gzip", ZstdGrpcCodec.ZSTD), encodings);
+    }
+
+    @Test
+    public void shouldFallBackToGzip() throws Exception {
+        CompressionConfig compression = CompressionConfig.builder().build();
+        CompressionInterceptor interceptor = new CompressionInterceptor(compression);
+        // the default registry of grpc doesn't know zstd:
+        TimeseriesGrpc.TimeseriesBlockingStub stub = createStub(DecompressorRegistry.getDefaultInstance(), compression, interceptor);
+        stub.store(createSamples());
+        stub.store(createSamples());
+        assertFalse(interceptor.isZstdAccepted());
+        assertEquals(List.of("gzip", "gzip"), encodings);
+    }
+
+    @Test
+    public void shouldNotCompress() throws Exception {
+        CompressionConfig compression = CompressionConfig.builder()
+                .compression(Compression.NONE)
+                .build();
+        createStub(ZstdCodecRegisterUtil.createDecompressorRegistry(), compression, new CompressionInterceptor(compression)).store(createSamples());
+        assertEquals(1, encodings.size());
+        assertNull(encodings.get(0));
+    }
+
+    @Test
+    public void shouldBindLevelAndDictionaryToTheRegistryOfTheChannel() throws Exception {
+        byte[] dictionary = ZstdDictionariesTest.trainDictionary();
+        String dictionaryEncoding = ZstdGrpcCodec.dictionaryEncoding(dictionary);
+        CompressorRegistry registry = ZstdCodecRegisterUtil.createCompressorRegistry(CompressionConfig.builder()
+                .level(9)
+                .dictionary(dictionary)
+                .build());
+        assertEquals(9, ((ZstdGrpcCodec) registry.lookupCompressor(ZstdGrpcCodec.ZSTD)).getLevel());
+        assertEquals(9, ((ZstdGrpcCodec) registry.lookupCompressor(dictionaryEncoding)).getLevel());
+        assertNotNull(registry.lookupCompressor("gzip"));
+        // other channels and the global registry are not affected:
+        CompressorRegistry other = ZstdCodecRegisterUtil.createCompressorRegistry();
+        assertEquals(ZstdGrpcCodec.DEFAULT_LEVEL, ((ZstdGrpcCodec) other.lookupCompressor(ZstdGrpcCodec.ZSTD)).getLevel());
+        assertNull(other.lookupCompressor(dictionaryEncoding));
+        assertNull(CompressorRegistry.getDefaultInstance().lookupCompressor(dictionaryEncoding));
+    }
+
+    private TimeseriesGrpc.TimeseriesBlockingStub createStub(final DecompressorRegistry serverRegistry,
+                                                            final CompressionConfig compression,
+                                                            final CompressionInterceptor interceptor) throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        TimeseriesGrpc.TimeseriesImplBase service = new TimeseriesGrpc.TimeseriesImplBase() {
+            @Override
+            public void store(final Tsaas.Samples request, final StreamObserver<Empty> responseObserver) {
+                responseObserver.onNext(Empty.getDefaultInstance());
+                responseObserver.onCompleted();
+            }
+        };
+        ServerInterceptor recordEncoding = new ServerInterceptor() {
+            @Override
+            public <I, O> ServerCall.Listener<I> interceptCall(final ServerCall<I, O> call, final Metadata headers,
+                                                               final ServerCallHandler<I, O> next) {
+                encodings.add(headers.get(ENCODING));
+                return next.startCall(call, headers);
+            }
+        };
+        grpcCleanup.register(InProcessServerBuilder.forName(name)
+                .directExecutor()
+                .decompressorRegistry(serverRegistry)
+                .addService(ServerInterceptors.intercept(service, recordEncoding))
+                .build()
+                .start());
+        ManagedChannel channel = grpcCleanup.register(InProcessChannelBuilder.forName(name)
+                .directExecutor()
+                .compressorRegistry(ZstdCodecRegisterUtil.createCompressorRegistry(compression))
+                .build());
+        return TimeseriesGrpc.newBlockingStub(channel).withInterceptors(interceptor);
+    }
+
+    private static Tsaas.Samples createSamples() {
+        Tsaas.Samples.Builder samples = Tsaas.Samples.newBuilder();
+        for (int i = 0; i < 100; i++) {
+            samples.addSamples(Tsaas.Sample.newBuilder()
+                    .setMetric(Tsaas.Metric.newBuilder()
+                            .addIntrinsicTags(Tsaas.Tag.newBuilder().setKey("resourceId").setValue("snmp/1/interface-" + i))
+                            .addIntrinsicTags(Tsaas.Tag.newBuilder().setKey("name").setValue("ifHCInOctets")))
+                    .setValue(i));
+        }
+        return samples.build();
+    }
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc.comp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.tsaas.Tsaas;
+
+import com.github.luben.zstd.Zstd;
+
+public class ZstdDictionariesTest {
+
+    @Test
+    public void shouldCompressBetterWithDictionary() {
+        byte[] dictionary = trainDictionary();
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            payloads.add(createSample(10_000 + i).toByteArray());
+        }
+        ZstdDictionaries.Ratio ratio = ZstdDictionaries.compare(payloads, dictionary, ZstdGrpcCodec.DEFAULT_LEVEL);
+        assertTrue(ratio.getDictionaryBytes() < ratio.getZstdBytes());
+        assertTrue(ratio.getGainInPercent() > 0);
+        assertTrue(ratio.getDictionaryRatio() > ratio.getZstdRatio());
+    }
+
+    @Test
+    public void shouldRoundTripWithDictionary() throws Exception {
+        byte[] dictionary = trainDictionary();
+        ZstdGrpcCodec codec = new ZstdGrpcCodec(dictionary);
+        assertEquals(ZstdGrpcCodec.dictionaryEncoding(Zstd.getDictIdFromDict(dictionary)), codec.getMessageEncoding());
+
+        byte[] payload = createSample(42).toByteArray();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = codec.compress(compressed)) {
+            out.write(payload);
+        }
+        try (InputStream in = codec.decompress(new ByteArrayInputStream(compressed.toByteArray()))) {
+            assertArrayEquals(payload, in.readAllBytes());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidDictionary() {
+        new ZstdGrpcCodec(new byte[]{1, 2, 3});
+    }
+
+    static byte[] trainDictionary() {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            samples.add(createSample(i).toByteArray());
+        }
+        return ZstdDictionaries.train(samples, 4096);
+    }
+
+    private static Tsaas.Sample createSample(final int i) {
+        return Tsaas.Sample.newBuilder()
+                .setMetric(Tsaas.Metric.newBuilder()
+                        .addIntrinsicTags(Tsaas.Tag.newBuilder().setKey("resourceId").setValue("snmp:fs:NODES:node" + (i % 97) + ":interfaceSnmp:eth" + (i % 7)))
+                        .addIntrinsicTags(Tsaas.Tag.newBuilder().setKey("name").setValue(i % 2 == 0 ? "ifHCInOctets" : "ifHCOutOctets"))
+                        .addMetaTags(Tsaas.Tag.newBuilder().setKey("mtype").setValue("counter")))
+                .setValue(i * 31.0)
+                .build();
+    }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc.comp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import io.grpc.Codec;
+
+/**
+ * Compares {@link ZstdGrpcCodec} with a new zstd stream per message, as the codec worked before the contexts and
+ * buffers were pooled. See BenchmarksTest for how to run it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ZstdGrpcCodecBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    private final Codec pooled = new ZstdGrpcCodec();
+    private final Codec streamPerMessage = new StreamPerMessageCodec();
+    private final byte[] buffer = new byte[8192];
+    private byte[] payload;
+    private byte[] compressed;
+
+    @Setup
+    public void setUp() throws IOException {
+        final String chars = "resourceId=snmp:node";
+        final Random random = new Random(1);
+        payload = new byte[size];
+        for (int i = 0; i < size; i++) {
+            payload[i] = (byte) chars.charAt(random.nextInt(chars.length()));
+        }
+        compressed = compress(pooled);
+    }
+
+    @Benchmark
+    public byte[] compressPooled() throws IOException {
+        return compress(pooled);
+    }
+
+    @Benchmark
+    public byte[] compressStreamPerMessage() throws IOException {
+        return compress(streamPerMessage);
+    }
+
+    @Benchmark
+    public long decompressPooled() throws IOException {
+        return decompress(pooled);
+    }
+
+    @Benchmark
+    public long decompressStreamPerMessage() throws IOException {
+        return decompress(streamPerMessage);
+    }
+
+    private byte[] compress(final Codec codec) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length);
+        try (OutputStream out = codec.compress(bytes)) {
+            out.write(payload);
+        }
+        return bytes.toByteArray();
+    }
+
+    private long decompress(final Codec codec) throws IOException {
+        long length = 0;
+        try (InputStream in = codec.decompress(new ByteArrayInputStream(compressed))) {
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                length += read;
+            }
+        }
+        return length;
+    }
+
+    private static class StreamPerMessageCodec implements Codec {
+        @Override
+        public String getMessageEncoding() {
+            return ZstdGrpcCodec.ZSTD;
+        }
+
+        @Override
+        public OutputStream compress(final OutputStream os) throws IOException {
+            return new ZstdOutputStream(os, ZstdGrpcCodec.DEFAULT_LEVEL);
+        }
+
+        @Override
+        public InputStream decompress(final InputStream is) throws IOException {
+            return new ZstdInputStream(is);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.grpc.comp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+public class ZstdGrpcCodecTest {
+
+    private final ZstdGrpcCodec codec = new ZstdGrpcCodec();
+
+    @Test
+    public void shouldRoundTrip() throws IOException {
+        for (int size : new int[]{0, 1, 1024, 100_000, ZstdCompressorPool.MAX_RETAINED_BUFFER_SIZE + 1}) {
+            byte[] payload = createPayload(size);
+            assertArrayEquals(payload, decompress(compress(payload)));
+        }
+    }
+
+    @Test
+    public void shouldBeReadableAsZstdStream() throws IOException {
+        // other implementations (the cloud) read the message as a regular zstd frame
+        byte[] payload = createPayload(10_000);
+        try (InputStream in = new ZstdInputStream(new ByteArrayInputStream(compress(payload)))) {
+            assertArrayEquals(payload, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void shouldWriteSingleBytes() throws IOException {
+        byte[] payload = createPayload(100_000);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = codec.compress(compressed)) {
+            for (byte b : payload) {
+                out.write(b);
+            }
+        }
+        assertArrayEquals(payload, decompress(compressed.toByteArray()));
+    }
+
+    @Test
+    public void shouldCompressWithTheLevelOfTheCodec() throws Exception {
+        // grpc may compress a message later in another thread, e.g. if it was sent before the call was started
+        byte[] payload = createPayload(100_000);
+        byte[] fast = CompletableFuture.supplyAsync(() -> compress(new ZstdGrpcCodec(1), payload)).get();
+        byte[] strong = CompletableFuture.supplyAsync(() -> compress(new ZstdGrpcCodec(19), payload)).get();
+        assertTrue(strong.length < fast.length);
+        assertArrayEquals(payload, decompress(strong));
+    }
+
+    @Test
+    public void shouldReuseCompressors() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            compress(createPayload(1024));
+        }
+        assertEquals(1, codec.getPooledCompressors());
+
+        OutputStream first = codec.compress(new ByteArrayOutputStream());
+        OutputStream second = codec.compress(new ByteArrayOutputStream());
+        assertEquals(0, codec.getPooledCompressors());
+        first.close();
+        second.close();
+        first.close(); // a second close doesn't release the compressor again
+        // at most one compressor per cpu is kept
+        assertEquals(Math.min(2, Runtime.getRuntime().availableProcessors()), codec.getPooledCompressors());
+    }
+
+    private byte[] compress(final byte[] payload) throws IOException {
+        return compress(codec, payload);
+    }
+
+    private static byte[] compress(final ZstdGrpcCodec codec, final byte[] payload) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = codec.compress(compressed)) {
+            out.write(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    private byte[] decompress(final byte[] compressed) throws IOException {
+        try (InputStream in = codec.decompress(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] createPayload(final int size) {
+        Random random = new Random(size);
+        byte[] payload = new byte[size];
+        for (int i = 0; i < size; i++) {
+            payload[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return payload;
+    }
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+import io.grpc.Status;
+
+public class BatchControllerTest {
+
+    private static final TsaasConfig ADAPTIVE = TsaasConfig.builder()
+            .adaptiveBatching(true)
+            .batchSize(1000)
+            .minBatchSize(100)
+            .maxBatchSize(1500)
+            .targetLatencyInMilliSeconds(1000)
+            .build();
+
+    @Test
+    public void shouldKeepConfiguredValuesIfNotAdaptive() {
+        BatchController controller = new BatchController(TsaasConfig.builder().batchSize(500).build(), 2);
+        controller.onBatchDone(500, 10_000, 10, Status.Code.OK);
+        controller.onBatchDone(500, 10_000, 10, Status.Code.RESOURCE_EXHAUSTED);
+        assertEquals(500, controller.getBatchSize());
+        assertEquals(Integer.MAX_VALUE, controller.getConcurrency());
+    }
+
+    @Test
+    public void shouldIncreaseAdditively() {
+        BatchController controller = new BatchController(ADAPTIVE, 4);
+        controller.onBatchDone(1000, 10_000, 100, Status.Code.RESOURCE_EXHAUSTED);
+        assertEquals(500, controller.getBatchSize());
+        assertEquals(2, controller.getConcurrency());
+
+        controller.onBatchDone(500, 10_000, 100, Status.Code.OK);
+        assertEquals(600, controller.getBatchSize());
+        assertEquals(2, controller.getConcurrency());
+        controller.onBatchDone(600, 10_000, 100, Status.Code.OK);
+        assertEquals(700, controller.getBatchSize());
+        assertEquals(3, controller.getConcurrency()); // after as many successes as the concurrency
+
+        // partial batches say nothing about bigger ones:
+        controller.onBatchDone(10, 100, 100, Status.Code.OK);
+        assertEquals(700, controller.getBatchSize());
+
+        for (int i = 0; i < 20; i++) {
+            controller.onBatchDone(controller.getBatchSize(), 10_000, 100, Status.Code.OK);
+        }
+        assertEquals(1500, controller.getBatchSize());
+        assertEquals(4, controller.getConcurrency());
+        assertEquals(100_000, controller.getBytesPerSecond());
+    }
+
+    @Test
+    public void shouldDecreaseOnSlowBatches() {
+        BatchController controller = new BatchController(ADAPTIVE, 4);
+        controller.onBatchDone(1000, 10_000, 1250, Status.Code.OK);
+        assertEquals(800, controller.getBatchSize()); // proportional
+        assertEquals(4, controller.getConcurrency());
+
+        controller.onBatchDone(800, 10_000, 5000, Status.Code.OK);
+        assertEquals(400, controller.getBatchSize()); // at most by half
+        assertEquals(3, controller.getConcurrency());
+        assertEquals(2, controller.getDecreases());
+    }
+
+    @Test
+    public void shouldDecreaseMultiplicativelyOnOverload() {
+        BatchController controller = new BatchController(ADAPTIVE, 4);
+        for (int i = 0; i < 10; i++) {
+            controller.onBatchDone(1000, 10_000, 100, Status.Code.DEADLINE_EXCEEDED);
+        }
+        assertEquals(100, controller.getBatchSize());
+        assertEquals(1, controller.getConcurrency());
+
+        // the cloud is not reachable => nothing to learn
+        controller.onBatchDone(1000, 10_000, 100, Status.Code.UNAVAILABLE);
+        assertEquals(100, controller.getBatchSize());
+        assertEquals(1, controller.getConcurrency());
+    }
+
+    @Test
+    public void shouldNotAdaptConcurrencyIfUnlimited() {
+        BatchController controller = new BatchController(ADAPTIVE, Integer.MAX_VALUE);
+        controller.onBatchDone(1000, 10_000, 100, Status.Code.RESOURCE_EXHAUSTED);
+        assertEquals(500, controller.getBatchSize());
+        assertEquals(Integer.MAX_VALUE, controller.getConcurrency());
+    }
+
+    @Test
+    public void shouldNotAdaptStreams() {
+        BatchController controller = new BatchController(ADAPTIVE.toBuilder().storeMode(StoreMode.STREAMING).build(), 4);
+        // batches are confirmed when their stream completes, e.g. after the idle time:
+        for (int i = 0; i < 10; i++) {
+            controller.onBatchDone(1000, 10_000, 5000, Status.Code.OK);
+        }
+        controller.onBatchDone(1000, 10_000, 100, Status.Code.RESOURCE_EXHAUSTED);
+        assertFalse(controller.isAdaptive());
+        assertEquals(1000, controller.getBatchSize());
+        assertEquals(Integer.MAX_VALUE, controller.getConcurrency());
+        assertEquals(0, controller.getDecreases());
+    }
+
+    @Test
+    public void shouldRejectInvalidBounds() {
+        TsaasConfig config = ADAPTIVE.toBuilder().minBatchSize(2000).build();
+        assertThrows(IllegalArgumentException.class, () -> new BatchController(config, 1));
+    }
+}
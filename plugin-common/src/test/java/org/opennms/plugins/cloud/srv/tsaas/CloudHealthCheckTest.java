@@ -29,6 +29,7 @@
 package org.opennms.plugins.cloud.srv.tsaas;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -42,16 +43,28 @@ import org.junit.Test;
 import org.opennms.integration.api.v1.health.Context;
 import org.opennms.integration.api.v1.health.Response;
 import org.opennms.integration.api.v1.health.Status;
+import org.opennms.integration.api.v1.timeseries.StorageException;
 import org.opennms.plugins.cloud.config.ConfigurationManager;
+import org.opennms.plugins.cloud.grpc.CloudLogService;
+import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler;
+import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler.GrpcCall;
+import org.opennms.plugins.cloud.grpc.GrpcExecutionHandlerConfig;
+import org.opennms.tsaas.TimeseriesGrpc;
 import org.opennms.tsaas.Tsaas;
 
+import io.grpc.StatusRuntimeException;
+
 public class CloudHealthCheckTest {
 
     private ConfigurationManager cm;
+    private GrpcExecutionHandler grpcHandler;
 
     @Before
     public void setUp() throws Exception {
         cm = mock(ConfigurationManager.class);
+        grpcHandler = new GrpcExecutionHandler(mock(CloudLogService.class), GrpcExecutionHandlerConfig.builder()
+                .circuitBreakerFailureThreshold(1)
+                .build());
     }
 
     @Test
@@ -61,7 +74,7 @@ public class CloudHealthCheckTest {
         when(storage.checkHealth()).thenReturn(Tsaas.CheckHealthResponse.newBuilder()
                 .setStatus(Tsaas.CheckHealthResponse.ServingStatus.SERVING).build());
         assertEquals(Tsaas.CheckHealthResponse.ServingStatus.SERVING, storage.checkHealth().getStatus());
-        Response response = new CloudHealthCheck(cm, storage).perform(mock(Context.class));
+        Response response = new CloudHealthCheck(cm, storage, grpcHandler).perform(mock(Context.class));
         assertEquals(Status.Success, response.getStatus());
         assertTrue(response.getMessage().contains(Tsaas.CheckHealthResponse.ServingStatus.SERVING.name()));
     }
@@ -71,7 +84,7 @@ public class CloudHealthCheckTest {
         when(cm.getStatus()).thenReturn(CONFIGURED);
         TsaasStorage tsaas = mock(TsaasStorage.class);
         when(tsaas.checkHealth()).thenReturn(Tsaas.CheckHealthResponse.newBuilder().setStatus(Tsaas.CheckHealthResponse.ServingStatus.NOT_SERVING).build());
-        Response response = new CloudHealthCheck(cm, tsaas).perform(mock(Context.class));
+        Response response = new CloudHealthCheck(cm, tsaas, grpcHandler).perform(mock(Context.class));
         assertEquals(Status.Failure, response.getStatus());
         assertTrue(response.getMessage().contains(Tsaas.CheckHealthResponse.ServingStatus.SERVING.name()));
     }
@@ -80,7 +93,7 @@ public class CloudHealthCheckTest {
     public void shouldReturnStatusForInitNotAttempted() throws Exception {
         when(cm.getStatus()).thenReturn(NOT_ATTEMPTED);
         TsaasStorage tsaas = mock(TsaasStorage.class);
-        Response response = new CloudHealthCheck(cm, tsaas).perform(mock(Context.class));
+        Response response = new CloudHealthCheck(cm, tsaas, grpcHandler).perform(mock(Context.class));
         assertEquals(Status.Success, response.getStatus());
         assertTrue(response.getMessage().contains(NOT_ATTEMPTED.name()));
     }
@@ -89,7 +102,7 @@ public class CloudHealthCheckTest {
     public void shouldReturnStatusForInitFailed() throws Exception {
         when(cm.getStatus()).thenReturn(FAILED);
         TsaasStorage tsaas = mock(TsaasStorage.class);
-        Response response = new CloudHealthCheck(cm, tsaas).perform(mock(Context.class));
+        Response response = new CloudHealthCheck(cm, tsaas, grpcHandler).perform(mock(Context.class));
         assertEquals(Status.Failure, response.getStatus());
         assertTrue(response.getMessage().contains(FAILED.name()));
     }
@@ -98,8 +111,25 @@ public class CloudHealthCheckTest {
     public void shouldReturnStatusForInitSuccessful() throws Exception {
         when(cm.getStatus()).thenReturn(AUTHENTCATED);
         TsaasStorage tsaas = mock(TsaasStorage.class);
-        Response response = new CloudHealthCheck(cm, tsaas).perform(mock(Context.class));
+        Response response = new CloudHealthCheck(cm, tsaas, grpcHandler).perform(mock(Context.class));
         assertEquals(Status.Starting, response.getStatus());
         assertTrue(response.getMessage().contains(AUTHENTCATED.name()));
     }
+
+    @Test
+    public void shouldReturnFailureForOpenCircuitBreaker() throws Exception {
+        when(cm.getStatus()).thenReturn(CONFIGURED);
+        TsaasStorage tsaas = mock(TsaasStorage.class);
+        when(tsaas.checkHealth()).thenReturn(Tsaas.CheckHealthResponse.newBuilder()
+                .setStatus(Tsaas.CheckHealthResponse.ServingStatus.SERVING).build());
+        assertThrows(StorageException.class, () -> grpcHandler.executeRpcCallVoid(GrpcCall.builder()
+                .callToExecute(() -> {
+                    throw new StatusRuntimeException(io.grpc.Status.UNAVAILABLE);
+                })
+                .methodDescriptor(TimeseriesGrpc.getStoreMethod())
+                .build()));
+        Response response = new CloudHealthCheck(cm, tsaas, grpcHandler).perform(mock(Context.class));
+        assertEquals(Status.Failure, response.getStatus());
+        assertTrue(response.getMessage().contains(TimeseriesGrpc.getStoreMethod().getFullMethodName() + "=OPEN"));
+    }
 }
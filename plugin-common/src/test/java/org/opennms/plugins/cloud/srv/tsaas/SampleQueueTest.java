@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.tsaas.Tsaas;
+
+public class SampleQueueTest {
+
+    @Test
+    public void shouldTrackSizeAndBytes() throws StorageException {
+        SampleQueue queue = new SampleQueue(10, 10_000, OverflowPolicy.REJECT);
+        List<QueuedSample> samples = samples(1, 2, 3);
+        queue.addAll(samples);
+        assertEquals(3, queue.size());
+        long expectedBytes = samples.stream().mapToLong(QueuedSample::getSerializedSize).sum();
+        assertEquals(expectedBytes, queue.getBytes());
+
+        assertEquals(Arrays.asList(1.0, 2.0), values(queue.poll(2)));
+        assertEquals(1, queue.size());
+        assertEquals(samples.get(2).getSerializedSize(), queue.getBytes());
+        assertEquals(Collections.singletonList(3.0), values(queue.poll(2)));
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.getBytes());
+    }
+
+    @Test
+    public void shouldDropOldest() throws StorageException {
+        SampleQueue queue = new SampleQueue(2, 10_000, OverflowPolicy.DROP_OLDEST);
+        queue.addAll(samples(1, 2, 3));
+        assertEquals(Arrays.asList(2.0, 3.0), values(queue.poll(10)));
+        assertEquals(1, queue.getDroppedOldest());
+    }
+
+    @Test
+    public void shouldDropNewest() throws StorageException {
+        SampleQueue queue = new SampleQueue(2, 10_000, OverflowPolicy.DROP_NEWEST);
+        queue.addAll(samples(1, 2, 3));
+        assertEquals(Arrays.asList(1.0, 2.0), values(queue.poll(10)));
+        assertEquals(1, queue.getDroppedNewest());
+    }
+
+    @Test
+    public void shouldReject() throws StorageException {
+        SampleQueue queue = new SampleQueue(2, 10_000, OverflowPolicy.REJECT);
+        queue.addAll(samples(1));
+        List<QueuedSample> tooMany = samples(2, 3);
+        assertThrows(StorageException.class, () -> queue.addAll(tooMany));
+        assertEquals(Collections.singletonList(1.0), values(queue.poll(10)));
+        assertEquals(2, queue.getRejected());
+    }
+
+    @Test
+    public void shouldLimitByBytes() throws StorageException {
+        List<QueuedSample> samples = samples(1, 2, 3);
+        int sampleSize = samples.get(0).getSerializedSize();
+        SampleQueue queue = new SampleQueue(10, 2L * sampleSize, OverflowPolicy.DROP_NEWEST);
+        queue.addAll(samples);
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getDroppedNewest());
+    }
+
+    @Test
+    public void shouldAcceptOversizedSampleIfEmpty() throws StorageException {
+        SampleQueue queue = new SampleQueue(10, 1, OverflowPolicy.REJECT);
+        queue.addAll(samples(1));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void shouldBlockUntilThereIsRoom() throws Exception {
+        SampleQueue queue = new SampleQueue(2, 10_000, OverflowPolicy.BLOCK);
+        queue.addAll(samples(1, 2));
+        CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+            try {
+                queue.addAll(samples(3));
+            } catch (StorageException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(producer.isDone());
+        assertEquals(Collections.singletonList(1.0), values(queue.poll(1)));
+        producer.get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(2.0, 3.0), values(queue.poll(10)));
+        assertEquals(1, queue.getBlocked());
+    }
+
+    @Test
+    public void shouldTellTheConsumerBeforeBlocking() throws Exception {
+        SampleQueue queue = new SampleQueue(1, 10_000, OverflowPolicy.BLOCK);
+        CountDownLatch full = new CountDownLatch(1);
+        queue.setFullListener(() -> {
+            assertTrue(queue.hasBlockedProducers());
+            queue.poll(1); // the listener is called without the lock of the queue
+            full.countDown();
+        });
+        queue.addAll(samples(1, 2));
+        assertTrue(full.await(5, TimeUnit.SECONDS));
+        assertFalse(queue.hasBlockedProducers());
+        assertEquals(Collections.singletonList(2.0), values(queue.poll(10)));
+    }
+
+    @Test
+    public void shouldPollByBytes() throws StorageException {
+        SampleQueue queue = new SampleQueue(10, 10_000, OverflowPolicy.REJECT);
+        List<QueuedSample> samples = samples(1, 2, 3, 4, 5);
+        queue.addAll(samples);
+        int sampleBytes = samples.get(0).getBatchBytes();
+        // batchBytes matches the size of the resulting message:
+        Tsaas.Samples.Builder batch = Tsaas.Samples.newBuilder();
+        samples.forEach(s -> batch.addSamples(s.getSample()));
+        assertEquals(5L * sampleBytes, batch.build().getSerializedSize());
+
+        assertEquals(Arrays.asList(1.0, 2.0), values(queue.poll(10, 2L * sampleBytes + sampleBytes - 1)));
+        assertEquals(Arrays.asList(3.0, 4.0, 5.0), values(queue.poll(10, 3L * sampleBytes)));
+        // the first sample is always taken:
+        queue.addAll(samples(6));
+        assertEquals(Collections.singletonList(6.0), values(queue.poll(10, 1)));
+    }
+
+    private static List<QueuedSample> samples(double... values) {
+        return Arrays.stream(values)
+                .mapToObj(v -> Tsaas.Sample.newBuilder()
+                        .setValue(v)
+                        .setMetric(Tsaas.Metric.newBuilder().addIntrinsicTags(Tsaas.Tag.newBuilder().setKey("name").setValue("a")))
+                        .build())
+                .map(s -> new QueuedSample(s, System.nanoTime()))
+                .collect(Collectors.toList());
+    }
+
+    private static List<Double> values(List<QueuedSample> samples) {
+        return samples.stream().map(s -> s.getSample().getValue()).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+import org.opennms.plugins.cloud.grpc.CloudLogService;
+import org.opennms.plugins.cloud.grpc.CloudLogServiceConfig;
+import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler;
+import org.opennms.plugins.cloud.testserver.MockCloud;
+import org.opennms.tsaas.Tsaas;
+
+public class TsaasStorageBatchFormatTest {
+
+    private MockCloud cloud;
+
+    @Test
+    public void shouldSendSeriesFormat() throws Exception {
+        cloud = MockCloud.builder()
+                .serverStorage(mock(TimeSeriesStorage.class))
+                .build();
+        cloud.start();
+        long seriesBytes = storeAndFlush(BatchFormat.SERIES);
+        assertEquals(0, cloud.getTsaasService().getSamplesFormatBytes().get());
+        verify(cloud.getServerStorage(), times(1)).store(argThat(l -> l.size() == 20));
+
+        long samplesBytes = storeAndFlush(BatchFormat.SAMPLES);
+        assertEquals(seriesBytes, cloud.getTsaasService().getSeriesFormatBytes().get());
+        assertTrue(String.format("series: %s bytes, samples: %s bytes", seriesBytes, samplesBytes), seriesBytes < samplesBytes / 2);
+    }
+
+    @Test
+    public void shouldFallBackToSamplesFormatForOlderServers() throws Exception {
+        cloud = MockCloud.builder()
+                .serverStorage(mock(TimeSeriesStorage.class))
+                .seriesFormatSupported(false)
+                .build();
+        cloud.start();
+        storeAndFlush(BatchFormat.SERIES);
+        verify(cloud.getServerStorage(), times(1)).store(argThat(l -> l.size() == 20));
+        assertEquals(0, cloud.getTsaasService().getSeriesFormatBytes().get());
+    }
+
+    @Test
+    public void shouldCaptureSentBatches() throws Exception {
+        cloud = MockCloud.builder().build();
+        cloud.start();
+        GrpcExecutionHandler grpcHandler = new GrpcExecutionHandler(new CloudLogService(new CloudLogServiceConfig(1000, 60)));
+        TsaasStorage plugin = new TsaasStorage(TsaasConfig.builder().batchSize(10).build(), grpcHandler);
+        plugin.initGrpc(cloud.getClientConfigWithToken());
+        plugin.startBatchCapture(1);
+        plugin.store(createSamples());
+        plugin.flush();
+        List<Tsaas.Samples> captured = plugin.stopBatchCapture();
+        plugin.destroy();
+        assertEquals(1, captured.size()); // one of the two batches
+        assertEquals(10, captured.get(0).getSamplesCount());
+        assertTrue(plugin.stopBatchCapture().isEmpty());
+    }
+
+    /**
+     * Stores 20 samples of 2 metrics and returns the bytes the server received for them.
+     */
+    private long storeAndFlush(BatchFormat format) throws StorageException {
+        final long bytesBefore = cloud.getTsaasService().getSamplesFormatBytes().get() + cloud.getTsaasService().getSeriesFormatBytes().get();
+        TsaasConfig config = TsaasConfig.builder()
+                .batchSize(100)
+                .batchFormat(format)
+                .build();
+        GrpcExecutionHandler grpcHandler = new GrpcExecutionHandler(new CloudLogService(new CloudLogServiceConfig(1000, 60)));
+        TsaasStorage plugin = new TsaasStorage(config, grpcHandler);
+        plugin.initGrpc(cloud.getClientConfigWithToken());
+        plugin.store(createSamples());
+        plugin.flush();
+        plugin.destroy();
+        return cloud.getTsaasService().getSamplesFormatBytes().get() + cloud.getTsaasService().getSeriesFormatBytes().get() - bytesBefore;
+    }
+
+    private List<Sample> createSamples() {
+        List<Sample> samples = new ArrayList<>();
+        Instant now = Instant.now();
+        for (int i = 0; i < 20; i++) {
+            samples.add(ImmutableSample.builder()
+                    .time(now.plusSeconds(i / 2))
+                    .metric(ImmutableMetric.builder()
+                            .intrinsicTag(IntrinsicTagNames.resourceId, "snmp/1/nodeSnmp[]")
+                            .intrinsicTag(IntrinsicTagNames.name, "metric" + (i % 2))
+                            .metaTag(MetaTagNames.mtype, "gauge")
+                            .metaTag("_idx0", "(snmp,4)")
+                            .metaTag("_idx1", "(snmp:1,4)")
+                            .metaTag("_idx2w", "(snmp:1:nodeSnmp[],*)")
+                            .build())
+                    .value((double) i)
+                    .build());
+        }
+        return samples;
+    }
+
+    @After
+    public void shutDown() {
+        cloud.stop();
+    }
+}
@@ -28,11 +28,15 @@
 
 package org.opennms.plugins.cloud.srv.tsaas;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -51,6 +55,7 @@ import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
 import org.opennms.plugins.cloud.grpc.CloudLogService;
 import org.opennms.plugins.cloud.grpc.CloudLogServiceConfig;
 import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler;
+import org.opennms.plugins.cloud.srv.tsaas.grpc.GrpcObjectMapper;
 import org.opennms.plugins.cloud.testserver.MockCloud;
 
 public class TsaasStorageBatchStoringTest {
@@ -61,7 +66,7 @@ public class TsaasStorageBatchStoringTest {
             .build();
 
     @Test
-    public void shouldSendStoreSamplesAfterWaitTime() throws StorageException, InterruptedException {
+    public void shouldSendStoreSamplesAfterWaitTime() throws StorageException {
         TsaasConfig tsaasConfig = TsaasConfig.builder()
                 .batchSize(10)
                 .maxBatchWaitTimeInMilliSeconds(500)
@@ -75,27 +80,118 @@ public class TsaasStorageBatchStoringTest {
         plugin.store(createSamples());
         plugin.store(createSamples());
         verify(cloud.getServerStorage(), never()).store(any());
+        assertTrue(plugin.getMetrics().get("queue.oldestSampleAgeInMs").longValue() < tsaasConfig.getMaxBatchWaitTimeInMilliSeconds());
 
-        // let's wait until maxBatchWaitTime time has passed
-        Thread.sleep(tsaasConfig.getMaxBatchWaitTimeInMilliSeconds() + 10);
-        plugin.store(createSamples());
-
-        // we expect 3 samples, one from each call:
-        verify(cloud.getServerStorage(), times(1)).store(argThat(l -> l.size() == 3));
+        // no more samples are stored, the timer should send the partial batch once maxBatchWaitTime has passed:
+        verify(cloud.getServerStorage(), timeout(2000).times(1)).store(argThat(l -> l.size() == 2));
+        assertEquals(0L, plugin.getMetrics().get("queue.oldestSampleAgeInMs").longValue());
         clearInvocations(cloud.getServerStorage());
 
-        // do a second run to see if a second batch is  sent:
-        // store 2 samples. The batch size is 10 => should only call server when 10 samples are reached or maxBatchWaitTime has passed:
+        // do a second run to see if a second batch is sent:
+        plugin.store(createSamples());
         plugin.store(createSamples());
         plugin.store(createSamples());
         verify(cloud.getServerStorage(), never()).store(any());
+        verify(cloud.getServerStorage(), timeout(2000).times(1)).store(argThat(l -> l.size() == 3));
+        plugin.destroy();
+    }
+
+    @Test
+    public void shouldSendFullBatchesInTheBackground() throws StorageException {
+        TsaasConfig tsaasConfig = TsaasConfig.builder()
+                .batchSize(2)
+                .maxBatchWaitTimeInMilliSeconds(60000)
+                .senderThreads(2)
+                .build();
+        CloudLogServiceConfig cloudLogServiceConfig = new CloudLogServiceConfig(1000, 60);
+        GrpcExecutionHandler grpcHandler = new GrpcExecutionHandler(new CloudLogService(cloudLogServiceConfig));
+        TsaasStorage plugin = new TsaasStorage(tsaasConfig, grpcHandler);
+        plugin.initGrpc(cloud.getClientConfigWithToken());
+
+        for (int i = 0; i < 4; i++) {
+            plugin.store(createSamples());
+        }
+        // 4 samples with a batch size of 2 => 2 batches sent by the sender threads
+        verify(cloud.getServerStorage(), timeout(1000).times(2)).store(argThat(l -> l.size() == 2));
 
-        // let's wait until maxBatchWaitTime time has passed
-        Thread.sleep(tsaasConfig.getMaxBatchWaitTimeInMilliSeconds() + 10);
+        // a half full batch stays in the queue until it is flushed:
         plugin.store(createSamples());
+        verify(cloud.getServerStorage(), never()).store(argThat(l -> l.size() == 1));
+        plugin.flush();
+        verify(cloud.getServerStorage(), times(1)).store(argThat(l -> l.size() == 1));
+        plugin.destroy();
+    }
+
+    @Test
+    public void shouldPipelineBatches() throws StorageException {
+        TsaasConfig tsaasConfig = TsaasConfig.builder()
+                .batchSize(1)
+                .senderThreads(1)
+                .maxOutstandingBatches(4)
+                .build();
+        CloudLogServiceConfig cloudLogServiceConfig = new CloudLogServiceConfig(1000, 60);
+        GrpcExecutionHandler grpcHandler = new GrpcExecutionHandler(new CloudLogService(cloudLogServiceConfig));
+        TsaasStorage plugin = new TsaasStorage(tsaasConfig, grpcHandler);
+        plugin.initGrpc(cloud.getClientConfigWithToken());
+        doAnswer(i -> {
+            Thread.sleep(300); // simulates the round trip time
+            return null;
+        }).when(cloud.getServerStorage()).store(any());
+
+        for (int i = 0; i < 8; i++) {
+            plugin.store(createSamples());
+        }
+        // one sender thread waiting for each response would need 8 * 300ms, with 4 outstanding batches it takes ~600ms:
+        verify(cloud.getServerStorage(), timeout(1500).times(8)).store(any());
+        plugin.flush();
+        assertEquals(0L, plugin.getMetrics().get("batches.lost").longValue());
+        plugin.destroy();
+    }
+
+    @Test
+    public void shouldSendPartialBatchIfProducerIsBlocked() throws StorageException {
+        TsaasConfig tsaasConfig = TsaasConfig.builder()
+                .batchSize(10)
+                .queueMaxSamples(2) // less than a batch
+                .overflowPolicy(OverflowPolicy.BLOCK)
+                .maxBatchWaitTimeInMilliSeconds(60000)
+                .build();
+        CloudLogServiceConfig cloudLogServiceConfig = new CloudLogServiceConfig(1000, 60);
+        GrpcExecutionHandler grpcHandler = new GrpcExecutionHandler(new CloudLogService(cloudLogServiceConfig));
+        TsaasStorage plugin = new TsaasStorage(tsaasConfig, grpcHandler);
+        plugin.initGrpc(cloud.getClientConfigWithToken());
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            plugin.store(createSamples()); // the third one waits until the flusher made room
+        }
+        assertTrue(System.currentTimeMillis() - start < tsaasConfig.getMaxBatchWaitTimeInMilliSeconds());
+        verify(cloud.getServerStorage(), timeout(2000).times(1)).store(argThat(l -> l.size() == 2));
+        assertEquals(1L, plugin.getMetrics().get("queue.overflow.blocked").longValue());
+        plugin.destroy();
+    }
+
+    @Test
+    public void shouldCutBatchesByBytes() throws StorageException {
+        int sampleBytes = new QueuedSample(GrpcObjectMapper.toSample(createSamples().get(0)), 0).getBatchBytes();
+        TsaasConfig tsaasConfig = TsaasConfig.builder()
+                .batchSize(1000)
+                .batchMaxBytes(3L * sampleBytes)
+                .maxBatchWaitTimeInMilliSeconds(60000)
+                .build();
+        CloudLogServiceConfig cloudLogServiceConfig = new CloudLogServiceConfig(1000, 60);
+        GrpcExecutionHandler grpcHandler = new GrpcExecutionHandler(new CloudLogService(cloudLogServiceConfig));
+        TsaasStorage plugin = new TsaasStorage(tsaasConfig, grpcHandler);
+        plugin.initGrpc(cloud.getClientConfigWithToken());
 
-        // we expect 3 samples, one from each call:
-        verify(cloud.getServerStorage(), times(1)).store(argThat(l -> l.size() == 3));
+        for (int i = 0; i < 7; i++) {
+            plugin.store(createSamples());
+        }
+        // the byte limit is reached after 3 samples => 2 batches are sent without waiting:
+        verify(cloud.getServerStorage(), timeout(1000).times(2)).store(argThat(l -> l.size() == 3));
+        plugin.flush();
+        verify(cloud.getServerStorage(), times(1)).store(argThat(l -> l.size() == 1));
+        plugin.destroy();
     }
 
     private List<Sample> createSamples() {
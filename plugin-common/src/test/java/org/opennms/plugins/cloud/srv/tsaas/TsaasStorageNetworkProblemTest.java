@@ -28,14 +28,15 @@
 
 package org.opennms.plugins.cloud.srv.tsaas;
 
-import static org.junit.Assert.assertThrows;
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
-import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 
 import java.io.IOException;
@@ -46,6 +47,7 @@ import java.util.List;
 import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
 import org.opennms.integration.api.v1.timeseries.Sample;
 import org.opennms.integration.api.v1.timeseries.StorageException;
@@ -55,6 +57,8 @@ import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
 import org.opennms.plugins.cloud.grpc.CloudLogService;
 import org.opennms.plugins.cloud.grpc.CloudLogServiceConfig;
 import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler;
+import org.opennms.plugins.cloud.grpc.GrpcExecutionHandlerConfig;
+import org.opennms.plugins.cloud.srv.tsaas.spool.SpoolMode;
 import org.opennms.plugins.cloud.testserver.MockCloud;
 
 public class TsaasStorageNetworkProblemTest {
@@ -64,6 +68,9 @@ public class TsaasStorageNetworkProblemTest {
             .serverStorage(mock(TimeSeriesStorage.class))
             .build();
 
+    @Rule
+    public TemporaryFolder spoolDir = new TemporaryFolder();
+
     @Test
     public void shouldRecoverAfterServerFailure() throws StorageException, InterruptedException, IOException {
         CloudLogServiceConfig cloudLogServiceConfig = new CloudLogServiceConfig(1000, 60);
@@ -72,11 +79,12 @@ public class TsaasStorageNetworkProblemTest {
         plugin.initGrpc(cloud.getClientConfigWithToken());
 
         plugin.store(createSamples());
-        verify(cloud.getServerStorage(), times(1)).store(any());
+        verify(cloud.getServerStorage(), timeout(1000).times(1)).store(any());
         reset(cloud.getServerStorage());
 
         cloud.stop();
-        assertThrows(StorageException.class, () -> plugin.store(createSamples()));
+        plugin.store(createSamples()); // store() doesn't block => the network problem is handled by the flusher
+        flushIgnoringErrors(plugin);
 
         verify(cloud.getServerStorage(), never()).store(any());
 
@@ -87,7 +95,7 @@ public class TsaasStorageNetworkProblemTest {
         cloud.start();
         plugin.getGrpc().managedChannel.resetConnectBackoff(); // make sure the channel is ready. Otherwise it has a short wait time
         plugin.store(createSamples());
-        verify(cloud.getServerStorage(), times(1)).store(any());
+        verify(cloud.getServerStorage(), timeout(1000).times(1)).store(any());
     }
 
     @Test
@@ -98,13 +106,110 @@ public class TsaasStorageNetworkProblemTest {
         plugin.initGrpc(cloud.getClientConfigWithToken());
 
         doThrow(new StorageException("hups")).when(cloud.getServerStorage()).store(any());
-        plugin.store(createSamples()); // nothing should happen since this is a non recoverable exception
+        plugin.store(createSamples());
+        plugin.flush(); // nothing should happen since this is a non recoverable exception
         doNothing().when(cloud.getServerStorage()).store(any());
         plugin.store(createSamples());
-        verify(cloud.getServerStorage(), times(2)).store(any());
+        verify(cloud.getServerStorage(), timeout(1000).times(2)).store(any());
     }
 
 
+    @Test
+    public void shouldReplaySpooledBatchesAfterServerFailure() throws StorageException, IOException {
+        CloudLogServiceConfig cloudLogServiceConfig = new CloudLogServiceConfig(1000, 60);
+        // the failed attempts open the circuit breaker, we don't want to wait long for the probe:
+        GrpcExecutionHandler grpcHandler = new GrpcExecutionHandler(new CloudLogService(cloudLogServiceConfig),
+                GrpcExecutionHandlerConfig.builder().circuitBreakerOpenDurationInMs(100).build());
+        TsaasConfig config = TsaasConfig.builder()
+                .batchSize(1)
+                .spoolMode(SpoolMode.ON_FAILURE)
+                .spoolDirectory(spoolDir.getRoot().getAbsolutePath())
+                .spoolSegmentSizeInBytes(1024)
+                .spoolMaxSizeInBytes(1024 * 1024)
+                .spoolReplayBatchesPerSecond(100)
+                .build();
+        TsaasStorage plugin = new TsaasStorage(config, grpcHandler);
+        plugin.initGrpc(cloud.getClientConfigWithToken());
+
+        cloud.stop();
+        plugin.store(createSamples());
+        plugin.store(createSamples());
+        flushIgnoringErrors(plugin);
+        assertEquals(2L, plugin.getMetrics().get("spool.unacknowledgedBatches").longValue());
+
+        cloud = MockCloud.builder()
+                .serverConfig(cloud.getClientConfigWithToken()) // to keep same port
+                .serverStorage(mock(TimeSeriesStorage.class))
+                .build();
+        cloud.start();
+        plugin.getGrpc().managedChannel.resetConnectBackoff();
+
+        // the spooled batches are replayed without any further store() call:
+        verify(cloud.getServerStorage(), timeout(10000).times(2)).store(any());
+        await().until(() -> plugin.getMetrics().get("spool.unacknowledgedBatches").longValue() == 0L);
+        assertEquals(0L, plugin.getMetrics().get("batches.lost").longValue());
+        plugin.destroy();
+    }
+
+    @Test
+    public void shouldRetryBatchesAfterShortOutage() throws StorageException, IOException {
+        CloudLogServiceConfig cloudLogServiceConfig = new CloudLogServiceConfig(1000, 60);
+        GrpcExecutionHandler grpcHandler = new GrpcExecutionHandler(new CloudLogService(cloudLogServiceConfig));
+        TsaasConfig config = TsaasConfig.builder()
+                .batchSize(1)
+                .retryMaxAttempts(100)
+                .retryInitialBackoffInMilliSeconds(50)
+                .retryMaxBackoffInMilliSeconds(200)
+                .build();
+        TsaasStorage plugin = new TsaasStorage(config, grpcHandler);
+        plugin.initGrpc(cloud.getClientConfigWithToken());
+
+        cloud.stop();
+        plugin.store(createSamples());
+        await().until(() -> plugin.getMetrics().get("batches.retried").longValue() >= 2L);
+
+        cloud = MockCloud.builder()
+                .serverConfig(cloud.getClientConfigWithToken()) // to keep same port
+                .serverStorage(mock(TimeSeriesStorage.class))
+                .build();
+        cloud.start();
+        plugin.getGrpc().managedChannel.resetConnectBackoff();
+
+        // the batch is retried without any further store() call:
+        verify(cloud.getServerStorage(), timeout(10000).times(1)).store(any());
+        assertEquals(0L, plugin.getMetrics().get("batches.lost").longValue());
+        assertEquals(0L, plugin.getMetrics().get("batches.pendingRetries").longValue());
+        plugin.destroy();
+    }
+
+    @Test
+    public void shouldDropBatchesAfterLastRetry() throws StorageException {
+        CloudLogServiceConfig cloudLogServiceConfig = new CloudLogServiceConfig(1000, 60);
+        GrpcExecutionHandler grpcHandler = new GrpcExecutionHandler(new CloudLogService(cloudLogServiceConfig));
+        TsaasConfig config = TsaasConfig.builder()
+                .batchSize(1)
+                .retryMaxAttempts(2)
+                .retryInitialBackoffInMilliSeconds(10)
+                .build();
+        TsaasStorage plugin = new TsaasStorage(config, grpcHandler);
+        plugin.initGrpc(cloud.getClientConfigWithToken());
+
+        cloud.stop();
+        plugin.store(createSamples());
+        await().until(() -> plugin.getMetrics().get("batches.droppedAfterRetries").longValue() == 1L);
+        assertEquals(2L, plugin.getMetrics().get("batches.retried").longValue());
+        assertEquals(1L, plugin.getMetrics().get("batches.lost").longValue());
+        plugin.destroy();
+    }
+
+    private void flushIgnoringErrors(TsaasStorage plugin) {
+        try {
+            plugin.flush();
+        } catch (StorageException e) {
+            // expected: the cloud is not reachable. Depending on timing the flusher or flush() itself ran into the problem.
+        }
+    }
+
     private List<Sample> createSamples() {
         return Collections.singletonList(
                 ImmutableSample.builder()
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+import org.opennms.plugins.cloud.grpc.CloudLogService;
+import org.opennms.plugins.cloud.grpc.CloudLogServiceConfig;
+import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler;
+import org.opennms.plugins.cloud.testserver.MockCloud;
+
+public class TsaasStorageStreamingTest {
+
+    private MockCloud cloud;
+    private TsaasStorage plugin;
+
+    @Test
+    public void shouldStreamBatches() throws Exception {
+        cloud = MockCloud.builder()
+                .serverStorage(mock(TimeSeriesStorage.class))
+                .build();
+        cloud.start();
+        plugin = createStorage();
+        for (int i = 0; i < 10; i++) {
+            plugin.store(createSamples());
+        }
+        verify(cloud.getServerStorage(), timeout(5000).times(10)).store(any());
+        plugin.flush();
+
+        // 4 batches per stream (maxBatchesPerStream):
+        long streams = cloud.getTsaasService().getStreams().get();
+        assertTrue(String.format("expected less streams than batches but was %s", streams), streams >= 3 && streams < 10);
+        assertEquals(1, plugin.getMetrics().get("storeMode.streaming").intValue());
+        assertEquals(streams, plugin.getMetrics().get("stream.completed").longValue());
+        assertEquals(0L, plugin.getMetrics().get("batches.lost").longValue());
+    }
+
+    @Test
+    public void shouldHoldAllBatchesOfTheOpenStreamsInTheWindow() {
+        TsaasConfig config = TsaasConfig.builder()
+                .senderThreads(2)
+                .maxOutstandingBatches(1)
+                .maxBatchesPerStream(10)
+                .build();
+        assertEquals(1, TsaasFlusher.getWindowSize(config));
+        assertEquals(20, TsaasFlusher.getWindowSize(config.toBuilder().storeMode(StoreMode.STREAMING).build()));
+        assertEquals(50, TsaasFlusher.getWindowSize(config.toBuilder().storeMode(StoreMode.STREAMING).maxOutstandingBatches(50).build()));
+    }
+
+    @Test
+    public void shouldFallBackToUnaryCallsForOlderServers() throws Exception {
+        cloud = MockCloud.builder()
+                .serverStorage(mock(TimeSeriesStorage.class))
+                .streamingSupported(false)
+                .build();
+        cloud.start();
+        plugin = createStorage();
+        for (int i = 0; i < 10; i++) {
+            plugin.store(createSamples());
+        }
+        verify(cloud.getServerStorage(), timeout(5000).times(10)).store(any());
+        plugin.flush();
+        assertEquals(0, plugin.getMetrics().get("storeMode.streaming").intValue());
+        assertEquals(0L, plugin.getMetrics().get("batches.lost").longValue());
+    }
+
+    @After
+    public void tearDown() {
+        if (plugin != null) {
+            plugin.destroy();
+        }
+        if (cloud != null) {
+            cloud.stop();
+        }
+    }
+
+    private TsaasStorage createStorage() {
+        TsaasConfig config = TsaasConfig.builder()
+                .batchSize(10)
+                .senderThreads(1)
+                .storeMode(StoreMode.STREAMING)
+                .maxBatchesPerStream(4)
+                .build();
+        GrpcExecutionHandler grpcHandler = new GrpcExecutionHandler(new CloudLogService(new CloudLogServiceConfig(1000, 60)));
+        TsaasStorage storage = new TsaasStorage(config, grpcHandler);
+        storage.initGrpc(cloud.getClientConfigWithToken());
+        return storage;
+    }
+
+    private List<Sample> createSamples() {
+        List<Sample> samples = new ArrayList<>();
+        Instant now = Instant.now();
+        for (int i = 0; i < 10; i++) {
+            samples.add(ImmutableSample.builder()
+                    .time(now.plusSeconds(i))
+                    .metric(ImmutableMetric.builder()
+                            .intrinsicTag(IntrinsicTagNames.resourceId, "snmp/1/nodeSnmp[]")
+                            .intrinsicTag(IntrinsicTagNames.name, "metric" + i)
+                            .metaTag(MetaTagNames.mtype, "gauge")
+                            .build())
+                    .value((double) i)
+                    .build());
+        }
+        return samples;
+    }
+}
@@ -29,9 +29,15 @@
 package org.opennms.plugins.cloud.srv.tsaas;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.junit.After;
@@ -40,10 +46,19 @@ import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.opennms.integration.api.v1.timeseries.AbstractStorageIntegrationTest;
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Sample;
 import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.integration.api.v1.timeseries.TagMatcher;
+import org.opennms.integration.api.v1.timeseries.TimeSeriesFetchRequest;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTagMatcher;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableTimeSeriesFetchRequest;
 import org.opennms.plugins.cloud.grpc.CloudLogServiceConfig;
 import org.opennms.plugins.cloud.grpc.CloudLogServiceTestUtil;
+import org.opennms.plugins.cloud.grpc.GrpcChannelPool;
+import org.opennms.plugins.cloud.grpc.GrpcConnection;
 import org.opennms.plugins.cloud.grpc.GrpcConnectionConfig;
 import org.opennms.plugins.cloud.grpc.GrpcExecutionHandler;
 import org.opennms.plugins.cloud.grpc.CloudLogService;
@@ -52,6 +67,8 @@ import org.opennms.plugins.cloud.testserver.MockCloud;
 import org.opennms.tsaas.Tsaas;
 import org.opennms.tsaas.telemetry.GatewayOuterClass;
 
+import io.grpc.ConnectivityState;
+
 public class TsaasStorageTest extends AbstractStorageIntegrationTest implements CloudLogServiceTestUtil {
 
     @Rule
@@ -89,6 +106,11 @@ public class TsaasStorageTest extends AbstractStorageIntegrationTest implements
         return storage;
     }
 
+    @Override
+    protected void waitForPersistingChanges() throws StorageException {
+        storage.flush(); // samples are sent asynchronously
+    }
+
     @Ignore("we don't implement delete(), hence @Ignore")
     @Override
     public void shouldDeleteMetrics() {
@@ -102,6 +124,62 @@ public class TsaasStorageTest extends AbstractStorageIntegrationTest implements
         assertEquals(Tsaas.CheckHealthResponse.ServingStatus.SERVING, health.getStatus());
     }
 
+    @Test
+    public void shouldQueryAsync() throws Exception {
+        Metric metric = metrics.get(0);
+        List<TagMatcher> matchers = metric.getIntrinsicTags().stream()
+                .map(t -> ImmutableTagMatcher.builder().key(t.getKey()).value(t.getValue()).build())
+                .collect(Collectors.toList());
+        List<Metric> found = storage.findMetricsAsync(matchers).get();
+        assertFalse(found.isEmpty());
+        assertEquals(storage.findMetrics(matchers), found);
+
+        TimeSeriesFetchRequest request = ImmutableTimeSeriesFetchRequest.builder()
+                .metric(metric)
+                .start(referenceTime.minusSeconds(300))
+                .end(referenceTime.plusSeconds(300))
+                .step(Duration.ZERO)
+                .aggregation(Aggregation.NONE)
+                .build();
+        List<Sample> samples = storage.getTimeseriesAsync(request).get();
+        assertFalse(samples.isEmpty());
+        assertEquals(storage.getTimeseries(request), samples);
+    }
+
+    @Test
+    public void shouldCloseOnlyItsOwnChannelPool() {
+        GrpcChannelPool ownPool = storage.getChannelPool();
+        storage.destroy();
+        storage = null;
+        assertTrue(ownPool.isClosed());
+
+        try (GrpcChannelPool shared = new GrpcChannelPool(1)) {
+            TsaasStorage withSharedPool = new TsaasStorage(TsaasConfig.builder().build(), new GrpcExecutionHandler(cloudLogService), shared);
+            withSharedPool.initGrpc(cloud.getClientConfigWithToken());
+            withSharedPool.destroy();
+            assertFalse(shared.isClosed());
+        }
+    }
+
+    @Test
+    public void shouldWarmUpConnection() {
+        assertEquals(ConnectivityState.READY, storage.getGrpc().managedChannel.getState(false));
+        assertTrue(storage.getMetrics().get("connection.timeToReadyInMs").longValue() >= 0);
+    }
+
+    @Test
+    public void shouldRotateTokenWithoutNewConnection() throws Exception {
+        GrpcConnectionConfig withoutToken = cloud.getClientConfig();
+        storage.initGrpc(withoutToken);
+        GrpcConnection<?> connection = storage.getGrpc();
+        List<TagMatcher> matchers = List.of(ImmutableTagMatcher.builder().key("name").value("a").build());
+        assertThrows(StorageException.class, () -> storage.findMetrics(matchers)); // UNAUTHENTICATED
+
+        storage.initGrpc(cloud.getClientConfigWithToken());
+        assertSame(connection, storage.getGrpc());
+        storage.findMetrics(matchers); // the new token is used
+    }
+
     @Test
     public void log_service_grpc_should_receive_expected_number_of_entries() throws StorageException {
         // Given
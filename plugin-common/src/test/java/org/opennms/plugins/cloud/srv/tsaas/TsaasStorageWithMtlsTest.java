@@ -39,6 +39,7 @@ import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.opennms.integration.api.v1.timeseries.AbstractStorageIntegrationTest;
+import org.opennms.integration.api.v1.timeseries.StorageException;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
 import org.opennms.plugins.cloud.grpc.CloudLogService;
 import org.opennms.plugins.cloud.grpc.CloudLogServiceConfig;
@@ -86,6 +87,11 @@ public class TsaasStorageWithMtlsTest extends AbstractStorageIntegrationTest {
         return storage;
     }
 
+    @Override
+    protected void waitForPersistingChanges() throws StorageException {
+        storage.flush(); // samples are sent asynchronously
+    }
+
     @Test
     @Ignore("we don't implement delete(), hence @Ignore")
     @Override
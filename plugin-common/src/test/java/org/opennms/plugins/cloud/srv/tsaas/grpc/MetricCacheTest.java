@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.time.Duration;
+
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.MetaTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.tsaas.Tsaas;
+
+public class MetricCacheTest {
+
+    @Test
+    public void shouldCacheConvertedMetrics() {
+        MetricCache cache = new MetricCache(10, Duration.ofMinutes(1));
+        Tsaas.Metric first = cache.toMetric(createMetric("a", "gauge"));
+        Tsaas.Metric second = cache.toMetric(createMetric("a", "gauge"));
+        assertSame(first, second);
+        assertEquals(GrpcObjectMapper.toMetric(createMetric("a", "gauge")), first);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void shouldDistinguishMetaTags() {
+        // Metric.equals() ignores the meta tags, the cache must not:
+        MetricCache cache = new MetricCache(10, Duration.ofMinutes(1));
+        cache.toMetric(createMetric("a", "gauge"));
+        Tsaas.Metric counter = cache.toMetric(createMetric("a", "counter"));
+        assertEquals(GrpcObjectMapper.toMetric(createMetric("a", "counter")), counter);
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    private static Metric createMetric(String name, String mtype) {
+        return ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, "r")
+                .intrinsicTag(IntrinsicTagNames.name, name)
+                .metaTag(MetaTagNames.mtype, mtype)
+                .build();
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.srv.tsaas.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.opennms.tsaas.Tsaas;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.Empty;
+
+import io.grpc.ClientCall;
+import io.grpc.Deadline;
+import io.grpc.Status;
+
+public class SampleStreamerTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldCancelStreamThatIsNotReady() {
+        ClientCall<Tsaas.Samples, Empty> call = mock(ClientCall.class); // never ready
+        AtomicReference<Deadline> deadline = new AtomicReference<>();
+        try (SampleStreamer streamer = new SampleStreamer(d -> {
+            deadline.set(d);
+            return call;
+        }, 4, 1000, 100)) {
+            ListenableFuture<Empty> future = streamer.send(Tsaas.Samples.getDefaultInstance());
+
+            ExecutionException e = assertThrows(ExecutionException.class, future::get);
+            assertEquals(Status.Code.DEADLINE_EXCEEDED, Status.fromThrowable(e.getCause()).getCode());
+            verify(call).cancel(anyString(), any());
+            verify(call, never()).sendMessage(any());
+            assertEquals(1, streamer.getTimedOutStreams());
+            assertEquals(0, streamer.getOpenStreams());
+            // timeout + 4 batches * (idle time + timeout):
+            assertNotNull(deadline.get());
+            long remaining = deadline.get().timeRemaining(TimeUnit.MILLISECONDS);
+            assertTrue(String.valueOf(remaining), remaining > 4000 && remaining <= 4500);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas.grpc;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.opennms.tsaas.Tsaas;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+
+public class SeriesBatchMapperTest {
+
+    @Test
+    public void shouldGroupBySeries() throws InvalidProtocolBufferException {
+        Tsaas.Metric a = metric("a");
+        Tsaas.Metric b = metric("b");
+        Tsaas.Samples samples = Tsaas.Samples.newBuilder()
+                .addSamples(sample(a, 1, 1.0))
+                .addSamples(sample(b, 1, 2.0))
+                .addSamples(sample(a, 2, 3.0))
+                .build();
+
+        TsaasSeries.SeriesBatch batch = SeriesBatchMapper.toSeriesBatch(samples);
+        assertEquals(2, batch.getSeriesCount());
+        assertEquals(a, Tsaas.Metric.parseFrom(batch.getSeries(0).getMetric()));
+        assertEquals(2, batch.getSeries(0).getValuesCount());
+        assertEquals(3.0, batch.getSeries(0).getValues(1), 0.0);
+        assertEquals(b, Tsaas.Metric.parseFrom(batch.getSeries(1).getMetric()));
+
+        // grouped by series => a, a, b:
+        Tsaas.Samples expected = Tsaas.Samples.newBuilder()
+                .addSamples(samples.getSamples(0))
+                .addSamples(samples.getSamples(2))
+                .addSamples(samples.getSamples(1))
+                .build();
+        assertEquals(expected, SeriesBatchMapper.toSamples(batch));
+    }
+
+    private static Tsaas.Metric metric(String name) {
+        return Tsaas.Metric.newBuilder()
+                .addIntrinsicTags(Tsaas.Tag.newBuilder().setKey("name").setValue(name))
+                .build();
+    }
+
+    private static Tsaas.Sample sample(Tsaas.Metric metric, long seconds, double value) {
+        return Tsaas.Sample.newBuilder()
+                .setMetric(metric)
+                .setTime(Timestamp.newBuilder().setSeconds(seconds).setNanos(5))
+                .setValue(value)
+                .build();
+    }
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.plugins.cloud.srv.tsaas.shell;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.plugins.cloud.srv.tsaas.TsaasStorage;
+import org.opennms.tsaas.Tsaas;
+
+import com.github.luben.zstd.Zstd;
+
+public class CompressionDictionaryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldTrainDictionaryFromCapturedBatches() throws Exception {
+        TsaasStorage tss = mock(TsaasStorage.class);
+        when(tss.stopBatchCapture()).thenReturn(createBatches());
+        File file = new File(folder.getRoot(), "tsaas.dict");
+        final CompressionDictionary command = new CompressionDictionary();
+        command.tss = tss;
+        command.file = file.getAbsolutePath();
+        command.seconds = 0;
+        command.size = 4096;
+        command.execute();
+        verify(tss).startBatchCapture(command.batches);
+        assertTrue(file.exists());
+        assertNotEquals(0, Zstd.getDictIdFromDict(Files.readAllBytes(file.toPath())));
+    }
+
+    @Test
+    public void shouldNeedBatchesToTestTheDictionary() throws Exception {
+        TsaasStorage tss = mock(TsaasStorage.class);
+        when(tss.stopBatchCapture()).thenReturn(createBatches().subList(0, 1));
+        File file = new File(folder.getRoot(), "tsaas.dict");
+        final CompressionDictionary command = new CompressionDictionary();
+        command.tss = tss;
+        command.file = file.getAbsolutePath();
+        command.seconds = 0;
+        command.execute();
+        assertFalse(file.exists());
+    }
+
+    private static List<Tsaas.Samples> createBatches() {
+        List<Tsaas.Samples> batches = new ArrayList<>();
+        for (int b = 0; b < 20; b++) {
+            Tsaas.Samples.Builder batch = Tsaas.Samples.newBuilder();
+            for (int i = 0; i < 100; i++) {
+                batch.addSamples(Tsaas.Sample.newBuilder()
+                        .setMetric(Tsaas.Metric.newBuilder()
+                                .addIntrinsicTags(Tsaas.Tag.newBuilder().setKey("resourceId").setValue("snmp:fs:NODES:node" + b + ":interfaceSnmp:eth" + i))
+                                .addIntrinsicTags(Tsaas.Tag.newBuilder().setKey("name").setValue("ifHCInOctets")))
+                        .setValue(b * 100.0 + i));
+            }
+            batches.add(batch.build());
+        }
+        return batches;
+    }
+}
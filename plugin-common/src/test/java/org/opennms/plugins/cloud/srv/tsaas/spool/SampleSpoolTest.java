@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2022 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2022 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.plugins.cloud.srv.tsaas.spool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.tsaas.Tsaas;
+
+public class SampleSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldHandOutBatchesInOrder() throws IOException {
+        try (SampleSpool spool = new SampleSpool(folder.getRoot().toPath(), 1024, 1024 * 1024)) {
+            spool.append(batch(1), false);
+            spool.append(batch(2), false);
+            SampleSpool.Record first = spool.claimNext();
+            SampleSpool.Record second = spool.claimNext();
+            assertNull(spool.claimNext()); // both are claimed
+            assertEquals(1.0, value(spool, first), 0.0);
+            assertEquals(2.0, value(spool, second), 0.0);
+
+            spool.release(first);
+            first = spool.claimNext();
+            assertEquals(1.0, value(spool, first), 0.0);
+            spool.acknowledge(second);
+            spool.acknowledge(first);
+            assertEquals(0, spool.getUnacknowledgedBatches());
+            assertNull(spool.claimNext());
+        }
+    }
+
+    @Test
+    public void shouldSkipBatchesThatWereAcknowledgedWhilePending() throws IOException {
+        try (SampleSpool spool = new SampleSpool(folder.getRoot().toPath(), 1024, 1024 * 1024)) {
+            SampleSpool.Record first = spool.append(batch(1), false);
+            spool.append(batch(2), false);
+            spool.acknowledge(first);
+            assertEquals(2.0, value(spool, spool.claimNext()), 0.0);
+            assertNull(spool.claimNext());
+        }
+    }
+
+    @Test
+    public void shouldNotReadFromClosedSpool() throws IOException {
+        SampleSpool.Record record;
+        SampleSpool closed;
+        try (SampleSpool spool = new SampleSpool(folder.getRoot().toPath(), 1024, 1024 * 1024)) {
+            record = spool.append(batch(1), false);
+            closed = spool;
+        }
+        assertThrows(IOException.class, () -> closed.read(record)); // the segment is unmapped
+    }
+
+    @Test
+    public void shouldContinueAfterRestart() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        try (SampleSpool spool = new SampleSpool(dir, 1024, 1024 * 1024)) {
+            spool.append(batch(1), false);
+            spool.append(batch(2), false);
+            spool.append(batch(3), true);
+            spool.acknowledge(spool.claimNext());
+        }
+        try (SampleSpool spool = new SampleSpool(dir, 1024, 1024 * 1024)) {
+            assertEquals(2, spool.getUnacknowledgedBatches());
+            assertEquals(2.0, value(spool, spool.claimNext()), 0.0);
+            assertEquals(3.0, value(spool, spool.claimNext()), 0.0); // was claimed before the restart but never acknowledged
+            assertNull(spool.claimNext());
+        }
+    }
+
+    @Test
+    public void shouldDeleteConsumedSegments() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        int batchSize = batch(1).getSerializedSize();
+        int segmentSize = SpoolSegment.HEADER_SIZE + 2 * (SpoolSegment.RECORD_HEADER_SIZE + batchSize);
+        try (SampleSpool spool = new SampleSpool(dir, segmentSize, 1024 * 1024)) {
+            for (int i = 0; i < 5; i++) {
+                spool.append(batch(i), false);
+            }
+            assertEquals(3, countSegments(dir));
+            for (int i = 0; i < 4; i++) {
+                spool.acknowledge(spool.claimNext());
+            }
+            assertEquals(1, countSegments(dir));
+            assertEquals(4.0, value(spool, spool.claimNext()), 0.0);
+        }
+    }
+
+    @Test
+    public void shouldRejectIfFull() throws IOException {
+        int segmentSize = SpoolSegment.HEADER_SIZE + SpoolSegment.RECORD_HEADER_SIZE + batch(1).getSerializedSize();
+        try (SampleSpool spool = new SampleSpool(folder.getRoot().toPath(), segmentSize, segmentSize)) {
+            spool.append(batch(1), false);
+            Tsaas.Samples second = batch(2);
+            assertThrows(IOException.class, () -> spool.append(second, false));
+            assertEquals(1, spool.getRejected());
+        }
+    }
+
+    private static long countSegments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static double value(SampleSpool spool, SampleSpool.Record record) throws IOException {
+        return spool.read(record).getSamples(0).getValue();
+    }
+
+    private static Tsaas.Samples batch(double value) {
+        return Tsaas.Samples.newBuilder()
+                .addSamples(Tsaas.Sample.newBuilder().setValue(value))
+                .build();
+    }
+}
@@ -39,12 +39,14 @@ import javax.annotation.PreDestroy;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
 import org.opennms.plugins.cloud.grpc.GrpcConnectionConfig;
 import org.opennms.plugins.cloud.grpc.comp.ZstdCodecRegisterUtil;
+import org.opennms.plugins.cloud.grpc.comp.ZstdGrpcCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.grpc.Server;
 import io.grpc.netty.shaded.io.grpc.netty.GrpcSslContexts;
 import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import lombok.Getter;
 
 /**
  * A simple implementation of the server side of the grpc channel.
@@ -57,16 +59,28 @@ public class GrpcTestServer {
 
     private GrpcConnectionConfig config;
     private Server server;
+    @Getter
     private final TsaasGrpcImpl timeSeriesService;
     private final ConfigGrpcImpl configGrpcService;
     private final LogServiceGrpc logServiceGrpc;
+    private final ZstdGrpcCodec[] dictionaryCodecs; // zstd dictionaries the server can decompress
 
     public GrpcTestServer(final GrpcConnectionConfig config,
                           final TimeSeriesStorage storage) {
+        this(config, storage, true, true, new LogServiceGrpc());
+    }
+
+    public GrpcTestServer(final GrpcConnectionConfig config,
+                          final TimeSeriesStorage storage,
+                          final boolean seriesFormatSupported,
+                          final boolean streamingSupported,
+                          final LogServiceGrpc logServiceGrpc,
+                          final ZstdGrpcCodec... dictionaryCodecs) {
+        this.dictionaryCodecs = dictionaryCodecs;
         this.configGrpcService = new ConfigGrpcImpl();
-        this.timeSeriesService = new TsaasGrpcImpl(storage);
+        this.timeSeriesService = new TsaasGrpcImpl(storage, seriesFormatSupported, streamingSupported);
         this.config = config;
-        this.logServiceGrpc = new LogServiceGrpc();
+        this.logServiceGrpc = logServiceGrpc;
     }
 
     @PostConstruct
@@ -76,9 +90,9 @@ public class GrpcTestServer {
         NettyServerBuilder builder = NettyServerBuilder
                 .forPort(config.getPort())
                 .addService(configGrpcService)
-                .addService(timeSeriesService)
-                .addService(logServiceGrpc)
-                .decompressorRegistry(ZstdCodecRegisterUtil.createDecompressorRegistry())
+                .addService(timeSeriesService.bindServiceWithSeries())
+                .addService(logServiceGrpc.bindServiceWithSummaries())
+                .decompressorRegistry(ZstdCodecRegisterUtil.createDecompressorRegistry(dictionaryCodecs))
                 .compressorRegistry(ZstdCodecRegisterUtil.createCompressorRegistry())
                 .intercept(new GrpcTestServerInterceptor());
         if (GrpcConnectionConfig.Security.TLS == this.config.getSecurity()
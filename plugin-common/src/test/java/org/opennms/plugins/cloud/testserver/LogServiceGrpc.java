@@ -31,12 +31,17 @@ package org.opennms.plugins.cloud.testserver;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.opennms.plugins.cloud.grpc.CloudLogService;
+import org.opennms.plugins.cloud.grpc.LatencyHistograms;
+import org.opennms.plugins.cloud.grpc.LatencySummaries;
 import org.opennms.tsaas.telemetry.GatewayGrpc;
 import org.opennms.tsaas.telemetry.GatewayOuterClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.protobuf.Empty;
+
+import io.grpc.ServerServiceDefinition;
+import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
 import lombok.Getter;
 
@@ -47,6 +52,33 @@ public class LogServiceGrpc extends GatewayGrpc.GatewayImplBase {
     @Getter
     private static final List<GatewayOuterClass.LatencyTrace> list = new ArrayList<>();
 
+    @Getter
+    private static final List<LatencySummaries.LatencySummary> summaries = new ArrayList<>();
+
+    private final boolean summariesSupported;
+
+    public LogServiceGrpc() {
+        this(true);
+    }
+
+    public LogServiceGrpc(final boolean summariesSupported) {
+        this.summariesSupported = summariesSupported;
+    }
+
+    /**
+     * Adds SendLatencySummaries to the generated service definition. Without it the server answers with UNIMPLEMENTED,
+     * like an older server would.
+     */
+    public ServerServiceDefinition bindServiceWithSummaries() {
+        ServerServiceDefinition generated = bindService();
+        ServerServiceDefinition.Builder builder = ServerServiceDefinition.builder(GatewayGrpc.SERVICE_NAME);
+        generated.getMethods().forEach(builder::addMethod);
+        if (summariesSupported) {
+            builder.addMethod(LatencyHistograms.SEND_LATENCY_SUMMARIES_METHOD, ServerCalls.asyncUnaryCall(this::sendLatencySummaries));
+        }
+        return builder.build();
+    }
+
     @Override
     public void sendTraces(GatewayOuterClass.SendTracesRequest request, StreamObserver<GatewayOuterClass.SendTracesResponse> responseObserver) {
         list.addAll(request.getLatencyTracesList());
@@ -55,4 +87,11 @@ public class LogServiceGrpc extends GatewayGrpc.GatewayImplBase {
         responseObserver.onNext(sendTracesResponse);
         responseObserver.onCompleted();
     }
+
+    public void sendLatencySummaries(LatencySummaries.LatencySummaryBatch request, StreamObserver<Empty> responseObserver) {
+        summaries.addAll(request.getSummariesList());
+        LOG.info("Received {} latency summaries.", request.getSummariesCount());
+        responseObserver.onNext(Empty.getDefaultInstance());
+        responseObserver.onCompleted();
+    }
 }
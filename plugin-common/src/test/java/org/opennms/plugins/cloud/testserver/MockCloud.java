@@ -38,6 +38,7 @@ import org.junit.rules.ExternalResource;
 import org.opennms.integration.api.v1.timeseries.InMemoryStorage;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
 import org.opennms.plugins.cloud.grpc.GrpcConnectionConfig;
+import org.opennms.plugins.cloud.grpc.comp.ZstdGrpcCodec;
 
 import lombok.Builder;
 import lombok.Getter;
@@ -68,19 +69,31 @@ public class MockCloud extends ExternalResource implements AutoCloseable {
 
     private final String keyFilename;
 
+    private final boolean seriesFormatSupported;
+
+    private final boolean streamingSupported;
+
+    private final byte[] compressionDictionary;
+
     @Builder
     public MockCloud(final GrpcConnectionConfig serverConfig,
                      final TimeSeriesStorage serverStorage,
                      final LogServiceGrpc logServiceGrpc,
                      final String certPrefix,
                      final String keyCertChainFilename,
-                     final String keyFilename) {
+                     final String keyFilename,
+                     final boolean seriesFormatSupported,
+                     final boolean streamingSupported,
+                     final byte[] compressionDictionary) {
         this.serverConfig = serverConfig;
         this.serverStorage = Objects.requireNonNull(serverStorage);
         this.logServiceGrpc = logServiceGrpc;
         this.certPrefix = Objects.requireNonNull(certPrefix);
         this.keyCertChainFilename = Objects.requireNonNull(keyCertChainFilename);
         this.keyFilename = Objects.requireNonNull(keyFilename);
+        this.seriesFormatSupported = seriesFormatSupported;
+        this.streamingSupported = streamingSupported;
+        this.compressionDictionary = compressionDictionary;
     }
 
     public static GrpcConnectionConfig.GrpcConnectionConfigBuilder defaultServerConfig() {
@@ -90,7 +103,8 @@ public class MockCloud extends ExternalResource implements AutoCloseable {
     }
 
     public void start() throws IOException {
-        server = new GrpcTestServer(serverConfig, serverStorage);
+        server = new GrpcTestServer(serverConfig, serverStorage, seriesFormatSupported, streamingSupported, logServiceGrpc,
+                compressionDictionary == null ? new ZstdGrpcCodec[0] : new ZstdGrpcCodec[]{new ZstdGrpcCodec(compressionDictionary)});
         server.startServer(certPrefix, keyCertChainFilename, keyFilename);
         clientConfig = server
                 .getConfig()
@@ -99,6 +113,10 @@ public class MockCloud extends ExternalResource implements AutoCloseable {
                 .build();
     }
 
+    public TsaasGrpcImpl getTsaasService() {
+        return server.getTimeSeriesService();
+    }
+
     /**
      * Simulates a config that is valid after init() and configure() (we have already received the access token).
      */
@@ -138,5 +156,8 @@ public class MockCloud extends ExternalResource implements AutoCloseable {
         private String certPrefix = "/cert"; // default value
         private String keyFilename = "server_pkcs8_key.pem";
         private String keyCertChainFilename = "server.crt";
+        private boolean seriesFormatSupported = true; // default value
+        private boolean streamingSupported = true; // default value
+        private byte[] compressionDictionary = null; // default value
     }
 }
@@ -33,6 +33,7 @@ import static org.opennms.plugins.cloud.srv.tsaas.grpc.GrpcObjectMapper.toMetric
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.opennms.integration.api.v1.timeseries.Metric;
@@ -43,31 +44,131 @@ import org.opennms.integration.api.v1.timeseries.TimeSeriesData;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesFetchRequest;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesStorage;
 import org.opennms.plugins.cloud.srv.tsaas.grpc.GrpcObjectMapper;
+import org.opennms.plugins.cloud.srv.tsaas.grpc.SampleStreamer;
+import org.opennms.plugins.cloud.srv.tsaas.grpc.SeriesBatchMapper;
+import org.opennms.plugins.cloud.srv.tsaas.grpc.TsaasSeries;
 import org.opennms.tsaas.TimeseriesGrpc;
 import org.opennms.tsaas.Tsaas;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.protobuf.InvalidProtocolBufferException;
+
 import io.grpc.BindableService;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
+import lombok.Getter;
 
 /**
  * Provides endpoint for grpc time series calls and translates and forwards them to the given TimeseriesStorage implementation.
+ * Accepts batches in the samples and in the series format, unary or streamed. The received bytes are counted per
+ * format, so they can be compared.
  */
 public class TsaasGrpcImpl extends TimeseriesGrpc.TimeseriesImplBase implements BindableService {
 
     private static final Logger LOG = LoggerFactory.getLogger(TsaasGrpcImpl.class);
 
     private final TimeSeriesStorage storage;
+    private final boolean seriesFormatSupported;
+    private final boolean streamingSupported;
+
+    @Getter
+    private final AtomicLong samplesFormatBytes = new AtomicLong();
+    @Getter
+    private final AtomicLong seriesFormatBytes = new AtomicLong();
+    @Getter
+    private final AtomicLong streams = new AtomicLong();
 
     public TsaasGrpcImpl(final TimeSeriesStorage storage) {
+        this(storage, true, true);
+    }
+
+    public TsaasGrpcImpl(final TimeSeriesStorage storage, final boolean seriesFormatSupported, final boolean streamingSupported) {
         this.storage = Objects.requireNonNull(storage);
+        this.seriesFormatSupported = seriesFormatSupported;
+        this.streamingSupported = streamingSupported;
+    }
+
+    /**
+     * Adds StoreSeries and StoreStream to the generated service definition. Without them the server answers with
+     * UNIMPLEMENTED, like an older server would.
+     */
+    public ServerServiceDefinition bindServiceWithSeries() {
+        ServerServiceDefinition generated = bindService();
+        ServerServiceDefinition.Builder builder = ServerServiceDefinition.builder(TimeseriesGrpc.SERVICE_NAME);
+        generated.getMethods().forEach(builder::addMethod);
+        if (seriesFormatSupported) {
+            builder.addMethod(SeriesBatchMapper.STORE_SERIES_METHOD, ServerCalls.asyncUnaryCall(this::storeSeries));
+        }
+        if (streamingSupported) {
+            builder.addMethod(SampleStreamer.STORE_STREAM_METHOD, ServerCalls.asyncClientStreamingCall(this::storeStream));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Stores every batch of the stream as it arrives and answers when the client completes the stream.
+     */
+    public StreamObserver<Tsaas.Samples> storeStream(StreamObserver<com.google.protobuf.Empty> responseObserver) {
+        LOG.debug("StoreStream endpoint opened with clientID {}", GrpcTestServerInterceptor.CLIENT_ID.get());
+        streams.incrementAndGet();
+        return new StreamObserver<>() {
+            private boolean failed;
+
+            @Override
+            public void onNext(Tsaas.Samples request) {
+                if (failed) {
+                    return;
+                }
+                samplesFormatBytes.addAndGet(request.getSerializedSize());
+                try {
+                    storage.store(request.getSamplesList().stream()
+                            .map(GrpcObjectMapper::toSample)
+                            .collect(Collectors.toList()));
+                } catch (StorageException e) {
+                    LOG.error("Failed to write {} samples.", request.getSamplesCount(), e);
+                    failed = true;
+                    responseObserver.onError(e);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                LOG.debug("Stream was cancelled by the client.", t);
+            }
+
+            @Override
+            public void onCompleted() {
+                if (!failed) {
+                    responseObserver.onNext(com.google.protobuf.Empty.getDefaultInstance());
+                    responseObserver.onCompleted();
+                }
+            }
+        };
+    }
+
+    public void storeSeries(TsaasSeries.SeriesBatch request,
+                            StreamObserver<com.google.protobuf.Empty> responseObserver) {
+        LOG.debug("StoreSeries endpoint received {} series with clientID {}", request.getSeriesCount(), GrpcTestServerInterceptor.CLIENT_ID.get());
+        seriesFormatBytes.addAndGet(request.getSerializedSize());
+        try {
+            storeSamples(SeriesBatchMapper.toSamples(request), responseObserver);
+        } catch (InvalidProtocolBufferException e) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+        }
     }
 
     @Override
     public void store(org.opennms.tsaas.Tsaas.Samples request,
                       io.grpc.stub.StreamObserver<com.google.protobuf.Empty> responseObserver) {
         LOG.debug("Store endpoint received {} samples with clientID {}", request.getSamplesCount(), GrpcTestServerInterceptor.CLIENT_ID.get());
+        samplesFormatBytes.addAndGet(request.getSerializedSize());
+        storeSamples(request, responseObserver);
+    }
+
+    private void storeSamples(Tsaas.Samples request, StreamObserver<com.google.protobuf.Empty> responseObserver) {
         List<Sample> samples = request
                 .getSamplesList()
                 .stream()